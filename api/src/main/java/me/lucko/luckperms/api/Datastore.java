@@ -23,6 +23,7 @@
 package me.lucko.luckperms.api;
 
 import me.lucko.luckperms.api.data.Callback;
+import me.lucko.luckperms.api.data.PoolStats;
 
 import java.util.Set;
 import java.util.UUID;
@@ -64,6 +65,13 @@ public interface Datastore {
      */
     Future future();
 
+    /**
+     * Gets the current state of the datastore's connection pool.
+     * @return the pool stats, or null if the datastore does not use a connection pool
+     * @since 2.8
+     */
+    PoolStats getPoolStats();
+
     /**
      * All operations through this interface are called immediately and in the same thread as they are called.
      * Datastore operations are thread blocking, and Sync operations should not be called on the main server thread.
@@ -140,7 +140,7 @@ public interface Log {
     int getTrackHistoryMaxPages(String name);
 
     /**
-     * @param query the query to filter by
+     * @param query the query to filter by. Each whitespace separated term must be found in the entry.
      * @return all content in this log where the content matches query
      */
     SortedSet<LogEntry> getSearch(String query);
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.api.data;
+
+/**
+ * A snapshot of the state of a datastore's connection pool.
+ */
+public interface PoolStats {
+
+    /**
+     * @return the number of connections currently in use
+     */
+    int getActiveConnections();
+
+    /**
+     * @return the number of connections waiting in the pool
+     */
+    int getIdleConnections();
+
+    /**
+     * @return the total number of open connections
+     */
+    int getTotalConnections();
+
+    /**
+     * @return the maximum number of connections the pool will open
+     */
+    int getMaximumPoolSize();
+
+    /**
+     * @return the number of threads currently waiting for a connection
+     */
+    int getPendingThreads();
+
+    /**
+     * @return the average time taken to acquire a connection from the pool, in milliseconds
+     */
+    double getAverageAcquireTime();
+
+    /**
+     * @return the longest time taken to acquire a connection from the pool, in milliseconds
+     */
+    double getMaxAcquireTime();
+
+    /**
+     * @return the number of connection requests which timed out
+     */
+    long getConnectionTimeouts();
+
+}
@@ -23,11 +23,14 @@
 package me.lucko.luckperms;
 
 import me.lucko.luckperms.core.LPConfiguration;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 class BukkitConfig extends LPConfiguration<LPBukkitPlugin> {
     private YamlConfiguration configuration;
@@ -74,4 +77,18 @@ class BukkitConfig extends LPConfiguration<LPBukkitPlugin> {
     protected boolean getBoolean(String path, boolean def) {
         return configuration.getBoolean(path, def);
     }
+
+    @Override
+    protected Map<String, String> getMap(String path, Map<String, String> def) {
+        ConfigurationSection section = configuration.getConfigurationSection(path);
+        if (section == null) {
+            return def;
+        }
+
+        Map<String, String> map = new HashMap<>();
+        for (String key : section.getKeys(false)) {
+            map.put(key, section.getString(key));
+        }
+        return map;
+    }
 }
@@ -49,7 +49,9 @@ class BukkitListener extends AbstractListener implements Listener {
             return;
         }
 
-        onAsyncLogin(e.getUniqueId(), e.getName());
+        if (!onAsyncLogin(e.getUniqueId(), e.getName())) {
+            e.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, Message.LOGIN_BUSY.toString());
+        }
     }
 
     @EventHandler
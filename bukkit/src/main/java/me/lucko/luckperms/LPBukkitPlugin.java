@@ -36,6 +36,7 @@ import me.lucko.luckperms.core.UuidCache;
 import me.lucko.luckperms.data.Importer;
 import me.lucko.luckperms.groups.GroupManager;
 import me.lucko.luckperms.runnables.ExpireTemporaryTask;
+import me.lucko.luckperms.runnables.LogRetentionTask;
 import me.lucko.luckperms.runnables.UpdateTask;
 import me.lucko.luckperms.storage.Datastore;
 import me.lucko.luckperms.storage.StorageFactory;
@@ -108,6 +109,10 @@ public class LPBukkitPlugin extends JavaPlugin implements LuckPermsPlugin {
         getServer().getScheduler().runTaskTimerAsynchronously(this, new ExpireTemporaryTask(this), 60L, 60L);
         getServer().getScheduler().runTaskTimerAsynchronously(this, consecutiveExecutor, 20L, 20L);
 
+        if (getConfiguration().getLogRetentionEnabled()) {
+            getServer().getScheduler().runTaskTimerAsynchronously(this, new LogRetentionTask(this), 1200L, 72000L);
+        }
+
         // Provide vault support
         getLog().info("Attempting to hook into Vault...");
         try {
@@ -146,7 +151,7 @@ public class LPBukkitPlugin extends JavaPlugin implements LuckPermsPlugin {
     @Override
     public void onDisable() {
         getLog().info("Closing datastore...");
-        datastore.shutdown();
+        datastore.close();
 
         getLog().info("Unregistering API...");
         LuckPerms.unregisterProvider();
@@ -163,6 +168,11 @@ public class LPBukkitPlugin extends JavaPlugin implements LuckPermsPlugin {
         getServer().getScheduler().runTask(this, r);
     }
 
+    @Override
+    public boolean isMainThread() {
+        return getServer().isPrimaryThread();
+    }
+
     @Override
     public String getVersion() {
         return getDescription().getVersion();
@@ -46,6 +46,8 @@ public class BukkitUserManager extends UserManager {
 
     @Override
     public void preUnload(User user) {
+        super.preUnload(user);
+
         if (user instanceof BukkitUser) {
             BukkitUser u = (BukkitUser) user;
             Player player = plugin.getServer().getPlayer(plugin.getUuidCache().getExternalUUID(u.getUuid()));
@@ -86,7 +88,7 @@ public class BukkitUserManager extends UserManager {
             Set<UUID> players = plugin.getServer().getOnlinePlayers().stream()
                     .map(p -> plugin.getUuidCache().getUUID(p.getUniqueId()))
                     .collect(Collectors.toSet());
-            plugin.doAsync(() -> players.forEach(u -> plugin.getDatastore().loadUser(u, "null")));
+            plugin.doAsync(() -> players.forEach(u -> plugin.getDatastore().loadUserInBackground(u)));
         });
     }
 }
@@ -31,6 +31,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
 
 class BungeeConfig extends LPConfiguration<LPBungeePlugin> {
     private Configuration configuration;
@@ -81,4 +83,18 @@ class BungeeConfig extends LPConfiguration<LPBungeePlugin> {
     protected boolean getBoolean(String path, boolean def) {
         return configuration.getBoolean(path, def);
     }
+
+    @Override
+    protected Map<String, String> getMap(String path, Map<String, String> def) {
+        if (!configuration.contains(path)) {
+            return def;
+        }
+
+        Configuration section = configuration.getSection(path);
+        Map<String, String> map = new HashMap<>();
+        for (String key : section.getKeys()) {
+            map.put(key, String.valueOf(section.get(key)));
+        }
+        return map;
+    }
 }
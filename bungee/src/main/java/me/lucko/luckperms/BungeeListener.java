@@ -23,7 +23,6 @@
 package me.lucko.luckperms;
 
 import me.lucko.luckperms.constants.Message;
-import me.lucko.luckperms.core.UuidCache;
 import me.lucko.luckperms.users.User;
 import me.lucko.luckperms.utils.AbstractListener;
 import net.md_5.bungee.api.chat.TextComponent;
@@ -35,7 +34,6 @@ import net.md_5.bungee.event.EventHandler;
 
 import java.util.Collections;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 @SuppressWarnings("WeakerAccess")
@@ -84,32 +82,17 @@ public class BungeeListener extends AbstractListener implements Listener {
            Offline mode. */
         e.registerIntent(plugin);
         plugin.doAsync(() -> {
-            final long startTime = System.currentTimeMillis();
-            final UuidCache cache = plugin.getUuidCache();
             final PendingConnection c = e.getConnection();
-
-            if (!cache.isOnlineMode()) {
-                UUID uuid = plugin.getDatastore().getUUID(c.getName());
-                if (uuid != null) {
-                    cache.addToCache(c.getUniqueId(), uuid);
-                } else {
-                    // No previous data for this player
-                    cache.addToCache(c.getUniqueId(), c.getUniqueId());
-                    plugin.getDatastore().saveUUIDData(c.getName(), c.getUniqueId());
+            try {
+                // We have to make a new user on this thread whilst the connection is being held, or we get concurrency issues as the Bukkit server
+                // and the BungeeCord server try to make a new user at the same time.
+                if (!onAsyncLogin(c.getUniqueId(), c.getName())) {
+                    e.setCancelled(true);
+                    e.setCancelReason(Message.LOGIN_BUSY.toString());
                 }
-            } else {
-                // Online mode, no cache needed. This is just for name -> uuid lookup.
-                plugin.getDatastore().saveUUIDData(c.getName(), c.getUniqueId());
-            }
-
-            // We have to make a new user on this thread whilst the connection is being held, or we get concurrency issues as the Bukkit server
-            // and the BungeeCord server try to make a new user at the same time.
-            plugin.getDatastore().loadUser(cache.getUUID(c.getUniqueId()), c.getName());
-            final long time = System.currentTimeMillis() - startTime;
-            if (time >= 1000) {
-                plugin.getLog().warn("Processing login for " + c.getName() + " took " + time + "ms.");
+            } finally {
+                e.completeIntent(plugin);
             }
-            e.completeIntent(plugin);
         });
     }
 
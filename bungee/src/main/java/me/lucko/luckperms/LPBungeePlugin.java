@@ -35,6 +35,7 @@ import me.lucko.luckperms.core.UuidCache;
 import me.lucko.luckperms.data.Importer;
 import me.lucko.luckperms.groups.GroupManager;
 import me.lucko.luckperms.runnables.ExpireTemporaryTask;
+import me.lucko.luckperms.runnables.LogRetentionTask;
 import me.lucko.luckperms.runnables.UpdateTask;
 import me.lucko.luckperms.storage.Datastore;
 import me.lucko.luckperms.storage.StorageFactory;
@@ -106,6 +107,10 @@ public class LPBungeePlugin extends Plugin implements LuckPermsPlugin {
         getProxy().getScheduler().schedule(this, new ExpireTemporaryTask(this), 3L, 3L, TimeUnit.SECONDS);
         getProxy().getScheduler().schedule(this, consecutiveExecutor, 1L, 1L, TimeUnit.SECONDS);
 
+        if (getConfiguration().getLogRetentionEnabled()) {
+            getProxy().getScheduler().schedule(this, new LogRetentionTask(this), 1L, 60L, TimeUnit.MINUTES);
+        }
+
         getLog().info("Registering API...");
         apiProvider = new ApiProvider(this);
         LuckPerms.registerProvider(apiProvider);
@@ -124,7 +129,7 @@ public class LPBungeePlugin extends Plugin implements LuckPermsPlugin {
     @Override
     public void onDisable() {
         getLog().info("Closing datastore...");
-        datastore.shutdown();
+        datastore.close();
 
         getLog().info("Unregistering API...");
         LuckPerms.unregisterProvider();
@@ -213,4 +218,9 @@ public class LPBungeePlugin extends Plugin implements LuckPermsPlugin {
     public void doSync(Runnable r) {
         r.run();
     }
+
+    @Override
+    public boolean isMainThread() {
+        return false;
+    }
 }
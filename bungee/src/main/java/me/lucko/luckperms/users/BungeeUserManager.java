@@ -55,6 +55,6 @@ public class BungeeUserManager extends UserManager {
     public void updateAllUsers() {
         plugin.getProxy().getPlayers().stream()
                 .map(p -> plugin.getUuidCache().getUUID(p.getUniqueId()))
-                .forEach(u -> plugin.getDatastore().loadUser(u, "null"));
+                .forEach(u -> plugin.getDatastore().loadUserInBackground(u));
     }
 }
@@ -167,4 +167,9 @@ public interface LuckPermsPlugin {
      */
     void doSync(Runnable r);
 
+    /**
+     * @return true if the current thread is the platform's main thread. Always false on platforms without one.
+     */
+    boolean isMainThread();
+
 }
@@ -24,15 +24,16 @@ package me.lucko.luckperms.api.implementation.internal;
 
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
-import lombok.NoArgsConstructor;
 import lombok.NonNull;
 import me.lucko.luckperms.LuckPermsPlugin;
 import me.lucko.luckperms.api.*;
 import me.lucko.luckperms.api.data.Callback;
+import me.lucko.luckperms.api.data.PoolStats;
 
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -91,6 +92,11 @@ public class DatastoreLink implements Datastore {
         return future;
     }
 
+    @Override
+    public PoolStats getPoolStats() {
+        return master.getPoolStats();
+    }
+
     @AllArgsConstructor
     public class Async implements Datastore.Async {
         private final me.lucko.luckperms.storage.Datastore master;
@@ -323,163 +329,120 @@ public class DatastoreLink implements Datastore {
 
         @Override
         public java.util.concurrent.Future<Boolean> logAction(@NonNull LogEntry entry) {
-            LPFuture<Boolean> lpf = new LPFuture<>();
-            master.logAction(entry, lpf);
-            return lpf;
+            return new LPFuture<>(master.logActionAsync(entry));
         }
 
         @Override
         public java.util.concurrent.Future<Log> getLog() {
-            LPFuture<Log> lpf = new LPFuture<>();
-            master.getLog(log -> lpf.onComplete(new LogLink(log)));
-            return lpf;
+            return new LPFuture<>(master.getLogAsync().thenApply(LogLink::new));
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> loadOrCreateUser(@NonNull UUID uuid, @NonNull String username) {
-            LPFuture<Boolean> lpf = new LPFuture<>();
-            master.loadUser(uuid, checkUsername(username), lpf);
-            return lpf;
+            return new LPFuture<>(master.loadUserAsync(uuid, checkUsername(username)));
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> loadUser(@NonNull UUID uuid) {
-            LPFuture<Boolean> lpf = new LPFuture<>();
-            master.loadUser(uuid, "null", lpf);
-            return lpf;
+            return new LPFuture<>(master.loadUserAsync(uuid, "null"));
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> loadUser(@NonNull UUID uuid, @NonNull String username) {
-            LPFuture<Boolean> lpf = new LPFuture<>();
-            master.loadUser(uuid, checkUsername(username), lpf);
-            return lpf;
+            return new LPFuture<>(master.loadUserAsync(uuid, checkUsername(username)));
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> saveUser(@NonNull User user) {
-            LPFuture<Boolean> lpf = new LPFuture<>();
             checkUser(user);
-            master.saveUser(((UserLink) user).getMaster(), lpf);
-            return lpf;
+            return new LPFuture<>(master.saveUserAsync(((UserLink) user).getMaster()));
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> cleanupUsers() {
-            LPFuture<Boolean> lpf = new LPFuture<>();
-            master.cleanupUsers(lpf);
-            return lpf;
+            return new LPFuture<>(master.cleanupUsersAsync());
         }
 
         @Override
         public java.util.concurrent.Future<Set<UUID>> getUniqueUsers() {
-            LPFuture<Set<UUID>> lpf = new LPFuture<>();
-            master.getUniqueUsers(lpf);
-            return lpf;
+            return new LPFuture<>(master.getUniqueUsersAsync());
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> createAndLoadGroup(@NonNull String name) {
-            LPFuture<Boolean> lpf = new LPFuture<>();
-            master.createAndLoadGroup(checkName(name), lpf);
-            return lpf;
+            return new LPFuture<>(master.createAndLoadGroupAsync(checkName(name)));
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> loadGroup(@NonNull String name) {
-            LPFuture<Boolean> lpf = new LPFuture<>();
-            master.loadGroup(checkName(name), lpf);
-            return lpf;
+            return new LPFuture<>(master.loadGroupAsync(checkName(name)));
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> loadAllGroups() {
-            LPFuture<Boolean> lpf = new LPFuture<>();
-            master.loadAllGroups(lpf);
-            return lpf;
+            return new LPFuture<>(master.loadAllGroupsAsync());
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> saveGroup(@NonNull Group group) {
-            LPFuture<Boolean> lpf = new LPFuture<>();
             checkGroup(group);
-            master.saveGroup(((GroupLink) group).getMaster(), lpf);
-            return lpf;
+            return new LPFuture<>(master.saveGroupAsync(((GroupLink) group).getMaster()));
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> deleteGroup(@NonNull Group group) {
-            LPFuture<Boolean> lpf = new LPFuture<>();
             checkGroup(group);
             if (group.getName().equalsIgnoreCase(plugin.getConfiguration().getDefaultGroupName())) {
                 throw new IllegalArgumentException("Cannot delete the default group.");
             }
-            master.deleteGroup(((GroupLink) group).getMaster(), lpf);
-            return lpf;
+            return new LPFuture<>(master.deleteGroupAsync(((GroupLink) group).getMaster()));
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> createAndLoadTrack(@NonNull String name) {
-            LPFuture<Boolean> lpf = new LPFuture<>();
-            master.createAndLoadTrack(checkName(name), lpf);
-            return lpf;
+            return new LPFuture<>(master.createAndLoadTrackAsync(checkName(name)));
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> loadTrack(@NonNull String name) {
-            LPFuture<Boolean> lpf = new LPFuture<>();
-            master.loadTrack(checkName(name), lpf);
-            return lpf;
+            return new LPFuture<>(master.loadTrackAsync(checkName(name)));
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> loadAllTracks() {
-            LPFuture<Boolean> lpf = new LPFuture<>();
-            master.loadAllTracks(lpf);
-            return lpf;
+            return new LPFuture<>(master.loadAllTracksAsync());
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> saveTrack(@NonNull Track track) {
-            LPFuture<Boolean> lpf = new LPFuture<>();
             checkTrack(track);
-            master.saveTrack(((TrackLink) track).getMaster(), lpf);
-            return lpf;
+            return new LPFuture<>(master.saveTrackAsync(((TrackLink) track).getMaster()));
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> deleteTrack(@NonNull Track track) {
-            LPFuture<Boolean> lpf = new LPFuture<>();
             checkTrack(track);
-            master.deleteTrack(((TrackLink) track).getMaster(), lpf);
-            return lpf;
+            return new LPFuture<>(master.deleteTrackAsync(((TrackLink) track).getMaster()));
         }
 
         @Override
         public java.util.concurrent.Future<Boolean> saveUUIDData(@NonNull String username, @NonNull UUID uuid) {
-            LPFuture<Boolean> lpf = new LPFuture<>();
-            master.saveUUIDData(checkUsername(username), uuid, lpf);
-            return lpf;
+            return new LPFuture<>(master.saveUUIDDataAsync(checkUsername(username), uuid));
         }
 
         @Override
         public java.util.concurrent.Future<UUID> getUUID(@NonNull String username) {
-            LPFuture<UUID> lpf = new LPFuture<>();
-            master.getUUID(checkUsername(username), lpf);
-            return lpf;
+            return new LPFuture<>(master.getUUIDAsync(checkUsername(username)));
         }
     }
 
-    @NoArgsConstructor(access = AccessLevel.PRIVATE)
-    public static class LPFuture<T> implements Callback<T>, java.util.concurrent.Future<T> {
-        private final CountDownLatch latch = new CountDownLatch(1);
-        private T value;
-
-        @Override
-        public void onComplete(T t) {
-            value = t;
-            latch.countDown();
-        }
+    /**
+     * Exposes a {@link CompletableFuture} as a plain {@link java.util.concurrent.Future}, which can't be cancelled
+     * or completed by the caller.
+     */
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static class LPFuture<T> implements java.util.concurrent.Future<T> {
+        private final CompletableFuture<T> future;
 
         @Override
         public boolean cancel(boolean mayInterruptIfRunning) {
@@ -494,22 +457,17 @@ public class DatastoreLink implements Datastore {
 
         @Override
         public boolean isDone() {
-            return latch.getCount() == 0;
+            return future.isDone();
         }
 
         @Override
-        public T get() throws InterruptedException {
-            latch.await();
-            return value;
+        public T get() throws InterruptedException, ExecutionException {
+            return future.get();
         }
 
         @Override
-        public T get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
-            if (latch.await(timeout, unit)) {
-                return value;
-            } else {
-                throw new TimeoutException();
-            }
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return future.get(timeout, unit);
         }
     }
 
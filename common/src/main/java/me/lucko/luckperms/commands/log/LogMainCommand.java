@@ -28,21 +28,21 @@ import me.lucko.luckperms.commands.MainCommand;
 import me.lucko.luckperms.commands.Sender;
 import me.lucko.luckperms.commands.SubCommand;
 import me.lucko.luckperms.commands.log.subcommands.*;
-import me.lucko.luckperms.constants.Message;
-import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.storage.Datastore;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
-public class LogMainCommand extends MainCommand<Log> {
+public class LogMainCommand extends MainCommand<Datastore> {
     public LogMainCommand() {
-        super("Log", "/%s log", 1, ImmutableList.<SubCommand<Log>>builder()
+        super("Log", "/%s log", 1, ImmutableList.<SubCommand<Datastore>>builder()
             .add(new LogRecent())
             .add(new LogSearch())
             .add(new LogNotify())
             .add(new LogExport())
+            .add(new LogArchive())
             .add(new LogUserHistory())
             .add(new LogGroupHistory())
             .add(new LogTrackHistory())
@@ -51,18 +51,13 @@ public class LogMainCommand extends MainCommand<Log> {
     }
 
     @Override
-    protected Log getTarget(String target, LuckPermsPlugin plugin, Sender sender) {
-        Log log = plugin.getDatastore().getLog();
-
-        if (log == null) {
-            Message.LOG_LOAD_ERROR.send(sender);
-        }
-
-        return log;
+    protected Datastore getTarget(String target, LuckPermsPlugin plugin, Sender sender) {
+        // Entries are loaded by each sub command, so only the ones being shown are read from the datastore
+        return plugin.getDatastore();
     }
 
     @Override
-    protected void cleanup(Log log, LuckPermsPlugin plugin) {
+    protected void cleanup(Datastore datastore, LuckPermsPlugin plugin) {
 
     }
 
@@ -73,7 +68,7 @@ public class LogMainCommand extends MainCommand<Log> {
 
     @Override
     protected List<String> onTabComplete(Sender sender, List<String> args, LuckPermsPlugin plugin) {
-        final List<SubCommand<Log>> subs = getSubCommands().stream()
+        final List<SubCommand<Datastore>> subs = getSubCommands().stream()
                 .filter(s -> s.isAuthorized(sender))
                 .collect(Collectors.toList());
 
@@ -90,7 +85,7 @@ public class LogMainCommand extends MainCommand<Log> {
                     .collect(Collectors.toList());
         }
 
-        Optional<SubCommand<Log>> o = subs.stream()
+        Optional<SubCommand<Datastore>> o = subs.stream()
                 .filter(s -> s.getName().equalsIgnoreCase(args.get(0)))
                 .limit(1)
                 .findAny();
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.commands.log.subcommands;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import me.lucko.luckperms.LuckPermsPlugin;
+import me.lucko.luckperms.api.LogEntry;
+import me.lucko.luckperms.commands.CommandResult;
+import me.lucko.luckperms.commands.Predicate;
+import me.lucko.luckperms.commands.Sender;
+import me.lucko.luckperms.commands.SubCommand;
+import me.lucko.luckperms.constants.Message;
+import me.lucko.luckperms.constants.Permission;
+import me.lucko.luckperms.data.LogQuery;
+import me.lucko.luckperms.storage.Datastore;
+import me.lucko.luckperms.utils.DateUtil;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+public class LogArchive extends SubCommand<Datastore> {
+    private static final Gson GSON = new Gson();
+
+    public LogArchive() {
+        super("archive", "Archive the log to a compressed file, and optionally remove the archived entries",
+                "/%s log archive <file> [older than] [newer than] [purge]", Permission.LOG_ARCHIVE, Predicate.notInRange(1, 4));
+    }
+
+    @Override
+    public CommandResult execute(LuckPermsPlugin plugin, Sender sender, Datastore datastore, List<String> args, String label) {
+        File f = new File(plugin.getMainDir(), args.get(0));
+        if (f.exists()) {
+            Message.LOG_EXPORT_ALREADY_EXISTS.send(sender, f.getAbsolutePath());
+            return CommandResult.INVALID_ARGS;
+        }
+
+        boolean purge = false;
+        List<Long> times = new ArrayList<>();
+        for (String arg : args.subList(1, args.size())) {
+            if (arg.equalsIgnoreCase("purge")) {
+                purge = true;
+                continue;
+            }
+
+            if (times.size() == 2) {
+                sendUsage(sender, label);
+                return CommandResult.INVALID_ARGS;
+            }
+
+            try {
+                times.add(DateUtil.parseDateDiff(arg, false));
+            } catch (DateUtil.IllegalDateException e) {
+                Message.ILLEGAL_DATE_ERROR.send(sender, arg);
+                return CommandResult.INVALID_ARGS;
+            }
+        }
+
+        // Entries logged after the archive was started are left alone, so they can't be purged without being archived.
+        final long now = System.currentTimeMillis() / 1000L;
+        LogQuery.Builder builder = LogQuery.builder().before(times.isEmpty() ? now : Math.min(times.get(0), now));
+        if (times.size() == 2) {
+            builder.after(times.get(1));
+        }
+        final LogQuery query = builder.build();
+
+        try {
+            f.createNewFile();
+        } catch (IOException e) {
+            Message.LOG_EXPORT_FAILURE.send(sender);
+            e.printStackTrace();
+            return CommandResult.FAILURE;
+        }
+
+        if (!Files.isWritable(f.toPath())) {
+            Message.LOG_EXPORT_NOT_WRITABLE.send(sender, f.getAbsolutePath());
+            return CommandResult.FAILURE;
+        }
+
+        final int[] count = {0};
+        final IOException[] error = {null};
+        boolean success = false;
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(f)), StandardCharsets.UTF_8))) {
+            success = datastore.streamLog(query, e -> {
+                if (error[0] != null) {
+                    return;
+                }
+
+                try {
+                    writer.write(GSON.toJson(toJson(e)));
+                    writer.write('\n');
+                    count[0]++;
+                } catch (IOException ex) {
+                    error[0] = ex;
+                }
+            });
+        } catch (IOException e) {
+            error[0] = e;
+        }
+
+        if (error[0] != null) {
+            f.delete();
+            error[0].printStackTrace();
+            Message.LOG_EXPORT_FAILURE.send(sender);
+            return CommandResult.FAILURE;
+        }
+
+        if (!success) {
+            f.delete();
+            Message.LOG_LOAD_ERROR.send(sender);
+            return CommandResult.LOADING_ERROR;
+        }
+
+        if (count[0] == 0) {
+            f.delete();
+            Message.LOG_EXPORT_EMPTY.send(sender);
+            return CommandResult.STATE_ERROR;
+        }
+
+        Message.LOG_ARCHIVE_SUCCESS.send(sender, count[0], f.getAbsolutePath());
+
+        if (purge) {
+            int purged = datastore.purgeLog(query);
+            if (purged == -1) {
+                Message.LOG_ARCHIVE_PURGE_FAILURE.send(sender);
+                return CommandResult.FAILURE;
+            }
+
+            Message.LOG_ARCHIVE_PURGE_SUCCESS.send(sender, purged);
+        }
+
+        return CommandResult.SUCCESS;
+    }
+
+    private static JsonObject toJson(LogEntry e) {
+        JsonObject o = new JsonObject();
+        o.addProperty("timestamp", e.getTimestamp());
+        o.addProperty("actor", e.getActor().toString());
+        o.addProperty("actorName", e.getActorName());
+        o.addProperty("type", Character.toString(e.getType()));
+        if (e.getActed() != null) {
+            o.addProperty("acted", e.getActed().toString());
+        }
+        o.addProperty("actedName", e.getActedName());
+        o.addProperty("action", e.getAction());
+        return o;
+    }
+}
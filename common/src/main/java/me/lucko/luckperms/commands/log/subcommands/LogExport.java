@@ -30,33 +30,29 @@ import me.lucko.luckperms.commands.Sender;
 import me.lucko.luckperms.commands.SubCommand;
 import me.lucko.luckperms.constants.Message;
 import me.lucko.luckperms.constants.Permission;
-import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.data.LogQuery;
+import me.lucko.luckperms.storage.Datastore;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
-import java.util.ArrayList;
 import java.util.List;
 
-public class LogExport extends SubCommand<Log> {
+public class LogExport extends SubCommand<Datastore> {
     public LogExport() {
         super("export", "Export the log to a file", "/%s log export <file>", Permission.LOG_EXPORT, Predicate.not(1));
     }
 
     @Override
-    public CommandResult execute(LuckPermsPlugin plugin, Sender sender, Log log, List<String> args, String label) {
+    public CommandResult execute(LuckPermsPlugin plugin, Sender sender, Datastore datastore, List<String> args, String label) {
         File f = new File(plugin.getMainDir(), args.get(0));
         if (f.exists()) {
             Message.LOG_EXPORT_ALREADY_EXISTS.send(sender, f.getAbsolutePath());
             return CommandResult.INVALID_ARGS;
         }
 
-        if (log.getContent().isEmpty()) {
-            Message.LOG_EXPORT_EMPTY.send(sender);
-            return CommandResult.STATE_ERROR;
-        }
-
         try {
             f.createNewFile();
         } catch (IOException e) {
@@ -70,59 +66,88 @@ public class LogExport extends SubCommand<Log> {
             return CommandResult.FAILURE;
         }
 
-        List<String> data = new ArrayList<>();
+        final int[] count = {0};
+        final IOException[] error = {null};
+        boolean success = false;
+        try (BufferedWriter writer = Files.newBufferedWriter(f.toPath(), Charset.defaultCharset())) {
+            success = datastore.streamLog(LogQuery.builder().build(), e -> {
+                if (error[0] != null) {
+                    return;
+                }
 
-        StringBuilder b = new StringBuilder();
-        for (LogEntry e : log.getContent()) {
-            b.setLength(0);
-            b.append("/luckperms ");
+                try {
+                    writer.write(toCommand(e));
+                    writer.newLine();
+                    count[0]++;
+                } catch (IOException ex) {
+                    error[0] = ex;
+                }
+            });
+        } catch (IOException e) {
+            error[0] = e;
+        }
 
-            if (e.getType() == 'U') {
-                b.append("user ").append(e.getActed().toString()).append(" ").append(e.getAction());
-            }
+        if (error[0] != null) {
+            f.delete();
+            error[0].printStackTrace();
+            Message.LOG_EXPORT_FAILURE.send(sender);
+            return CommandResult.FAILURE;
+        }
 
-            group:
-            if (e.getType() == 'G') {
-                if (e.getAction().equalsIgnoreCase("create")) {
-                    b.append("creategroup ").append(e.getActedName());
-                    break group;
-                }
+        if (!success) {
+            f.delete();
+            Message.LOG_LOAD_ERROR.send(sender);
+            return CommandResult.LOADING_ERROR;
+        }
 
-                if (e.getAction().equalsIgnoreCase("delete")) {
-                    b.append("deletegroup ").append(e.getActedName());
-                    break group;
-                }
+        if (count[0] == 0) {
+            f.delete();
+            Message.LOG_EXPORT_EMPTY.send(sender);
+            return CommandResult.STATE_ERROR;
+        }
 
-                b.append("group ").append(e.getActedName()).append(" ").append(e.getAction());
-            }
+        Message.LOG_EXPORT_SUCCESS.send(sender, f.getAbsolutePath());
+        return CommandResult.SUCCESS;
+    }
 
-            track:
-            if (e.getType() == 'T') {
-                if (e.getAction().equalsIgnoreCase("create")) {
-                    b.append("createtrack ").append(e.getActedName());
-                    break track;
-                }
+    private static String toCommand(LogEntry e) {
+        StringBuilder b = new StringBuilder();
+        b.append("/luckperms ");
 
-                if (e.getAction().equalsIgnoreCase("delete")) {
-                    b.append("deletetrack ").append(e.getActedName());
-                    break track;
-                }
+        if (e.getType() == 'U') {
+            b.append("user ").append(e.getActed().toString()).append(" ").append(e.getAction());
+        }
+
+        group:
+        if (e.getType() == 'G') {
+            if (e.getAction().equalsIgnoreCase("create")) {
+                b.append("creategroup ").append(e.getActedName());
+                break group;
+            }
 
-                b.append("track ").append(e.getActedName()).append(" ").append(e.getAction());
+            if (e.getAction().equalsIgnoreCase("delete")) {
+                b.append("deletegroup ").append(e.getActedName());
+                break group;
             }
 
-            data.add(b.toString());
+            b.append("group ").append(e.getActedName()).append(" ").append(e.getAction());
         }
 
+        track:
+        if (e.getType() == 'T') {
+            if (e.getAction().equalsIgnoreCase("create")) {
+                b.append("createtrack ").append(e.getActedName());
+                break track;
+            }
 
-        try {
-            Files.write(f.toPath(), data, Charset.defaultCharset());
-            Message.LOG_EXPORT_SUCCESS.send(sender, f.getAbsolutePath());
-            return CommandResult.SUCCESS;
-        } catch (IOException e) {
-            e.printStackTrace();
-            Message.LOG_EXPORT_FAILURE.send(sender);
-            return CommandResult.FAILURE;
+            if (e.getAction().equalsIgnoreCase("delete")) {
+                b.append("deletetrack ").append(e.getActedName());
+                break track;
+            }
+
+            b.append("track ").append(e.getActedName()).append(" ").append(e.getAction());
         }
+
+        return b.toString();
     }
 }
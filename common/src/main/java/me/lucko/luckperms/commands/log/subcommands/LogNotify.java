@@ -29,20 +29,20 @@ import me.lucko.luckperms.commands.Sender;
 import me.lucko.luckperms.commands.SubCommand;
 import me.lucko.luckperms.constants.Message;
 import me.lucko.luckperms.constants.Permission;
-import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.storage.Datastore;
 
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
-public class LogNotify extends SubCommand<Log> {
+public class LogNotify extends SubCommand<Datastore> {
     public LogNotify() {
         super("notify", "Toggle notifications", "/%s log notify [on|off]", Permission.LOG_NOTIFY,
                 Predicate.notInRange(0, 1));
     }
 
     @Override
-    public CommandResult execute(LuckPermsPlugin plugin, Sender sender, Log log, List<String> args, String label) {
+    public CommandResult execute(LuckPermsPlugin plugin, Sender sender, Datastore datastore, List<String> args, String label) {
         final Set<UUID> ignoring = plugin.getIgnoringLogs();
         final UUID uuid = sender.getUuid();
         if (args.size() == 0) {
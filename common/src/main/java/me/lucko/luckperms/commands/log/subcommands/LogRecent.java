@@ -29,6 +29,8 @@ import me.lucko.luckperms.constants.Message;
 import me.lucko.luckperms.constants.Patterns;
 import me.lucko.luckperms.constants.Permission;
 import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.data.LogQuery;
+import me.lucko.luckperms.storage.Datastore;
 import me.lucko.luckperms.utils.DateUtil;
 
 import java.util.List;
@@ -36,17 +38,17 @@ import java.util.Map;
 import java.util.SortedMap;
 import java.util.UUID;
 
-public class LogRecent extends SubCommand<Log> {
+public class LogRecent extends SubCommand<Datastore> {
     public LogRecent() {
         super("recent", "View recent actions", "/%s log recent [user] [page]", Permission.LOG_RECENT,
                 Predicate.notInRange(0, 2));
     }
 
     @Override
-    public CommandResult execute(LuckPermsPlugin plugin, Sender sender, Log log, List<String> args, String label) {
+    public CommandResult execute(LuckPermsPlugin plugin, Sender sender, Datastore datastore, List<String> args, String label) {
         if (args.size() == 0) {
             // No page or user
-            return showLog(log.getRecentMaxPages(), null, sender, log);
+            return showLog(-999, null, sender, datastore);
         }
 
         if (args.size() == 1) {
@@ -54,7 +56,7 @@ public class LogRecent extends SubCommand<Log> {
             try {
                 int p = Integer.parseInt(args.get(0));
                 // page
-                return showLog(p, null, sender, log);
+                return showLog(p, null, sender, datastore);
             } catch (NumberFormatException ignored) {}
         }
 
@@ -81,16 +83,17 @@ public class LogRecent extends SubCommand<Log> {
 
                 if (args.size() != 2) {
                     // Just user
-                    return showLog(log.getRecentMaxPages(uuid), uuid, sender, log);
+                    return showLog(-999, uuid, sender, datastore);
                 }
 
                 try {
                     int p = Integer.parseInt(args.get(1));
                     // User and page
-                    return showLog(p, uuid, sender, log);
+                    return showLog(p, uuid, sender, datastore);
                 } catch (NumberFormatException e) {
                     // Invalid page
-                    return showLog(-1, null, null, null);
+                    Message.LOG_INVALID_PAGE.send(sender);
+                    return CommandResult.INVALID_ARGS;
                 }
             }
 
@@ -100,32 +103,54 @@ public class LogRecent extends SubCommand<Log> {
 
         if (args.size() != 2) {
             // Just user
-            return showLog(log.getRecentMaxPages(u), u, sender, log);
+            return showLog(-999, u, sender, datastore);
         } else {
             try {
                 int p = Integer.parseInt(args.get(1));
                 // User and page
-                return showLog(p, u, sender, log);
+                return showLog(p, u, sender, datastore);
             } catch (NumberFormatException e) {
                 // Invalid page
-                return showLog(-1, null, null, null);
+                Message.LOG_INVALID_PAGE.send(sender);
+                return CommandResult.INVALID_ARGS;
             }
         }
     }
 
-    private static CommandResult showLog(int page, UUID filter, Sender sender, Log log) {
-        int maxPage = (filter != null) ? log.getRecentMaxPages(filter) : log.getRecentMaxPages();
+    private static CommandResult showLog(int page, UUID filter, Sender sender, Datastore datastore) {
+        LogQuery query = filter != null ? LogQuery.builder().actor(filter).build() : LogQuery.builder().build();
+        int total = datastore.countLog(query);
+        if (total == -1) {
+            Message.LOG_LOAD_ERROR.send(sender);
+            return CommandResult.LOADING_ERROR;
+        }
+
+        int maxPage = Log.getMaxPages(total);
         if (maxPage == 0) {
             Message.LOG_NO_ENTRIES.send(sender);
             return CommandResult.STATE_ERROR;
         }
 
+        if (page == -999) {
+            page = maxPage;
+        }
+
         if (page < 1 || page > maxPage) {
             Message.LOG_INVALID_PAGE_RANGE.send(sender, maxPage);
             return CommandResult.INVALID_ARGS;
         }
 
-        SortedMap<Integer, LogEntry> entries = (filter != null) ? log.getRecent(page, filter) : log.getRecent(page);
+        SortedMap<Integer, LogEntry> entries = Log.getPage(datastore, query, total, page);
+        if (entries == null) {
+            Message.LOG_LOAD_ERROR.send(sender);
+            return CommandResult.LOADING_ERROR;
+        }
+
+        if (entries.isEmpty()) {
+            Message.LOG_NO_ENTRIES.send(sender);
+            return CommandResult.STATE_ERROR;
+        }
+
         if (filter != null) {
             String name = entries.values().stream().findAny().get().getActorName();
             Message.LOG_RECENT_BY_HEADER.send(sender, name, page, maxPage);
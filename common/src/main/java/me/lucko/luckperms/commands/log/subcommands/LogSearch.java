@@ -31,6 +31,8 @@ import me.lucko.luckperms.commands.SubCommand;
 import me.lucko.luckperms.constants.Message;
 import me.lucko.luckperms.constants.Permission;
 import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.data.LogQuery;
+import me.lucko.luckperms.storage.Datastore;
 import me.lucko.luckperms.utils.DateUtil;
 
 import java.util.List;
@@ -38,14 +40,14 @@ import java.util.Map;
 import java.util.SortedMap;
 import java.util.stream.Collectors;
 
-public class LogSearch extends SubCommand<Log> {
+public class LogSearch extends SubCommand<Datastore> {
     public LogSearch() {
         super("search", "Search the log for an entry", "/%s log search <query> [page]", Permission.LOG_SEARCH,
                 Predicate.is(0));
     }
 
     @Override
-    public CommandResult execute(LuckPermsPlugin plugin, Sender sender, Log log, List<String> args, String label) {
+    public CommandResult execute(LuckPermsPlugin plugin, Sender sender, Datastore datastore, List<String> args, String label) {
         int page = -999;
         if (args.size() > 1) {
             try {
@@ -54,9 +56,16 @@ public class LogSearch extends SubCommand<Log> {
             } catch (NumberFormatException ignored) {}
         }
 
-        final String query = args.stream().collect(Collectors.joining(" "));
+        final String search = args.stream().collect(Collectors.joining(" "));
 
-        int maxPage = log.getSearchMaxPages(query);
+        LogQuery query = LogQuery.builder().search(search).build();
+        int total = datastore.countLog(query);
+        if (total == -1) {
+            Message.LOG_LOAD_ERROR.send(sender);
+            return CommandResult.LOADING_ERROR;
+        }
+
+        int maxPage = Log.getMaxPages(total);
         if (maxPage == 0) {
             Message.LOG_NO_ENTRIES.send(sender);
             return CommandResult.STATE_ERROR;
@@ -71,8 +80,18 @@ public class LogSearch extends SubCommand<Log> {
             return CommandResult.INVALID_ARGS;
         }
 
-        SortedMap<Integer, LogEntry> entries = log.getSearch(page, query);
-        Message.LOG_SEARCH_HEADER.send(sender, query, page, maxPage);
+        SortedMap<Integer, LogEntry> entries = Log.getPage(datastore, query, total, page);
+        if (entries == null) {
+            Message.LOG_LOAD_ERROR.send(sender);
+            return CommandResult.LOADING_ERROR;
+        }
+
+        if (entries.isEmpty()) {
+            Message.LOG_NO_ENTRIES.send(sender);
+            return CommandResult.STATE_ERROR;
+        }
+
+        Message.LOG_SEARCH_HEADER.send(sender, search, page, maxPage);
 
         for (Map.Entry<Integer, LogEntry> e : entries.entrySet()) {
             Message.LOG_ENTRY.send(sender, e.getKey(), DateUtil.formatDateDiff(e.getValue().getTimestamp()), e.getValue().getFormatted());
@@ -31,6 +31,8 @@ import me.lucko.luckperms.commands.SubCommand;
 import me.lucko.luckperms.constants.Message;
 import me.lucko.luckperms.constants.Permission;
 import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.data.LogQuery;
+import me.lucko.luckperms.storage.Datastore;
 import me.lucko.luckperms.utils.ArgumentChecker;
 import me.lucko.luckperms.utils.DateUtil;
 
@@ -38,14 +40,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 
-public class LogTrackHistory extends SubCommand<Log> {
+public class LogTrackHistory extends SubCommand<Datastore> {
     public LogTrackHistory() {
         super("trackhistory", "View an objects history", "/%s log trackhistory <track> [page]", Permission.LOG_TRACK_HISTORY,
                 Predicate.notInRange(1, 2));
     }
 
     @Override
-    public CommandResult execute(LuckPermsPlugin plugin, Sender sender, Log log, List<String> args, String label) {
+    public CommandResult execute(LuckPermsPlugin plugin, Sender sender, Datastore datastore, List<String> args, String label) {
         String track = args.get(0).toLowerCase();
         int page = -999;
 
@@ -64,7 +66,14 @@ public class LogTrackHistory extends SubCommand<Log> {
             return CommandResult.INVALID_ARGS;
         }
 
-        int maxPage = log.getTrackHistoryMaxPages(track);
+        LogQuery query = LogQuery.builder().type('T').actedName(track).build();
+        int total = datastore.countLog(query);
+        if (total == -1) {
+            Message.LOG_LOAD_ERROR.send(sender);
+            return CommandResult.LOADING_ERROR;
+        }
+
+        int maxPage = Log.getMaxPages(total);
         if (maxPage == 0) {
             Message.LOG_NO_ENTRIES.send(sender);
             return CommandResult.STATE_ERROR;
@@ -79,7 +88,17 @@ public class LogTrackHistory extends SubCommand<Log> {
             return CommandResult.INVALID_ARGS;
         }
 
-        SortedMap<Integer, LogEntry> entries = log.getTrackHistory(page, track);
+        SortedMap<Integer, LogEntry> entries = Log.getPage(datastore, query, total, page);
+        if (entries == null) {
+            Message.LOG_LOAD_ERROR.send(sender);
+            return CommandResult.LOADING_ERROR;
+        }
+
+        if (entries.isEmpty()) {
+            Message.LOG_NO_ENTRIES.send(sender);
+            return CommandResult.STATE_ERROR;
+        }
+
         String name = entries.values().stream().findAny().get().getActedName();
         Message.LOG_HISTORY_TRACK_HEADER.send(sender, name, page, maxPage);
 
@@ -29,6 +29,8 @@ import me.lucko.luckperms.constants.Message;
 import me.lucko.luckperms.constants.Patterns;
 import me.lucko.luckperms.constants.Permission;
 import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.data.LogQuery;
+import me.lucko.luckperms.storage.Datastore;
 import me.lucko.luckperms.utils.DateUtil;
 
 import java.util.List;
@@ -36,14 +38,14 @@ import java.util.Map;
 import java.util.SortedMap;
 import java.util.UUID;
 
-public class LogUserHistory extends SubCommand<Log> {
+public class LogUserHistory extends SubCommand<Datastore> {
     public LogUserHistory() {
         super("userhistory", "View an objects history", "/%s log userhistory <user> [page]", Permission.LOG_USER_HISTORY,
                 Predicate.notInRange(1, 2));
     }
 
     @Override
-    public CommandResult execute(LuckPermsPlugin plugin, Sender sender, Log log, List<String> args, String label) {
+    public CommandResult execute(LuckPermsPlugin plugin, Sender sender, Datastore datastore, List<String> args, String label) {
         String user = args.get(0);
         int page = -999;
 
@@ -52,17 +54,14 @@ public class LogUserHistory extends SubCommand<Log> {
                 page = Integer.parseInt(args.get(1));
             } catch (NumberFormatException e) {
                 // invalid page
-                return showLog(-1, null, null, null);
+                Message.LOG_INVALID_PAGE.send(sender);
+                return CommandResult.INVALID_ARGS;
             }
         }
 
         UUID uuid = Util.parseUuid(user);
         if (uuid != null) {
-            if (page == -999) {
-                page = log.getUserHistoryMaxPages(uuid);
-            }
-
-            return showLog(page, uuid, sender, log);
+            return showLog(page, uuid, sender, datastore);
 
         }
 
@@ -81,30 +80,47 @@ public class LogUserHistory extends SubCommand<Log> {
                 return CommandResult.INVALID_ARGS;
             }
 
-            if (page == -999) {
-                page = log.getUserHistoryMaxPages(uuid1);
-            }
-
-            return showLog(page, uuid1, sender, log);
+            return showLog(page, uuid1, sender, datastore);
         }
 
         Message.USER_INVALID_ENTRY.send(sender, user);
         return CommandResult.INVALID_ARGS;
     }
 
-    private static CommandResult showLog(int page, UUID user, Sender sender, Log log) {
-        int maxPage = log.getUserHistoryMaxPages(user);
+    private static CommandResult showLog(int page, UUID user, Sender sender, Datastore datastore) {
+        LogQuery query = LogQuery.builder().type('U').acted(user).build();
+        int total = datastore.countLog(query);
+        if (total == -1) {
+            Message.LOG_LOAD_ERROR.send(sender);
+            return CommandResult.LOADING_ERROR;
+        }
+
+        int maxPage = Log.getMaxPages(total);
         if (maxPage == 0) {
             Message.LOG_NO_ENTRIES.send(sender);
             return CommandResult.STATE_ERROR;
         }
 
+        if (page == -999) {
+            page = maxPage;
+        }
+
         if (page < 1 || page > maxPage) {
             Message.LOG_INVALID_PAGE_RANGE.send(sender, maxPage);
             return CommandResult.INVALID_ARGS;
         }
 
-        SortedMap<Integer, LogEntry> entries = log.getUserHistory(page, user);
+        SortedMap<Integer, LogEntry> entries = Log.getPage(datastore, query, total, page);
+        if (entries == null) {
+            Message.LOG_LOAD_ERROR.send(sender);
+            return CommandResult.LOADING_ERROR;
+        }
+
+        if (entries.isEmpty()) {
+            Message.LOG_NO_ENTRIES.send(sender);
+            return CommandResult.STATE_ERROR;
+        }
+
         String name = entries.values().stream().findAny().get().getActedName();
         Message.LOG_HISTORY_USER_HEADER.send(sender, name, page, maxPage);
 
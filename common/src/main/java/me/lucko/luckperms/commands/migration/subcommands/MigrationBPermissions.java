@@ -157,7 +157,7 @@ public class MigrationBPermissions extends SubCommand<Object> {
                 }
 
                 // Make a LuckPerms user for the one being migrated.
-                plugin.getDatastore().loadUser(uuid, "null");
+                plugin.getDatastore().loadUserInBackground(uuid);
                 me.lucko.luckperms.users.User lpUser = plugin.getUserManager().get(uuid);
 
                 migrateHolder(plugin, world, user, lpUser);
@@ -256,7 +256,7 @@ public class MigrationPermissionsEx extends SubCommand<Object> {
             }
 
             userCount++;
-            plugin.getDatastore().loadUser(u, "null");
+            plugin.getDatastore().loadUserInBackground(u);
             User lpUser = plugin.getUserManager().get(u);
 
             try {
@@ -152,7 +152,7 @@ public class MigrationZPermissions extends SubCommand<Object> {
         // Migrate all users.
         log.info("zPermissions Migration: Starting user migration.");
         for (UUID u : service.getAllPlayersUUID()) {
-            plugin.getDatastore().loadUser(u, "null");
+            plugin.getDatastore().loadUserInBackground(u);
             User user = plugin.getUserManager().get(u);
 
             for (Map.Entry<String, Boolean> e : service.getPlayerPermissions(null, null, u).entrySet()) {
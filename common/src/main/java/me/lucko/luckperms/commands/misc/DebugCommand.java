@@ -22,12 +22,17 @@
 
 package me.lucko.luckperms.commands.misc;
 
+import com.google.common.cache.CacheStats;
 import me.lucko.luckperms.LuckPermsPlugin;
+import me.lucko.luckperms.api.data.PoolStats;
 import me.lucko.luckperms.commands.CommandResult;
 import me.lucko.luckperms.commands.Sender;
 import me.lucko.luckperms.commands.SingleMainCommand;
 import me.lucko.luckperms.constants.Message;
 import me.lucko.luckperms.constants.Permission;
+import me.lucko.luckperms.storage.LoadAdmission;
+import me.lucko.luckperms.storage.OfflineUserCache;
+import me.lucko.luckperms.storage.StorageExecutor;
 
 import java.util.List;
 
@@ -45,6 +50,72 @@ public class DebugCommand extends SingleMainCommand {
                 plugin.getGroupManager().getAll().size(),
                 plugin.getTrackManager().getAll().size()
         );
+
+        PoolStats pool = plugin.getDatastore().getPoolStats();
+        if (pool != null) {
+            Message.DEBUG_POOL.send(sender,
+                    pool.getActiveConnections(),
+                    pool.getMaximumPoolSize(),
+                    pool.getIdleConnections(),
+                    pool.getPendingThreads(),
+                    String.format("%.2f", pool.getAverageAcquireTime()),
+                    String.format("%.2f", pool.getMaxAcquireTime()),
+                    pool.getConnectionTimeouts()
+            );
+        }
+
+        StorageExecutor executor = plugin.getDatastore().getExecutor();
+        if (executor != null) {
+            Message.DEBUG_EXECUTOR.send(sender,
+                    executor.getActiveThreads(),
+                    executor.getThreads(),
+                    executor.getQueued(),
+                    executor.getQueueCapacity()
+            );
+
+            for (StorageExecutor.OperationStats stats : executor.getStats().values()) {
+                Message.DEBUG_EXECUTOR_OPERATION.send(sender,
+                        stats.getOperation(),
+                        stats.getCount(),
+                        stats.getOverflowed(),
+                        String.format("%.2f", stats.getAverageWaitTime()),
+                        String.format("%.2f", stats.getMaxWaitTime()),
+                        String.format("%.2f", stats.getAverageRunTime()),
+                        String.format("%.2f", stats.getMaxRunTime())
+                );
+            }
+        }
+
+        LoadAdmission admission = plugin.getDatastore().getAdmission();
+        if (admission != null) {
+            Message.DEBUG_ADMISSION.send(sender,
+                    admission.getActive(),
+                    admission.getLimit(),
+                    admission.getWaiting()
+            );
+
+            for (LoadAdmission.Priority priority : LoadAdmission.Priority.values()) {
+                LoadAdmission.Counts counts = admission.getCounts(priority);
+                Message.DEBUG_ADMISSION_PRIORITY.send(sender,
+                        priority.name().toLowerCase(),
+                        counts.getAdmitted(),
+                        counts.getQueued(),
+                        counts.getRejected()
+                );
+            }
+        }
+
+        OfflineUserCache userCache = plugin.getDatastore().getUserCache();
+        if (userCache != null) {
+            CacheStats stats = userCache.getStats();
+            Message.DEBUG_USER_CACHE.send(sender,
+                    userCache.getSize(),
+                    userCache.getMaxSize(),
+                    stats.hitCount(),
+                    stats.missCount(),
+                    stats.evictionCount()
+            );
+        }
         return CommandResult.SUCCESS;
     }
 }
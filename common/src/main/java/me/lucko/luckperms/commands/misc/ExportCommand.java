@@ -124,7 +124,7 @@ public class ExportCommand extends SingleMainCommand {
             int userCount = 0;
             for (UUID uuid : users) {
                 userCount++;
-                plugin.getDatastore().loadUser(uuid, "null");
+                plugin.getDatastore().loadUserInBackground(uuid);
                 User user = plugin.getUserManager().get(uuid);
 
                 for (Node node : user.getNodes()) {
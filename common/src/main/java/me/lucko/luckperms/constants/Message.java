@@ -40,6 +40,7 @@ public enum Message {
     PLAYER_ONLINE("&aOnline", false),
     PLAYER_OFFLINE("&cOffline", false),
     LOADING_ERROR("Permissions data could not be loaded. Please contact an administrator.", true),
+    LOGIN_BUSY("The server is busy loading other players. Please try again in a moment.", true),
     OP_DISABLED("&eThe vanilla OP system is disabled on this server.", false),
     LOG("&3LOG &3&l> %s", true),
 
@@ -142,6 +143,31 @@ public enum Message {
             PREFIX + "&f> &eLoaded Tracks: &6%s",
             false
     ),
+    DEBUG_POOL(
+            PREFIX + "&f> &eConnection Pool: &6%s&e/&6%s &eactive, &6%s &eidle, &6%s &epending" + "\n" +
+            PREFIX + "&f> &eConnection Acquire Time: &6%sms &eavg, &6%sms &emax, &6%s &etimeouts",
+            false
+    ),
+    DEBUG_EXECUTOR(
+            PREFIX + "&f> &eStorage Executor: &6%s&e/&6%s &eactive, &6%s&e/&6%s &equeued",
+            false
+    ),
+    DEBUG_EXECUTOR_OPERATION(
+            PREFIX + "&f-> &e%s: &6%s &eran, &6%s &eoverflowed, waited &6%sms &eavg &6%sms &emax, ran &6%sms &eavg &6%sms &emax",
+            false
+    ),
+    DEBUG_ADMISSION(
+            PREFIX + "&f> &eUser Loads: &6%s&e/&6%s &erunning, &6%s &ewaiting",
+            false
+    ),
+    DEBUG_ADMISSION_PRIORITY(
+            PREFIX + "&f-> &e%s: &6%s &eadmitted, &6%s &equeued, &6%s &erejected",
+            false
+    ),
+    DEBUG_USER_CACHE(
+            PREFIX + "&f> &eOffline User Cache: &6%s&e/&6%s &eusers, &6%s &ehits, &6%s &emisses, &6%s &eevicted",
+            false
+    ),
 
     CREATE_GROUP_ERROR("There was an error whilst creating the group.", true),
     DELETE_GROUP_ERROR("There was an error whilst deleting the group.", true),
@@ -317,6 +343,9 @@ public enum Message {
     LOG_EXPORT_EMPTY("The log is empty and therefore cannot be exported.", true),
     LOG_EXPORT_FAILURE("An unexpected error occured whilst writing to the file.", true),
     LOG_EXPORT_SUCCESS("&aSuccessfully exported the log to &b%s&a.", true),
+    LOG_ARCHIVE_SUCCESS("&aSuccessfully archived &b%s&a log entries to &b%s&a.", true),
+    LOG_ARCHIVE_PURGE_SUCCESS("&aRemoved &b%s&a archived entries from the log.", true),
+    LOG_ARCHIVE_PURGE_FAILURE("The archived entries could not be removed from the log.", true),
 
     IMPORT_ALREADY_RUNNING("Another import process is already running. Please wait for it to finish and try again.", true),
     IMPORT_LOG_DOESNT_EXIST("Error: File %s does not exist.", true),
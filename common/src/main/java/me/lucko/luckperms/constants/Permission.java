@@ -112,6 +112,7 @@ public enum Permission {
     LOG_SEARCH("search", "log"),
     LOG_NOTIFY("notify", "log"),
     LOG_EXPORT("export", "log"),
+    LOG_ARCHIVE("archive", "log"),
 
     MIGRATION("migration", null);
 
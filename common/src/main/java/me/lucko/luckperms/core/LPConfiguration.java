@@ -60,6 +60,7 @@ public abstract class LPConfiguration<T extends LuckPermsPlugin> {
     protected abstract String getString(String path, String def);
     protected abstract int getInt(String path, int def);
     protected abstract boolean getBoolean(String path, boolean def);
+    protected abstract Map<String, String> getMap(String path, Map<String, String> def);
 
     public String getServer() {
         return getString("server", defaultServerName);
@@ -140,10 +141,112 @@ public abstract class LPConfiguration<T extends LuckPermsPlugin> {
                 getString("data.address", null),
                 getString("data.database", null),
                 getString("data.username", null),
-                getString("data.password", null)
+                getString("data.password", null),
+                getInt("data.pool-settings.maximum-pool-size", 10),
+                getInt("data.pool-settings.minimum-idle", 10),
+                getInt("data.pool-settings.maximum-lifetime", 1800000),
+                getInt("data.pool-settings.connection-timeout", 5000),
+                getInt("data.pool-settings.leak-detection-threshold", 0),
+                getMap("data.pool-settings.properties", new HashMap<>())
         );
     }
 
+    public boolean getSaveBuffer() {
+        return getBoolean("data.save-buffer.enabled", false);
+    }
+
+    public int getSaveBufferInterval() {
+        return getInt("data.save-buffer.flush-interval", 500);
+    }
+
+    public int getSaveBufferSize() {
+        return getInt("data.save-buffer.max-pending", 100);
+    }
+
+    public boolean getShardUsers() {
+        return getBoolean("data.shard-users", false);
+    }
+
+    public boolean getBinaryNodes() {
+        return getBoolean("data.binary-nodes", false);
+    }
+
+    public int getLogQueueMaxSize() {
+        return getInt("data.log-queue.max-size", 10000);
+    }
+
+    public int getLogQueueFlushInterval() {
+        return getInt("data.log-queue.flush-interval", 1000);
+    }
+
+    public int getLogQueueBatchSize() {
+        return getInt("data.log-queue.batch-size", 100);
+    }
+
+    public String getLogQueueOverflow() {
+        return getString("data.log-queue.overflow", "block");
+    }
+
+    public int getStorageThreads() {
+        int threads = getInt("data.storage-executor.threads", 0);
+        return threads > 0 ? threads : getInt("data.pool-settings.maximum-pool-size", 10);
+    }
+
+    public int getStorageQueueSize() {
+        return getInt("data.storage-executor.queue-size", 1000);
+    }
+
+    public String getStorageQueueOverflow() {
+        return getString("data.storage-executor.overflow", "caller-runs");
+    }
+
+    public int getLoadLimit() {
+        int limit = getInt("data.load-limit.max-concurrent", 0);
+        return limit > 0 ? limit : getInt("data.pool-settings.maximum-pool-size", 10);
+    }
+
+    public int getLoginWait() {
+        return getInt("data.load-limit.login-wait", 5000);
+    }
+
+    public int getOfflineUserCacheSize() {
+        return getInt("data.offline-user-cache.max-size", 1000);
+    }
+
+    public int getOfflineUserCacheExpiry() {
+        return getInt("data.offline-user-cache.expire-after", 300);
+    }
+
+    public int getLogRetentionMaxAge() {
+        return getInt("data.log-retention.max-age", 0);
+    }
+
+    public int getLogRetentionMaxEntries() {
+        return getInt("data.log-retention.max-entries", 0);
+    }
+
+    /**
+     * @return the max age of each type of log entry which overrides the default, in days
+     */
+    public Map<Character, Integer> getLogRetentionTypes() {
+        Map<Character, Integer> types = new HashMap<>();
+        for (Map.Entry<String, String> e : getMap("data.log-retention.types", new HashMap<>()).entrySet()) {
+            try {
+                if (e.getKey().length() != 1) {
+                    throw new IllegalArgumentException();
+                }
+                types.put(Character.toUpperCase(e.getKey().charAt(0)), Integer.parseInt(e.getValue()));
+            } catch (IllegalArgumentException ex) {
+                plugin.getLog().warn("Ignoring invalid log retention override '" + e.getKey() + ": " + e.getValue() + "'.");
+            }
+        }
+        return types;
+    }
+
+    public boolean getLogRetentionEnabled() {
+        return getLogRetentionMaxAge() > 0 || getLogRetentionMaxEntries() > 0 || !getLogRetentionTypes().isEmpty();
+    }
+
     public String getStorageMethod() {
         return getString("storage-method", defaultStorage);
     }
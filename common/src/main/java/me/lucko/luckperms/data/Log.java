@@ -19,12 +19,16 @@
  *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
  *  SOFTWARE.
  */
-
 package me.lucko.luckperms.data;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
 import lombok.Getter;
 import me.lucko.luckperms.api.LogEntry;
+import me.lucko.luckperms.storage.Datastore;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -36,11 +40,46 @@ public class Log {
 
     private static final int PAGE_ENTRIES = 5;
 
+    /**
+     * The primary index, ordered by time. {@link ImmutableSortedSet#asList()} gives constant time access by position,
+     * so pages can be read without iterating through the entries before them.
+     */
     @Getter
-    private final SortedSet<LogEntry> content;
+    private final ImmutableSortedSet<LogEntry> content;
+
+    // Secondary indexes. Each set is ordered by time, in the same way as the content.
+    private final Map<UUID, ImmutableSortedSet<LogEntry>> byActor;
+    private final Map<Character, ImmutableSortedSet<LogEntry>> byType;
+    private final Map<Character, Map<UUID, ImmutableSortedSet<LogEntry>>> byActed;
+    private final Map<Character, Map<String, ImmutableSortedSet<LogEntry>>> byActedName;
+
+    // Only built if the log is searched
+    private final Supplier<LogSearchIndex> searchIndex;
 
     public Log(SortedSet<LogEntry> content) {
         this.content = ImmutableSortedSet.copyOf(content);
+
+        Map<UUID, SortedSet<LogEntry>> actor = new HashMap<>();
+        Map<Character, SortedSet<LogEntry>> type = new HashMap<>();
+        Map<Character, Map<UUID, SortedSet<LogEntry>>> acted = new HashMap<>();
+        Map<Character, Map<String, SortedSet<LogEntry>>> actedName = new HashMap<>();
+
+        for (LogEntry e : this.content) {
+            actor.computeIfAbsent(e.getActor(), k -> new TreeSet<>()).add(e);
+            type.computeIfAbsent(e.getType(), k -> new TreeSet<>()).add(e);
+            if (e.getActed() != null) {
+                acted.computeIfAbsent(e.getType(), k -> new HashMap<>()).computeIfAbsent(e.getActed(), k -> new TreeSet<>()).add(e);
+            }
+            actedName.computeIfAbsent(e.getType(), k -> new HashMap<>()).computeIfAbsent(e.getActedName(), k -> new TreeSet<>()).add(e);
+        }
+
+        this.byActor = freeze(actor);
+        this.byType = freeze(type);
+        this.byActed = ImmutableMap.copyOf(acted.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> freeze(e.getValue()))));
+        this.byActedName = ImmutableMap.copyOf(actedName.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> freeze(e.getValue()))));
+        this.searchIndex = Suppliers.memoize(() -> new LogSearchIndex(this.content.asList()));
     }
 
     public SortedSet<LogEntry> getRecent() {
@@ -56,92 +95,212 @@ public class Log {
     }
 
     public SortedSet<LogEntry> getRecent(UUID actor) {
-        return content.stream()
-                .filter(e -> e.getActor().equals(actor))
-                .collect(Collectors.toCollection(TreeSet::new));
+        return get(byActor, actor);
     }
 
     public SortedMap<Integer, LogEntry> getRecent(int pageNo, UUID actor) {
-        return getPage(getRecent(actor), pageNo, PAGE_ENTRIES);
+        return getPage(get(byActor, actor), pageNo, PAGE_ENTRIES);
     }
 
     public int getRecentMaxPages(UUID actor) {
-        return getMaxPages(content.stream()
-                .filter(e -> e.getActor().equals(actor))
-                .count(), PAGE_ENTRIES);
+        return getMaxPages(get(byActor, actor).size(), PAGE_ENTRIES);
     }
 
     public SortedSet<LogEntry> getUserHistory(UUID uuid) {
-        return content.stream()
-                .filter(e -> e.getType() == 'U')
-                .filter(e -> e.getActed().equals(uuid))
-                .collect(Collectors.toCollection(TreeSet::new));
+        return get(byActed, 'U', uuid);
     }
 
     public SortedMap<Integer, LogEntry> getUserHistory(int pageNo, UUID uuid) {
-        return getPage(getUserHistory(uuid), pageNo, PAGE_ENTRIES);
+        return getPage(get(byActed, 'U', uuid), pageNo, PAGE_ENTRIES);
     }
 
     public int getUserHistoryMaxPages(UUID uuid) {
-        return getMaxPages(content.stream()
-                .filter(e -> e.getType() == 'U')
-                .filter(e -> e.getActed().equals(uuid))
-                .count(), PAGE_ENTRIES);
+        return getMaxPages(get(byActed, 'U', uuid).size(), PAGE_ENTRIES);
     }
 
     public SortedSet<LogEntry> getGroupHistory(String name) {
-        return content.stream()
-                .filter(e -> e.getType() == 'G')
-                .filter(e -> e.getActedName().equals(name))
-                .collect(Collectors.toCollection(TreeSet::new));
+        return get(byActedName, 'G', name);
     }
 
     public SortedMap<Integer, LogEntry> getGroupHistory(int pageNo, String name) {
-        return getPage(getGroupHistory(name), pageNo, PAGE_ENTRIES);
+        return getPage(get(byActedName, 'G', name), pageNo, PAGE_ENTRIES);
     }
 
     public int getGroupHistoryMaxPages(String name) {
-        return getMaxPages(content.stream()
-                .filter(e -> e.getType() == 'G')
-                .filter(e -> e.getActedName().equals(name))
-                .count(), PAGE_ENTRIES);
+        return getMaxPages(get(byActedName, 'G', name).size(), PAGE_ENTRIES);
     }
 
     public SortedSet<LogEntry> getTrackHistory(String name) {
-        return content.stream()
-                .filter(e -> e.getType() == 'T')
-                .filter(e -> e.getActedName().equals(name))
-                .collect(Collectors.toCollection(TreeSet::new));
+        return get(byActedName, 'T', name);
     }
 
     public SortedMap<Integer, LogEntry> getTrackHistory(int pageNo, String name) {
-        return getPage(getTrackHistory(name), pageNo, PAGE_ENTRIES);
+        return getPage(get(byActedName, 'T', name), pageNo, PAGE_ENTRIES);
     }
 
     public int getTrackHistoryMaxPages(String name) {
-        return getMaxPages(content.stream()
-                .filter(e -> e.getType() == 'T')
-                .filter(e -> e.getActedName().equals(name))
-                .count(), PAGE_ENTRIES);
+        return getMaxPages(get(byActedName, 'T', name).size(), PAGE_ENTRIES);
     }
 
     public SortedSet<LogEntry> getSearch(String query) {
-        return content.stream()
-                .filter(e -> e.matchesSearch(query))
-                .collect(Collectors.toCollection(TreeSet::new));
+        return search(query);
     }
 
     public SortedMap<Integer, LogEntry> getSearch(int pageNo, String query) {
-        return getPage(getSearch(query), pageNo, PAGE_ENTRIES);
+        return getPage(search(query), pageNo, PAGE_ENTRIES);
     }
 
     public int getSearchMaxPages(String query) {
-        return getMaxPages(content.stream()
-                .filter(e -> e.matchesSearch(query))
-                .count(), PAGE_ENTRIES);
+        return getMaxPages(searchIndex.get().find(LogQuery.splitTerms(query)).size(), PAGE_ENTRIES);
+    }
+
+    /**
+     * Searches the log. The query is split on whitespace, and every term must be found (case-insensitively) in the
+     * actor name, acted name or action of an entry for it to match.
+     */
+    private ImmutableSortedSet<LogEntry> search(String query) {
+        return ImmutableSortedSet.copyOf(searchIndex.get().find(LogQuery.splitTerms(query)));
+    }
+
+    /**
+     * Runs a query against this log
+     * @param query the query
+     * @return the matching entries, in the order given by the query
+     */
+    public List<LogEntry> query(LogQuery query) {
+        List<LogEntry> entries = find(query);
+        if (query.isDescending()) {
+            entries = Lists.reverse(entries);
+        }
+
+        int from = Math.min(query.getOffset(), entries.size());
+        int to = query.getLimit() > 0 ? Math.min(from + query.getLimit(), entries.size()) : entries.size();
+        return new ArrayList<>(entries.subList(from, to));
     }
 
-    private static SortedMap<Integer, LogEntry> getPage(Set<LogEntry> set, int pageNo, int entries) {
+    /**
+     * Counts the entries matching a query, ignoring its offset and limit
+     * @param query the query
+     * @return the number of matching entries
+     */
+    public int count(LogQuery query) {
+        return find(query).size();
+    }
+
+    /**
+     * Gets the entries matching a query in time order. The narrowest index is used, and is only filtered further if
+     * the query has conditions which the index doesn't cover.
+     */
+    private List<LogEntry> find(LogQuery query) {
+        final UUID actor = query.getActor();
+        final UUID acted = query.getActed();
+        final String actedName = query.getActedName();
+        final Character type = query.getType();
+        final boolean search = query.getSearch() != null;
+
+        List<LogEntry> entries;
+        boolean exact;
+
+        if (actor != null) {
+            entries = get(byActor, actor).asList();
+            exact = acted == null && actedName == null && type == null && !search;
+        } else if (type != null && acted != null) {
+            entries = get(byActed, type, acted).asList();
+            exact = actedName == null && !search;
+        } else if (type != null && actedName != null) {
+            entries = get(byActedName, type, actedName).asList();
+            exact = !search;
+        } else if (type != null) {
+            entries = get(byType, type).asList();
+            exact = !search;
+        } else if (search) {
+            entries = searchIndex.get().find(query.getSearchTerms());
+            exact = acted == null && actedName == null;
+        } else {
+            entries = content.asList();
+            exact = acted == null && actedName == null;
+        }
+
+        int from = query.getAfter() == Long.MIN_VALUE ? 0 : lowerBound(entries, query.getAfter());
+        int to = query.getBefore() == Long.MAX_VALUE ? entries.size() : lowerBound(entries, query.getBefore());
+        entries = entries.subList(from, Math.max(from, to));
+
+        if (!exact) {
+            entries = entries.stream().filter(query::matches).collect(Collectors.toList());
+        }
+        return entries;
+    }
+
+    /**
+     * @return the index of the first entry at or after the given time
+     */
+    private static int lowerBound(List<LogEntry> entries, long timestamp) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries.get(mid).getTimestamp() < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Gets a page of the entries matching a query, without loading the rest of the log.
+     * Pages are numbered from the oldest entry, in the same way as {@link #getRecent(int)}.
+     * @param datastore the datastore to query
+     * @param query the filters to apply
+     * @param total the number of entries matching the query, from {@link Datastore#countLog(LogQuery)}
+     * @param pageNo the page number
+     * @return the page, or null if the datastore was unable to run the query
+     */
+    public static SortedMap<Integer, LogEntry> getPage(Datastore datastore, LogQuery query, int total, int pageNo) {
+        if (pageNo < 1) {
+            throw new IllegalArgumentException("pageNo cannot be less than 1: " + pageNo);
+        }
+
+        final int first = (pageNo - 1) * PAGE_ENTRIES;
+        if (total <= first) {
+            throw new IllegalStateException("Log does not contain that many entries. " +
+                    "Requested: " + (first + 1) + ", Log Count: " + total);
+        }
+
+        final int count = Math.min(PAGE_ENTRIES, total - first);
+
+        // Read pages towards the end of the log backwards, so the datastore doesn't have to skip over all of the older entries.
+        final boolean reverse = first > total / 2;
+        List<LogEntry> entries = datastore.queryLog(query.toBuilder()
+                .descending(reverse)
+                .offset(reverse ? total - first - count : first)
+                .limit(count)
+                .build()
+        );
+
+        if (entries == null) {
+            return null;
+        }
+
+        if (reverse) {
+            entries = new ArrayList<>(entries);
+            Collections.reverse(entries);
+        }
+
+        final SortedMap<Integer, LogEntry> out = new TreeMap<>();
+        int index = first;
+        for (LogEntry e : entries) {
+            out.put(++index, e);
+        }
+        return out;
+    }
+
+    public static int getMaxPages(int total) {
+        return getMaxPages(total, PAGE_ENTRIES);
+    }
+
+    private static SortedMap<Integer, LogEntry> getPage(ImmutableSortedSet<LogEntry> set, int pageNo, int entries) {
         if (pageNo < 1) {
             throw new IllegalArgumentException("pageNo cannot be less than 1: " + pageNo);
         }
@@ -154,16 +313,11 @@ public class Log {
 
         final SortedMap<Integer, LogEntry> out = new TreeMap<>();
 
-        final int max = minimumEntries + entries - 1;
-        int index = 0;
-        for (LogEntry e : set) {
-            index++;
-            if (index >= minimumEntries) {
-                out.put(index, e);
-            }
-            if (index == max) {
-                break;
-            }
+        // Seek straight to the start of the page
+        final List<LogEntry> list = set.asList();
+        final int max = Math.min(minimumEntries + entries - 1, list.size());
+        for (int index = minimumEntries; index <= max; index++) {
+            out.put(index, list.get(index - 1));
         }
 
         return out;
@@ -177,6 +331,24 @@ public class Log {
         return (int) Math.ceil((double) size / entries);
     }
 
+    private static <K> ImmutableSortedSet<LogEntry> get(Map<K, ImmutableSortedSet<LogEntry>> index, K key) {
+        ImmutableSortedSet<LogEntry> set = index.get(key);
+        return set == null ? ImmutableSortedSet.of() : set;
+    }
+
+    private static <K> ImmutableSortedSet<LogEntry> get(Map<Character, Map<K, ImmutableSortedSet<LogEntry>>> index, char type, K key) {
+        Map<K, ImmutableSortedSet<LogEntry>> map = index.get(type);
+        return map == null ? ImmutableSortedSet.of() : get(map, key);
+    }
+
+    private static <K> Map<K, ImmutableSortedSet<LogEntry>> freeze(Map<K, SortedSet<LogEntry>> index) {
+        ImmutableMap.Builder<K, ImmutableSortedSet<LogEntry>> builder = ImmutableMap.builder();
+        for (Map.Entry<K, SortedSet<LogEntry>> e : index.entrySet()) {
+            builder.put(e.getKey(), ImmutableSortedSet.copyOfSorted(e.getValue()));
+        }
+        return builder.build();
+    }
+
     @SuppressWarnings("WeakerAccess")
     public static class Builder {
         private final SortedSet<LogEntry> content = new TreeSet<>();
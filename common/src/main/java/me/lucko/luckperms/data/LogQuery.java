@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.data;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import me.lucko.luckperms.api.LogEntry;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * A filtered, ordered and paged view of the action log, which datastores can run without loading the whole log.
+ * All filters are optional. Entries are ordered by timestamp, oldest first unless {@link #isDescending()}.
+ */
+@Getter
+@ToString
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class LogQuery {
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final UUID actor;
+    private final UUID acted;
+    private final String actedName;
+    private final Character type;
+
+    // Timestamps are in seconds. after is inclusive, before is exclusive.
+    private final long after;
+    private final long before;
+
+    // Split on whitespace into terms, which must all be found (case-insensitively) in the actor name, acted name or action.
+    private final String search;
+    private final List<String> searchTerms;
+
+    private final boolean descending;
+    private final int offset;
+
+    // Zero means no limit.
+    private final int limit;
+
+    public boolean matches(LogEntry e) {
+        if (actor != null && !actor.equals(e.getActor())) return false;
+        if (acted != null && !acted.equals(e.getActed())) return false;
+        if (actedName != null && !actedName.equals(e.getActedName())) return false;
+        if (type != null && type != e.getType()) return false;
+        if (e.getTimestamp() < after || e.getTimestamp() >= before) return false;
+        return search == null || matchesTerms(e, searchTerms);
+    }
+
+    /**
+     * Splits a search into its terms
+     * @param search the search
+     * @return the lower case terms, or an empty list if the search is null or blank
+     */
+    public static List<String> splitTerms(String search) {
+        if (search == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.stream(search.toLowerCase().split("\\s+"))
+                .filter(s -> !s.isEmpty())
+                .distinct()
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * @return true if every term is contained in the actor name, acted name or action of the entry
+     */
+    public static boolean matchesTerms(LogEntry e, List<String> terms) {
+        if (terms.isEmpty()) {
+            return true;
+        }
+
+        final String actorName = e.getActorName().toLowerCase();
+        final String actedName = e.getActedName().toLowerCase();
+        final String action = e.getAction().toLowerCase();
+        for (String term : terms) {
+            if (!actorName.contains(term) && !actedName.contains(term) && !action.contains(term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a builder with the same filters as this query
+     */
+    public Builder toBuilder() {
+        Builder b = new Builder();
+        b.actor = actor;
+        b.acted = acted;
+        b.actedName = actedName;
+        b.type = type;
+        b.after = after;
+        b.before = before;
+        b.search = search;
+        b.descending = descending;
+        b.offset = offset;
+        b.limit = limit;
+        return b;
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    public static class Builder {
+        private UUID actor = null;
+        private UUID acted = null;
+        private String actedName = null;
+        private Character type = null;
+        private long after = Long.MIN_VALUE;
+        private long before = Long.MAX_VALUE;
+        private String search = null;
+        private boolean descending = false;
+        private int offset = 0;
+        private int limit = 0;
+
+        public Builder actor(UUID actor) {
+            this.actor = actor;
+            return this;
+        }
+
+        public Builder acted(UUID acted) {
+            this.acted = acted;
+            return this;
+        }
+
+        public Builder actedName(String actedName) {
+            this.actedName = actedName;
+            return this;
+        }
+
+        public Builder type(char type) {
+            this.type = type;
+            return this;
+        }
+
+        public Builder after(long after) {
+            this.after = after;
+            return this;
+        }
+
+        public Builder before(long before) {
+            this.before = before;
+            return this;
+        }
+
+        public Builder search(String search) {
+            this.search = search;
+            return this;
+        }
+
+        public Builder descending(boolean descending) {
+            this.descending = descending;
+            return this;
+        }
+
+        public Builder offset(int offset) {
+            if (offset < 0) {
+                throw new IllegalArgumentException("offset cannot be less than 0: " + offset);
+            }
+            this.offset = offset;
+            return this;
+        }
+
+        public Builder limit(int limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("limit cannot be less than 0: " + limit);
+            }
+            this.limit = limit;
+            return this;
+        }
+
+        public LogQuery build() {
+            return new LogQuery(actor, acted, actedName, type, after, before, search, splitTerms(search), descending, offset, limit);
+        }
+    }
+}
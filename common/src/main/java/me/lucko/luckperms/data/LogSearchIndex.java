@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.data;
+
+import me.lucko.luckperms.api.LogEntry;
+
+import java.util.*;
+
+/**
+ * An inverted index of the words in the actor name, acted name and action of each entry in a log.
+ * Words are runs of letters, digits and underscores. Positions refer to the list of entries the index was built from.
+ *
+ * <p> Every suffix of every word is kept in sorted order, so the words containing a term are found with a
+ * binary search for the suffixes starting with it.
+ */
+class LogSearchIndex {
+    private final List<LogEntry> entries;
+    private final String[] words;
+    private final int[][] postings;
+
+    // Suffix i is words[suffixWords[i]].substring(suffixStarts[i])
+    private final int[] suffixWords;
+    private final int[] suffixStarts;
+
+    LogSearchIndex(List<LogEntry> entries) {
+        this.entries = entries;
+
+        Map<String, Postings> index = new HashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            LogEntry e = entries.get(i);
+            addWords(index, e.getActorName(), i);
+            addWords(index, e.getActedName(), i);
+            addWords(index, e.getAction(), i);
+        }
+
+        this.words = index.keySet().toArray(new String[index.size()]);
+        Arrays.sort(words);
+        this.postings = new int[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            postings[i] = index.get(words[i]).toArray();
+        }
+
+        int suffixCount = 0;
+        for (String word : words) {
+            suffixCount += word.length();
+        }
+
+        Integer[] suffixes = new Integer[suffixCount];
+        int[] w = new int[suffixCount];
+        int[] st = new int[suffixCount];
+        int n = 0;
+        for (int i = 0; i < words.length; i++) {
+            for (int j = 0; j < words[i].length(); j++) {
+                w[n] = i;
+                st[n] = j;
+                suffixes[n] = n;
+                n++;
+            }
+        }
+        Arrays.sort(suffixes, (a, b) -> compareSuffixes(words[w[a]], st[a], words[w[b]], st[b]));
+
+        this.suffixWords = new int[suffixCount];
+        this.suffixStarts = new int[suffixCount];
+        for (int i = 0; i < suffixCount; i++) {
+            suffixWords[i] = w[suffixes[i]];
+            suffixStarts[i] = st[suffixes[i]];
+        }
+    }
+
+    /**
+     * Finds the entries containing every term, in the same way as {@link LogQuery#matchesTerms(LogEntry, List)}
+     * @param terms the lower case terms, from {@link LogQuery#splitTerms(String)}
+     * @return the matching entries, in the order of the list the index was built from
+     */
+    List<LogEntry> find(List<String> terms) {
+        BitSet candidates = null;
+
+        // A term can only be found in an entry if each of its words is part of a word in that entry
+        for (String term : terms) {
+            for (String part : split(term)) {
+                BitSet found = new BitSet(entries.size());
+                BitSet seen = new BitSet(words.length);
+                int end = search(part, true);
+                for (int i = search(part, false); i < end; i++) {
+                    int word = suffixWords[i];
+                    if (seen.get(word)) {
+                        continue;
+                    }
+                    seen.set(word);
+
+                    for (int position : postings[word]) {
+                        found.set(position);
+                    }
+                }
+
+                if (candidates == null) {
+                    candidates = found;
+                } else {
+                    candidates.and(found);
+                }
+
+                if (candidates.isEmpty()) {
+                    return Collections.emptyList();
+                }
+            }
+        }
+
+        // Terms may span more than one word, or be made up of separators only, so every candidate is checked
+        List<LogEntry> out = new ArrayList<>();
+        if (candidates == null) {
+            for (LogEntry e : entries) {
+                if (LogQuery.matchesTerms(e, terms)) {
+                    out.add(e);
+                }
+            }
+        } else {
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                LogEntry e = entries.get(i);
+                if (LogQuery.matchesTerms(e, terms)) {
+                    out.add(e);
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Finds the bounds of the range of suffixes starting with a string
+     * @param prefix the string
+     * @param upper true to find the end of the range, false to find the start
+     * @return the index of the first suffix in the range, or the index after the last
+     */
+    private int search(String prefix, boolean upper) {
+        int low = 0;
+        int high = suffixWords.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int c = comparePrefix(words[suffixWords[mid]], suffixStarts[mid], prefix);
+            if (c < 0 || (upper && c == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the suffix of a word with a string, treating a suffix which starts with the string as equal
+     */
+    private static int comparePrefix(String word, int start, String prefix) {
+        int len = Math.min(word.length() - start, prefix.length());
+        for (int i = 0; i < len; i++) {
+            int c = word.charAt(start + i) - prefix.charAt(i);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return len == prefix.length() ? 0 : -1;
+    }
+
+    private static int compareSuffixes(String a, int aStart, String b, int bStart) {
+        int len = Math.min(a.length() - aStart, b.length() - bStart);
+        for (int i = 0; i < len; i++) {
+            int c = a.charAt(aStart + i) - b.charAt(bStart + i);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return (a.length() - aStart) - (b.length() - bStart);
+    }
+
+    private static void addWords(Map<String, Postings> index, String s, int position) {
+        for (String word : split(s.toLowerCase())) {
+            index.computeIfAbsent(word, k -> new Postings()).add(position);
+        }
+    }
+
+    private static List<String> split(String s) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isLetterOrDigit(c) || c == '_') {
+                if (start == -1) {
+                    start = i;
+                }
+            } else if (start != -1) {
+                words.add(s.substring(start, i));
+                start = -1;
+            }
+        }
+        if (start != -1) {
+            words.add(s.substring(start));
+        }
+        return words;
+    }
+
+    /**
+     * An ascending list of positions, without duplicates
+     */
+    private static class Postings {
+        private int[] positions = new int[4];
+        private int size = 0;
+
+        void add(int position) {
+            if (size != 0 && positions[size - 1] == position) {
+                return;
+            }
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(positions, size);
+        }
+    }
+}
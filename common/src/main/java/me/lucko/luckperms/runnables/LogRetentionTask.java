@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.runnables;
+
+import lombok.AllArgsConstructor;
+import me.lucko.luckperms.LuckPermsPlugin;
+import me.lucko.luckperms.api.LogEntry;
+import me.lucko.luckperms.core.LPConfiguration;
+import me.lucko.luckperms.data.LogQuery;
+import me.lucko.luckperms.storage.Datastore;
+
+import java.util.*;
+
+/**
+ * Removes entries from the action log which are older than the configured max age, or beyond the configured max entries
+ */
+@AllArgsConstructor
+public class LogRetentionTask implements Runnable {
+    private static final long SECONDS_PER_DAY = 24L * 60L * 60L;
+
+    private final LuckPermsPlugin plugin;
+
+    /**
+     * Called ASYNC
+     */
+    @Override
+    public void run() {
+        LPConfiguration<?> config = plugin.getConfiguration();
+        Datastore datastore = plugin.getDatastore();
+        long now = System.currentTimeMillis() / 1000L;
+
+        int total = 0;
+        int maxAge = config.getLogRetentionMaxAge();
+        Map<Character, Integer> types = config.getLogRetentionTypes();
+
+        if (types.isEmpty()) {
+            int removed = purgeOlderThan(datastore, LogQuery.builder(), maxAge, now, "");
+            if (removed == -1) {
+                return;
+            }
+            total += removed;
+        } else {
+            // Types without an override are still removed once they reach the default max age
+            Set<Character> all = new TreeSet<>(Arrays.asList('U', 'G', 'T'));
+            all.addAll(types.keySet());
+
+            for (char type : all) {
+                int removed = purgeOlderThan(datastore, LogQuery.builder().type(type), types.getOrDefault(type, maxAge), now, type + " ");
+                if (removed == -1) {
+                    return;
+                }
+                total += removed;
+            }
+        }
+
+        int maxEntries = config.getLogRetentionMaxEntries();
+        if (maxEntries > 0) {
+            List<LogEntry> last = datastore.queryLog(LogQuery.builder().descending(true).offset(maxEntries - 1).limit(1).build());
+            if (last == null) {
+                plugin.getLog().severe("Unable to read the action log whilst removing old entries.");
+                return;
+            }
+
+            if (!last.isEmpty()) {
+                // Entries logged in the same second as the oldest entry being kept are also kept
+                int removed = datastore.purgeLog(LogQuery.builder().before(last.get(0).getTimestamp()).build());
+                if (removed == -1) {
+                    plugin.getLog().severe("Unable to remove entries from the action log.");
+                    return;
+                }
+
+                if (removed > 0) {
+                    plugin.getLog().info("Removed " + removed + " entries from the action log to keep it at " + maxEntries + " entries.");
+                    total += removed;
+                }
+            }
+        }
+
+        if (total > 0) {
+            plugin.getLog().info("Removed " + total + " entries from the action log in total.");
+        }
+    }
+
+    private int purgeOlderThan(Datastore datastore, LogQuery.Builder query, int days, long now, String description) {
+        if (days <= 0) {
+            return 0;
+        }
+
+        int removed = datastore.purgeLog(query.before(now - days * SECONDS_PER_DAY).build());
+        if (removed == -1) {
+            plugin.getLog().severe("Unable to remove entries from the action log.");
+        } else if (removed > 0) {
+            plugin.getLog().info("Removed " + removed + " " + description + "entries older than " + days + " days from the action log.");
+        }
+        return removed;
+    }
+}
@@ -26,6 +26,7 @@ import lombok.AllArgsConstructor;
 import me.lucko.luckperms.LuckPermsPlugin;
 import me.lucko.luckperms.api.event.events.PostSyncEvent;
 import me.lucko.luckperms.api.event.events.PreSyncEvent;
+import me.lucko.luckperms.storage.OfflineUserCache;
 
 @AllArgsConstructor
 public class UpdateTask implements Runnable {
@@ -40,6 +41,12 @@ public class UpdateTask implements Runnable {
         plugin.getApiProvider().fireEvent(event);
         if (event.isCancelled()) return;
 
+        // Cached users may have been changed by other servers
+        OfflineUserCache userCache = plugin.getDatastore().getUserCache();
+        if (userCache != null) {
+            userCache.invalidateAll();
+        }
+
         // Reload all groups
         plugin.getDatastore().loadAllGroups();
         String defaultGroup = plugin.getConfiguration().getDefaultGroupName();
@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage;
+
+import me.lucko.luckperms.LuckPermsPlugin;
+import me.lucko.luckperms.api.LogEntry;
+import me.lucko.luckperms.api.data.PoolStats;
+import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.data.LogQuery;
+import me.lucko.luckperms.groups.Group;
+import me.lucko.luckperms.tracks.Track;
+import me.lucko.luckperms.users.User;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Wraps another {@link Datastore}, and defers user and group saves so that repeated changes to the same holder are
+ * only written once. Pending saves are written in batches, either on a fixed interval, or as soon as the number of
+ * pending saves reaches a threshold.
+ *
+ * <p> Any operation which reads or deletes a holder writes its pending changes first. Saves which fail are kept, and
+ * retried on the next flush.
+ */
+public class BufferedDatastore extends Datastore {
+    // How many times pending saves are tried when shutting down, and how long to wait between tries, in milliseconds
+    private static final int SHUTDOWN_ATTEMPTS = 5;
+    private static final long SHUTDOWN_RETRY_DELAY = 1000;
+
+    private final Datastore backing;
+    private final long flushInterval;
+    private final int maxPending;
+
+    private final Object lock = new Object();
+    private Map<UUID, User> pendingUsers = new LinkedHashMap<>();
+    private Map<String, Group> pendingGroups = new LinkedHashMap<>();
+
+    private ScheduledExecutorService executor = null;
+
+    public BufferedDatastore(LuckPermsPlugin plugin, Datastore backing, long flushInterval, int maxPending) {
+        super(plugin, backing.getName());
+        this.backing = backing;
+        this.flushInterval = flushInterval;
+        this.maxPending = maxPending;
+    }
+
+    @Override
+    public void init() {
+        backing.init();
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "luckperms-save-buffer");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+
+        setAcceptingLogins(backing.isAcceptingLogins());
+    }
+
+    @Override
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        for (int attempt = 1; !flush(); attempt++) {
+            if (attempt == SHUTDOWN_ATTEMPTS) {
+                int users, groups;
+                synchronized (lock) {
+                    users = pendingUsers.size();
+                    groups = pendingGroups.size();
+                }
+                plugin.getLog().severe("Unable to save " + users + " buffered user(s) and " + groups + " buffered group(s) " +
+                        "after " + attempt + " attempts. Their changes have been lost.");
+                break;
+            }
+
+            try {
+                Thread.sleep(SHUTDOWN_RETRY_DELAY);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        backing.shutdown();
+    }
+
+    @Override
+    public PoolStats getPoolStats() {
+        return backing.getPoolStats();
+    }
+
+    /**
+     * Writes all pending saves to the backing datastore. Saves which fail are kept, and retried on the next flush.
+     * @return true if every pending save was written
+     */
+    public boolean flush() {
+        boolean users = flushUsers();
+        boolean groups = flushGroups();
+        return users && groups;
+    }
+
+    private boolean flushUsers() {
+        // Only one flush can run at a time, so a batch can never be overtaken by an older one.
+        synchronized (backing) {
+            Map<UUID, User> users;
+            synchronized (lock) {
+                if (pendingUsers.isEmpty()) {
+                    return true;
+                }
+
+                users = pendingUsers;
+                pendingUsers = new LinkedHashMap<>();
+            }
+
+            if (backing.saveUsers(users.values())) {
+                return true;
+            }
+
+            // Save each user on their own, so that one which can't be saved doesn't hold back the rest
+            users.values().removeIf(backing::saveUser);
+            if (users.isEmpty()) {
+                return true;
+            }
+
+            synchronized (lock) {
+                // Users who have been saved again since are already pending, with their newer data
+                users.forEach(pendingUsers::putIfAbsent);
+            }
+            plugin.getLog().severe("Unable to save " + users.size() + " buffered user(s). They will be retried on the next flush.");
+            return false;
+        }
+    }
+
+    private boolean flushGroups() {
+        synchronized (backing) {
+            Map<String, Group> groups;
+            synchronized (lock) {
+                if (pendingGroups.isEmpty()) {
+                    return true;
+                }
+
+                groups = pendingGroups;
+                pendingGroups = new LinkedHashMap<>();
+            }
+
+            if (backing.saveGroups(groups.values())) {
+                return true;
+            }
+
+            groups.values().removeIf(backing::saveGroup);
+            if (groups.isEmpty()) {
+                return true;
+            }
+
+            synchronized (lock) {
+                groups.forEach(pendingGroups::putIfAbsent);
+            }
+            plugin.getLog().severe("Unable to save " + groups.size() + " buffered group(s). They will be retried on the next flush.");
+            return false;
+        }
+    }
+
+    private void flushUser(UUID uuid) {
+        // A running flush has already taken its users out of the pending map, so wait for it before checking.
+        synchronized (backing) {
+            boolean pending;
+            synchronized (lock) {
+                pending = pendingUsers.containsKey(uuid);
+            }
+
+            if (pending) {
+                flushUsers();
+            }
+        }
+    }
+
+    private void flushGroup(String name) {
+        synchronized (backing) {
+            boolean pending;
+            synchronized (lock) {
+                pending = pendingGroups.containsKey(name);
+            }
+
+            if (pending) {
+                flushGroups();
+            }
+        }
+    }
+
+    private void checkThreshold(int pending) {
+        if (pending >= maxPending && executor != null && !executor.isShutdown()) {
+            executor.execute(this::flush);
+        }
+    }
+
+    @Override
+    public boolean logAction(LogEntry entry) {
+        return backing.logAction(entry);
+    }
+
+    @Override
+    public boolean logActions(Collection<LogEntry> entries) {
+        return backing.logActions(entries);
+    }
+
+    @Override
+    public Log getLog() {
+        return backing.getLog();
+    }
+
+    @Override
+    public List<LogEntry> queryLog(LogQuery query) {
+        return backing.queryLog(query);
+    }
+
+    @Override
+    public int countLog(LogQuery query) {
+        return backing.countLog(query);
+    }
+
+    @Override
+    public boolean streamLog(LogQuery query, Consumer<LogEntry> consumer) {
+        return backing.streamLog(query, consumer);
+    }
+
+    @Override
+    public int purgeLog(LogQuery query) {
+        return backing.purgeLog(query);
+    }
+
+    @Override
+    public boolean loadUser(UUID uuid, String username) {
+        flushUser(uuid);
+        return backing.loadUser(uuid, username);
+    }
+
+    @Override
+    public UUID loadUserOnLogin(String username, UUID uuid) {
+        if (!plugin.getUuidCache().isOnlineMode()) {
+            // The user is stored under the uuid which was saved for the username, so it isn't known which pending
+            // save to write until the lookup has been done.
+            return super.loadUserOnLogin(username, uuid);
+        }
+
+        flushUser(uuid);
+        return backing.loadUserOnLogin(username, uuid);
+    }
+
+    @Override
+    public boolean saveUser(User user) {
+        int pending;
+        synchronized (lock) {
+            pendingUsers.put(user.getUuid(), user);
+            pending = pendingUsers.size();
+        }
+
+        checkThreshold(pending);
+        return true;
+    }
+
+    @Override
+    public boolean saveUsers(Collection<User> users) {
+        users.forEach(this::saveUser);
+        return true;
+    }
+
+    @Override
+    public boolean cleanupUsers() {
+        flushUsers();
+        return backing.cleanupUsers();
+    }
+
+    @Override
+    public Set<UUID> getUniqueUsers() {
+        flushUsers();
+        return backing.getUniqueUsers();
+    }
+
+    @Override
+    public Set<UUID> getUsersInGroup(String group) {
+        flushUsers();
+        return backing.getUsersInGroup(group);
+    }
+
+    @Override
+    public boolean createAndLoadGroup(String name) {
+        flushGroup(name);
+        return backing.createAndLoadGroup(name);
+    }
+
+    @Override
+    public boolean loadGroup(String name) {
+        flushGroup(name);
+        return backing.loadGroup(name);
+    }
+
+    @Override
+    public boolean loadAllGroups() {
+        flushGroups();
+        return backing.loadAllGroups();
+    }
+
+    @Override
+    public boolean saveGroup(Group group) {
+        int pending;
+        synchronized (lock) {
+            pendingGroups.put(group.getName(), group);
+            pending = pendingGroups.size();
+        }
+
+        checkThreshold(pending);
+        return true;
+    }
+
+    @Override
+    public boolean saveGroups(Collection<Group> groups) {
+        groups.forEach(this::saveGroup);
+        return true;
+    }
+
+    @Override
+    public boolean deleteGroup(Group group) {
+        // Wait for any running flush, so the group can't be written back after it has been deleted.
+        synchronized (backing) {
+            synchronized (lock) {
+                pendingGroups.remove(group.getName());
+            }
+            return backing.deleteGroup(group);
+        }
+    }
+
+    @Override
+    public boolean createAndLoadTrack(String name) {
+        return backing.createAndLoadTrack(name);
+    }
+
+    @Override
+    public boolean loadTrack(String name) {
+        return backing.loadTrack(name);
+    }
+
+    @Override
+    public boolean loadAllTracks() {
+        return backing.loadAllTracks();
+    }
+
+    @Override
+    public boolean saveTrack(Track track) {
+        return backing.saveTrack(track);
+    }
+
+    @Override
+    public boolean deleteTrack(Track track) {
+        return backing.deleteTrack(track);
+    }
+
+    @Override
+    public boolean saveUUIDData(String username, UUID uuid) {
+        return backing.saveUUIDData(username, uuid);
+    }
+
+    @Override
+    public UUID getUUID(String username) {
+        return backing.getUUID(username);
+    }
+
+    @Override
+    public String getName(UUID uuid) {
+        return backing.getName(uuid);
+    }
+
+    @Override
+    public Map<UUID, String> getNames(Collection<UUID> uuids) {
+        return backing.getNames(uuids);
+    }
+}
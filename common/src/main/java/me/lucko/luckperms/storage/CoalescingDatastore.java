@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage;
+
+import lombok.RequiredArgsConstructor;
+import me.lucko.luckperms.LuckPermsPlugin;
+import me.lucko.luckperms.api.LogEntry;
+import me.lucko.luckperms.api.data.PoolStats;
+import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.data.LogQuery;
+import me.lucko.luckperms.groups.Group;
+import me.lucko.luckperms.tracks.Track;
+import me.lucko.luckperms.users.User;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Wraps another {@link Datastore}, and makes sure only one load of each user runs at a time.
+ *
+ * <p> A load which starts while another load of the same user is running waits for it, and shares its result,
+ * instead of querying the datastore again. Loads which can't share the result, such as logins, wait for the running
+ * load to finish, and then run their own.
+ *
+ * <p> User saves are passed to the {@link me.lucko.luckperms.users.UserManager}, so that a load which read its
+ * data before the save doesn't overwrite the newer data held in memory.
+ *
+ * <p> The number of user loads running at once is limited by a {@link LoadAdmission}. Logins are let through first,
+ * then other loads, and then background loads.
+ *
+ * <p> Users who are not loaded can be served from an {@link OfflineUserCache}, without going to storage at all.
+ */
+public class CoalescingDatastore extends Datastore {
+    private final Datastore backing;
+    private final LoadAdmission admission;
+    private final OfflineUserCache userCache;
+    private final Map<UUID, Load> loads = new ConcurrentHashMap<>();
+
+    public CoalescingDatastore(LuckPermsPlugin plugin, Datastore backing, LoadAdmission admission, OfflineUserCache userCache) {
+        super(plugin, backing.getName());
+        this.backing = backing;
+        this.admission = admission;
+        this.userCache = userCache;
+    }
+
+    @Override
+    public void init() {
+        backing.init();
+        setAcceptingLogins(backing.isAcceptingLogins());
+    }
+
+    @Override
+    public void shutdown() {
+        backing.shutdown();
+    }
+
+    @Override
+    public PoolStats getPoolStats() {
+        return backing.getPoolStats();
+    }
+
+    @Override
+    public LoadAdmission getAdmission() {
+        return admission;
+    }
+
+    @Override
+    public OfflineUserCache getUserCache() {
+        return userCache;
+    }
+
+    @Override
+    public boolean logAction(LogEntry entry) {
+        return backing.logAction(entry);
+    }
+
+    @Override
+    public boolean logActions(Collection<LogEntry> entries) {
+        return backing.logActions(entries);
+    }
+
+    @Override
+    public Log getLog() {
+        return backing.getLog();
+    }
+
+    @Override
+    public List<LogEntry> queryLog(LogQuery query) {
+        return backing.queryLog(query);
+    }
+
+    @Override
+    public int countLog(LogQuery query) {
+        return backing.countLog(query);
+    }
+
+    @Override
+    public boolean streamLog(LogQuery query, Consumer<LogEntry> consumer) {
+        return backing.streamLog(query, consumer);
+    }
+
+    @Override
+    public int purgeLog(LogQuery query) {
+        return backing.purgeLog(query);
+    }
+
+    @Override
+    public boolean loadUser(UUID uuid, String username) {
+        return load(uuid, username, LoadAdmission.Priority.NORMAL);
+    }
+
+    @Override
+    public boolean loadUserInBackground(UUID uuid) {
+        return load(uuid, "null", LoadAdmission.Priority.BACKGROUND);
+    }
+
+    private boolean load(UUID uuid, String username, LoadAdmission.Priority priority) {
+        if (loadCached(uuid, username)) {
+            return true;
+        }
+
+        while (true) {
+            Load running = loads.get(uuid);
+            if (running == null) {
+                // Loads are only registered once they have been let through, so waiting for one never waits for admission.
+                if (!admission.acquire(priority)) {
+                    return false;
+                }
+
+                try {
+                    Load load = new Load(username);
+                    running = loads.putIfAbsent(uuid, load);
+                    if (running == null) {
+                        return run(uuid, load, () -> loadAndCache(uuid, username));
+                    }
+                } finally {
+                    admission.release();
+                }
+            }
+
+            boolean result = running.await();
+            if (running.canShare(username)) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Logins should be let through by {@link #getAdmission()} before this is called.
+     */
+    @Override
+    public UUID loadUserOnLogin(String username, UUID uuid) {
+        UUID target = uuid;
+        if (!plugin.getUuidCache().isOnlineMode()) {
+            // The user is loaded under the uuid saved for their username, so the load is registered under that uuid.
+            // The backing datastore still does its own lookup as part of the login.
+            UUID previous = backing.getUUID(username);
+            if (previous != null) {
+                target = previous;
+            }
+        }
+
+        // Logins always run their own load, as they save uuid data too. Other loads can share it.
+        final UUID key = target;
+        final UUID[] previous = {null};
+        while (true) {
+            Load load = new Load(username);
+            Load running = loads.putIfAbsent(key, load);
+            if (running == null) {
+                run(key, load, () -> {
+                    previous[0] = backing.loadUserOnLogin(username, uuid);
+                    // Loads which share this one are told whether the user was actually loaded
+                    return plugin.getUserManager().isLoaded(key);
+                });
+                return previous[0];
+            }
+
+            running.await();
+        }
+    }
+
+    private boolean loadCached(UUID uuid, String username) {
+        // Users who are already loaded are being refreshed, so are always read from storage
+        if (userCache == null || plugin.getUserManager().isLoaded(uuid)) {
+            return false;
+        }
+
+        OfflineUserCache.Entry entry = userCache.get(uuid, username);
+        if (entry == null) {
+            return false;
+        }
+
+        User user = plugin.getUserManager().make(uuid, entry.getName());
+        user.setPrimaryGroup(entry.getPrimaryGroup());
+        user.setNodes(entry.getNodes());
+        plugin.getUserManager().updateOrSet(user);
+        return true;
+    }
+
+    private boolean loadAndCache(UUID uuid, String username) {
+        if (userCache == null) {
+            return backing.loadUser(uuid, username);
+        }
+
+        long stamp = userCache.getStamp(uuid);
+        boolean success = backing.loadUser(uuid, username);
+        if (success) {
+            User user = plugin.getUserManager().get(uuid);
+            if (user != null) {
+                userCache.put(user, stamp);
+            }
+        }
+        return success;
+    }
+
+    private boolean run(UUID uuid, Load load, BooleanSupplier supplier) {
+        boolean result = false;
+        try {
+            result = supplier.getAsBoolean();
+            return result;
+        } finally {
+            loads.remove(uuid, load);
+            load.future.complete(result);
+        }
+    }
+
+    @Override
+    public boolean saveUser(User user) {
+        plugin.getUserManager().markSaved(user);
+        updateCache(user);
+        return backing.saveUser(user);
+    }
+
+    @Override
+    public boolean saveUsers(Collection<User> users) {
+        users.forEach(plugin.getUserManager()::markSaved);
+        users.forEach(this::updateCache);
+        return backing.saveUsers(users);
+    }
+
+    private void updateCache(User user) {
+        if (userCache != null) {
+            userCache.update(user);
+        }
+    }
+
+    @Override
+    public boolean cleanupUsers() {
+        if (userCache != null) {
+            userCache.invalidateAll();
+        }
+        return backing.cleanupUsers();
+    }
+
+    @Override
+    public Set<UUID> getUniqueUsers() {
+        return backing.getUniqueUsers();
+    }
+
+    @Override
+    public Set<UUID> getUsersInGroup(String group) {
+        return backing.getUsersInGroup(group);
+    }
+
+    @Override
+    public boolean createAndLoadGroup(String name) {
+        return backing.createAndLoadGroup(name);
+    }
+
+    @Override
+    public boolean loadGroup(String name) {
+        return backing.loadGroup(name);
+    }
+
+    @Override
+    public boolean loadAllGroups() {
+        return backing.loadAllGroups();
+    }
+
+    @Override
+    public boolean saveGroup(Group group) {
+        return backing.saveGroup(group);
+    }
+
+    @Override
+    public boolean saveGroups(Collection<Group> groups) {
+        return backing.saveGroups(groups);
+    }
+
+    @Override
+    public boolean deleteGroup(Group group) {
+        return backing.deleteGroup(group);
+    }
+
+    @Override
+    public boolean createAndLoadTrack(String name) {
+        return backing.createAndLoadTrack(name);
+    }
+
+    @Override
+    public boolean loadTrack(String name) {
+        return backing.loadTrack(name);
+    }
+
+    @Override
+    public boolean loadAllTracks() {
+        return backing.loadAllTracks();
+    }
+
+    @Override
+    public boolean saveTrack(Track track) {
+        return backing.saveTrack(track);
+    }
+
+    @Override
+    public boolean deleteTrack(Track track) {
+        return backing.deleteTrack(track);
+    }
+
+    @Override
+    public boolean saveUUIDData(String username, UUID uuid) {
+        return backing.saveUUIDData(username, uuid);
+    }
+
+    @Override
+    public UUID getUUID(String username) {
+        return backing.getUUID(username);
+    }
+
+    @Override
+    public String getName(UUID uuid) {
+        return backing.getName(uuid);
+    }
+
+    @Override
+    public Map<UUID, String> getNames(Collection<UUID> uuids) {
+        return backing.getNames(uuids);
+    }
+
+    @RequiredArgsConstructor
+    private static class Load {
+        private final String username;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        private boolean canShare(String username) {
+            return username.equalsIgnoreCase("null") || username.equals(this.username);
+        }
+
+        private boolean await() {
+            return future.join();
+        }
+    }
+}
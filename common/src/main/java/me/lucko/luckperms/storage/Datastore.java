@@ -29,13 +29,22 @@ import lombok.Setter;
 import me.lucko.luckperms.LuckPermsPlugin;
 import me.lucko.luckperms.api.LogEntry;
 import me.lucko.luckperms.api.data.Callback;
+import me.lucko.luckperms.api.data.PoolStats;
 import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.data.LogQuery;
 import me.lucko.luckperms.groups.Group;
 import me.lucko.luckperms.tracks.Track;
 import me.lucko.luckperms.users.User;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @RequiredArgsConstructor(access = AccessLevel.PROTECTED)
 public abstract class Datastore {
@@ -48,6 +57,13 @@ public abstract class Datastore {
     @Setter
     private boolean acceptingLogins = false;
 
+    /**
+     * The executor which async operations are ran on. If not set, operations are ran on the platform's async scheduler.
+     */
+    @Getter
+    @Setter
+    private StorageExecutor executor = null;
+
     /**
      * Execute a runnable asynchronously
      * @param r the task to run
@@ -64,6 +80,50 @@ public abstract class Datastore {
         plugin.doSync(r);
     }
 
+    /**
+     * Runs a supplier on the datastore's executor
+     * @param operation the name of the operation, which its timings are recorded under
+     * @param supplier the operation to run
+     * @return a future which is completed with the result
+     */
+    protected <T> CompletableFuture<T> makeFuture(String operation, Supplier<T> supplier) {
+        if (executor == null) {
+            return CompletableFuture.supplyAsync(supplier, this::doAsync);
+        }
+        return executor.submit(operation, supplier);
+    }
+
+    /**
+     * Waits for any queued operations to finish, and then shuts down the datastore
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        shutdown();
+    }
+
+    /**
+     * Passes the result of a future to a callback, on the main server thread
+     * @param future the future
+     * @param callback the callback
+     * @param failure the value to pass to the callback if the operation failed, or was rejected by the executor
+     */
+    private <T> void callback(CompletableFuture<T> future, Callback<T> callback, T failure) {
+        future.whenComplete((result, ex) -> {
+            if (ex != null) {
+                ex.printStackTrace();
+                doSync(() -> callback.onComplete(failure));
+                return;
+            }
+            doSync(() -> callback.onComplete(result));
+        });
+    }
+
+    private <T> void callback(CompletableFuture<T> future, Callback<T> callback) {
+        callback(future, callback, null);
+    }
+
     /*
         These methods are called immediately and in the same thread as they are called in.
      */
@@ -89,6 +149,244 @@ public abstract class Datastore {
     public abstract UUID getUUID(String username);
     public abstract String getName(UUID uuid);
 
+    /**
+     * Handles the storage side of a player logging in. Looks up the uuid last saved for the username, saves the
+     * player's uuid against it, and loads the user. In offline mode, a previously saved uuid is kept, and used to
+     * load the user. Datastores which can do this in fewer round trips should override this.
+     * @param username the player's username
+     * @param uuid the player's uuid
+     * @return the uuid previously saved for the username, or null if there wasn't one
+     */
+    public UUID loadUserOnLogin(String username, UUID uuid) {
+        UUID previous = getUUID(username);
+        if (plugin.getUuidCache().isOnlineMode() || previous == null) {
+            saveUUIDData(username, uuid);
+            loadUser(uuid, username);
+        } else {
+            loadUser(previous, username);
+        }
+        return previous;
+    }
+
+    /**
+     * Loads a user for a background or bulk task. Unlike {@link #loadUser(UUID, String)}, this may wait behind
+     * logins and other loads.
+     * @param uuid the user's uuid
+     * @return true if the user was loaded
+     */
+    public boolean loadUserInBackground(UUID uuid) {
+        return loadUser(uuid, "null");
+    }
+
+    /**
+     * Looks up the members of a group, including members on specific servers or worlds, and temporary members.
+     * Datastores which can look this up without reading every user should override this.
+     * @param group the name of the group
+     * @return the uuids of the members, or null if this datastore can't look them up
+     */
+    public Set<UUID> getUsersInGroup(String group) {
+        return null;
+    }
+
+    /**
+     * Looks up the last known names of a number of users. Datastores which can look up many users at once should override this.
+     * @param uuids the users to look up
+     * @return the names which were found, keyed by uuid, or null if the lookup failed
+     */
+    public Map<UUID, String> getNames(Collection<UUID> uuids) {
+        Map<UUID, String> names = new HashMap<>();
+        for (UUID uuid : uuids) {
+            String name = getName(uuid);
+            if (name != null) {
+                names.put(uuid, name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Gets the log entries matching a query. Datastores which can filter the log themselves should override this.
+     * @param query the query
+     * @return the matching entries, in the order given by the query, or null if the log could not be read
+     */
+    public List<LogEntry> queryLog(LogQuery query) {
+        Log log = getLog();
+        return log == null ? null : log.query(query);
+    }
+
+    /**
+     * Counts the log entries matching a query, ignoring its offset and limit
+     * @param query the query
+     * @return the number of matching entries, or -1 if the log could not be read
+     */
+    public int countLog(LogQuery query) {
+        Log log = getLog();
+        return log == null ? -1 : log.count(query);
+    }
+
+    /**
+     * Passes each log entry matching a query to the consumer, in the order given by the query, without holding
+     * the whole log in memory. The query's offset and limit are ignored. Datastores which can read the log in
+     * batches should override this.
+     * @param query the query
+     * @param consumer the consumer to pass the entries to
+     * @return true if every matching entry was read
+     */
+    public boolean streamLog(LogQuery query, Consumer<LogEntry> consumer) {
+        List<LogEntry> entries = queryLog(query.toBuilder().offset(0).limit(0).build());
+        if (entries == null) {
+            return false;
+        }
+
+        entries.forEach(consumer);
+        return true;
+    }
+
+    /**
+     * Deletes the log entries matching a query, ignoring its offset and limit
+     * @param query the query
+     * @return the number of entries deleted, or -1 if the log could not be modified
+     */
+    public int purgeLog(LogQuery query) {
+        return -1;
+    }
+
+    /**
+     * @return the current state of the connection pool, or null if this datastore does not use one
+     */
+    public PoolStats getPoolStats() {
+        return null;
+    }
+
+    /**
+     * @return the limit on concurrent user loads, or null if loads are not limited
+     */
+    public LoadAdmission getAdmission() {
+        return null;
+    }
+
+    /**
+     * @return the cache of recently loaded users, or null if users are not cached
+     */
+    public OfflineUserCache getUserCache() {
+        return null;
+    }
+
+    /*
+        Saves a number of holders or log entries at once. Datastores which are able to write in batches should override these.
+     */
+    public boolean saveUsers(Collection<User> users) {
+        boolean success = true;
+        for (User user : users) {
+            if (!saveUser(user)) success = false;
+        }
+        return success;
+    }
+
+    public boolean saveGroups(Collection<Group> groups) {
+        boolean success = true;
+        for (Group group : groups) {
+            if (!saveGroup(group)) success = false;
+        }
+        return success;
+    }
+
+    public boolean logActions(Collection<LogEntry> entries) {
+        boolean success = true;
+        for (LogEntry entry : entries) {
+            if (!logAction(entry)) success = false;
+        }
+        return success;
+    }
+
+
+    /*
+        These methods run the operation on the datastore's executor, and return a future which is completed with the
+        result. Any dependent stages are ran on the thread which completes the future, unless an executor is given.
+     */
+    public CompletableFuture<Boolean> logActionAsync(LogEntry entry) {
+        return makeFuture("logAction", () -> logAction(entry));
+    }
+
+    public CompletableFuture<Log> getLogAsync() {
+        return makeFuture("getLog", this::getLog);
+    }
+
+    public CompletableFuture<Boolean> loadUserAsync(UUID uuid, String username) {
+        return makeFuture("loadUser", () -> loadUser(uuid, username));
+    }
+
+    public CompletableFuture<Boolean> saveUserAsync(User user) {
+        return makeFuture("saveUser", () -> saveUser(user));
+    }
+
+    public CompletableFuture<Boolean> cleanupUsersAsync() {
+        return makeFuture("cleanupUsers", this::cleanupUsers);
+    }
+
+    public CompletableFuture<Set<UUID>> getUniqueUsersAsync() {
+        return makeFuture("getUniqueUsers", this::getUniqueUsers);
+    }
+
+    public CompletableFuture<Boolean> createAndLoadGroupAsync(String name) {
+        return makeFuture("createAndLoadGroup", () -> createAndLoadGroup(name));
+    }
+
+    public CompletableFuture<Boolean> loadGroupAsync(String name) {
+        return makeFuture("loadGroup", () -> loadGroup(name));
+    }
+
+    public CompletableFuture<Boolean> loadAllGroupsAsync() {
+        return makeFuture("loadAllGroups", this::loadAllGroups);
+    }
+
+    public CompletableFuture<Boolean> saveGroupAsync(Group group) {
+        return makeFuture("saveGroup", () -> saveGroup(group));
+    }
+
+    public CompletableFuture<Boolean> deleteGroupAsync(Group group) {
+        return makeFuture("deleteGroup", () -> deleteGroup(group));
+    }
+
+    public CompletableFuture<Boolean> createAndLoadTrackAsync(String name) {
+        return makeFuture("createAndLoadTrack", () -> createAndLoadTrack(name));
+    }
+
+    public CompletableFuture<Boolean> loadTrackAsync(String name) {
+        return makeFuture("loadTrack", () -> loadTrack(name));
+    }
+
+    public CompletableFuture<Boolean> loadAllTracksAsync() {
+        return makeFuture("loadAllTracks", this::loadAllTracks);
+    }
+
+    public CompletableFuture<Boolean> saveTrackAsync(Track track) {
+        return makeFuture("saveTrack", () -> saveTrack(track));
+    }
+
+    public CompletableFuture<Boolean> deleteTrackAsync(Track track) {
+        return makeFuture("deleteTrack", () -> deleteTrack(track));
+    }
+
+    public CompletableFuture<Boolean> saveUUIDDataAsync(String username, UUID uuid) {
+        return makeFuture("saveUUIDData", () -> saveUUIDData(username, uuid));
+    }
+
+    public CompletableFuture<UUID> getUUIDAsync(String username) {
+        return makeFuture("getUUID", () -> getUUID(username));
+    }
+
+    public CompletableFuture<String> getNameAsync(UUID uuid) {
+        return makeFuture("getName", () -> getName(uuid));
+    }
+
+    public CompletableFuture<Map<UUID, String>> getNamesAsync(Collection<UUID> uuids) {
+        return makeFuture("getNames", () -> getNames(uuids));
+    }
+
+    public CompletableFuture<Set<UUID>> getUsersInGroupAsync(String group) {
+        return makeFuture("getUsersInGroup", () -> getUsersInGroup(group));
+    }
 
 
     /*
@@ -96,135 +394,86 @@ public abstract class Datastore {
         Callbacks are ran on the main server thread (except on BungeeCord)
      */
     public void logAction(LogEntry entry, Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = logAction(entry);
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(logActionAsync(entry), callback, false);
     }
 
     public void getLog(Callback<Log> callback) {
-        doAsync(() -> {
-            Log result = getLog();
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(getLogAsync(), callback);
     }
 
     public void loadUser(UUID uuid, String username, Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = loadUser(uuid, username);
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(loadUserAsync(uuid, username), callback, false);
     }
 
     public void saveUser(User user, Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = saveUser(user);
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(saveUserAsync(user), callback, false);
     }
 
     public void cleanupUsers(Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = cleanupUsers();
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(cleanupUsersAsync(), callback, false);
     }
 
     public void getUniqueUsers(Callback<Set<UUID>> callback) {
-        doAsync(() -> {
-            Set<UUID> result = getUniqueUsers();
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(getUniqueUsersAsync(), callback);
     }
 
     public void createAndLoadGroup(String name, Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = createAndLoadGroup(name);
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(createAndLoadGroupAsync(name), callback, false);
     }
 
     public void loadGroup(String name, Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = loadGroup(name);
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(loadGroupAsync(name), callback, false);
     }
 
     public void loadAllGroups(Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = loadAllGroups();
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(loadAllGroupsAsync(), callback, false);
     }
 
     public void saveGroup(Group group, Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = saveGroup(group);
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(saveGroupAsync(group), callback, false);
     }
 
     public void deleteGroup(Group group, Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = deleteGroup(group);
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(deleteGroupAsync(group), callback, false);
     }
 
     public void createAndLoadTrack(String name, Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = createAndLoadTrack(name);
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(createAndLoadTrackAsync(name), callback, false);
     }
 
     public void loadTrack(String name, Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = loadTrack(name);
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(loadTrackAsync(name), callback, false);
     }
 
     public void loadAllTracks(Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = loadAllTracks();
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(loadAllTracksAsync(), callback, false);
     }
 
     public void saveTrack(Track track, Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = saveTrack(track);
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(saveTrackAsync(track), callback, false);
     }
 
     public void deleteTrack(Track track, Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = deleteTrack(track);
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(deleteTrackAsync(track), callback, false);
     }
 
     public void saveUUIDData(String username, UUID uuid, Callback<Boolean> callback) {
-        doAsync(() -> {
-            boolean result = saveUUIDData(username, uuid);
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(saveUUIDDataAsync(username, uuid), callback, false);
     }
 
     public void getUUID(String username, Callback<UUID> callback) {
-        doAsync(() -> {
-            UUID result = getUUID(username);
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(getUUIDAsync(username), callback);
     }
 
     public void getName(UUID uuid, Callback<String> callback) {
-        doAsync(() -> {
-            String result = getName(uuid);
-            doSync(() -> callback.onComplete(result));
-        });
+        callback(getNameAsync(uuid), callback);
+    }
+
+    public void getNames(Collection<UUID> uuids, Callback<Map<UUID, String>> callback) {
+        callback(getNamesAsync(uuids), callback);
+    }
+
+    public void getUsersInGroup(String group, Callback<Set<UUID>> callback) {
+        callback(getUsersInGroupAsync(group), callback);
     }
 }
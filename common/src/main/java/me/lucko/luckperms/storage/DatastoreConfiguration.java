@@ -25,6 +25,8 @@ package me.lucko.luckperms.storage;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
+import java.util.Map;
+
 @Getter
 @AllArgsConstructor
 public class DatastoreConfiguration implements me.lucko.luckperms.api.data.DatastoreConfiguration {
@@ -34,4 +36,12 @@ public class DatastoreConfiguration implements me.lucko.luckperms.api.data.Datas
     private final String username;
     private final String password;
 
+    // Connection pool settings. Only used by pooled datastores.
+    private final int maxPoolSize;
+    private final int minIdleConnections;
+    private final int maxLifetime;
+    private final int connectionTimeout;
+    private final int leakDetectionThreshold;
+    private final Map<String, String> properties;
+
 }
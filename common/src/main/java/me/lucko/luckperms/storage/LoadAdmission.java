@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage;
+
+import lombok.Getter;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of user loads which run at once. When the limit is reached, waiting loads are let through in
+ * order of priority, and then in the order they arrived.
+ *
+ * <p> Logins only wait for a limited time, after which they are rejected. Other loads wait as long as needed.
+ */
+public class LoadAdmission {
+    public enum Priority {
+        LOGIN, NORMAL, BACKGROUND
+    }
+
+    @Getter
+    private final int limit;
+    private final long loginWait;
+
+    private final PriorityQueue<Waiter> waiting = new PriorityQueue<>();
+    private final Map<Priority, Counts> counts = new EnumMap<>(Priority.class);
+    private int active = 0;
+    private long sequence = 0;
+
+    /**
+     * @param limit the maximum number of loads which can run at once
+     * @param loginWait how long logins wait to be let through, in milliseconds
+     */
+    public LoadAdmission(int limit, long loginWait) {
+        this.limit = limit;
+        this.loginWait = loginWait;
+        for (Priority priority : Priority.values()) {
+            counts.put(priority, new Counts());
+        }
+    }
+
+    /**
+     * Waits until a load can run. Every successful call must be followed by a call to {@link #release()}.
+     * @param priority the priority of the load
+     * @return true if the load can run, false if it waited too long, or the thread was interrupted
+     */
+    public synchronized boolean acquire(Priority priority) {
+        Counts c = counts.get(priority);
+        if (active < limit && waiting.isEmpty()) {
+            active++;
+            c.admitted.incrementAndGet();
+            return true;
+        }
+
+        Waiter waiter = new Waiter(priority, sequence++);
+        waiting.add(waiter);
+        c.queued.incrementAndGet();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(loginWait);
+        try {
+            while (!waiter.admitted) {
+                if (priority != Priority.LOGIN) {
+                    wait();
+                    continue;
+                }
+
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    waiting.remove(waiter);
+                    c.rejected.incrementAndGet();
+                    return false;
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (waiter.admitted) {
+                release();
+            } else {
+                waiting.remove(waiter);
+            }
+            c.rejected.incrementAndGet();
+            return false;
+        }
+
+        c.admitted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Marks a load as finished, and lets the next waiting load through
+     */
+    public synchronized void release() {
+        active--;
+        while (active < limit && !waiting.isEmpty()) {
+            waiting.poll().admitted = true;
+            active++;
+        }
+        notifyAll();
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    public Counts getCounts(Priority priority) {
+        return counts.get(priority);
+    }
+
+    public static class Counts {
+        private final AtomicLong admitted = new AtomicLong(0);
+        private final AtomicLong queued = new AtomicLong(0);
+        private final AtomicLong rejected = new AtomicLong(0);
+
+        /**
+         * @return the number of loads which were let through, including those which had to wait first
+         */
+        public long getAdmitted() {
+            return admitted.get();
+        }
+
+        /**
+         * @return the number of loads which had to wait
+         */
+        public long getQueued() {
+            return queued.get();
+        }
+
+        /**
+         * @return the number of loads which gave up waiting
+         */
+        public long getRejected() {
+            return rejected.get();
+        }
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        private final Priority priority;
+        private final long sequence;
+        private boolean admitted = false;
+
+        private Waiter(Priority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            int i = priority.compareTo(o.priority);
+            return i != 0 ? i : Long.compare(sequence, o.sequence);
+        }
+    }
+}
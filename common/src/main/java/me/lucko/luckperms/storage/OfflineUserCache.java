@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableSet;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import me.lucko.luckperms.api.Node;
+import me.lucko.luckperms.users.User;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Holds the data of recently loaded users, so that loading a user who is not online doesn't always go to storage.
+ * Entries are kept for a limited time, and the least recently used entries are removed when the cache is full.
+ *
+ * <p> Entries are replaced with the saved data when the user is saved, and all entries are invalidated when data is
+ * synced from other servers.
+ */
+public class OfflineUserCache {
+    private static final int STRIPES = 64;
+
+    private final Cache<UUID, Entry> cache;
+    @Getter
+    private final int maxSize;
+
+    // Incremented when entries are invalidated, so that data read from storage before then is not cached.
+    private final AtomicLongArray stamps = new AtomicLongArray(STRIPES);
+    private final AtomicLong epoch = new AtomicLong(0);
+
+    /**
+     * @param maxSize the maximum number of users held
+     * @param expireAfter how long each user is held for, in seconds
+     */
+    public OfflineUserCache(int maxSize, int expireAfter) {
+        this.maxSize = maxSize;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfter, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Gets the stamp to pass to {@link #put(User, long)}. Must be called before the user is read from storage.
+     * @param uuid the user's uuid
+     * @return the stamp
+     */
+    public long getStamp(UUID uuid) {
+        return epoch.get() + stamps.get(stripe(uuid));
+    }
+
+    /**
+     * Gets the cached data of a user
+     * @param uuid the user's uuid
+     * @param username the user's username, or "null" if it is not known
+     * @return the cached data, or null if the user isn't cached, or was cached under a different username
+     */
+    public Entry get(UUID uuid, String username) {
+        Entry entry = cache.getIfPresent(uuid);
+        if (entry == null || (!username.equalsIgnoreCase("null") && !username.equals(entry.getName()))) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Caches the data of a user, unless it was saved or invalidated after the stamp was taken
+     * @param user the user, as read from storage
+     * @param stamp the stamp taken before the user was read
+     */
+    public void put(User user, long stamp) {
+        UUID uuid = user.getUuid();
+        if (getStamp(uuid) != stamp) {
+            return;
+        }
+
+        Entry entry = Entry.of(user);
+        cache.put(uuid, entry);
+
+        // Checked again after adding, as the user could have been saved or invalidated while it was being added
+        if (getStamp(uuid) != stamp) {
+            cache.asMap().remove(uuid, entry);
+        }
+    }
+
+    /**
+     * Replaces the cached data of a user with the data being saved. Data read from storage before the save is
+     * not cached.
+     * @param user the user being saved
+     */
+    public void update(User user) {
+        stamps.incrementAndGet(stripe(user.getUuid()));
+        cache.put(user.getUuid(), Entry.of(user));
+    }
+
+    public void invalidateAll() {
+        epoch.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    public long getSize() {
+        return cache.size();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    private static int stripe(UUID uuid) {
+        return uuid.hashCode() & (STRIPES - 1);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final String name;
+        private final String primaryGroup;
+        private final Set<Node> nodes;
+
+        private static Entry of(User user) {
+            return new Entry(user.getName(), user.getPrimaryGroup(), ImmutableSet.copyOf(user.getNodes()));
+        }
+    }
+}
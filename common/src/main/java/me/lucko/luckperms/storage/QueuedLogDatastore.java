@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage;
+
+import lombok.RequiredArgsConstructor;
+import me.lucko.luckperms.LuckPermsPlugin;
+import me.lucko.luckperms.api.LogEntry;
+import me.lucko.luckperms.api.data.PoolStats;
+import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.data.LogQuery;
+import me.lucko.luckperms.groups.Group;
+import me.lucko.luckperms.tracks.Track;
+import me.lucko.luckperms.users.User;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Wraps another {@link Datastore}, and queues log entries so they can be written in batches by a single writer.
+ * Queued entries are written on a fixed interval, or as soon as a full batch is waiting.
+ *
+ * <p> When the queue is full, new entries either wait for space, or are dropped and counted.
+ * When a batch can't be written, its entries are written one at a time, and the ones which still fail are tried
+ * again on the next flushes, before being dropped.
+ * Any operation which reads the log writes the queued entries first.
+ */
+public class QueuedLogDatastore extends Datastore {
+    private static final long OFFER_TIMEOUT = 5000L;
+
+    // How many flushes an entry which can't be written is tried in, while other entries can be written
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+
+    private final Datastore backing;
+    private final BlockingQueue<LogEntry> queue;
+    private final List<FailedEntry> failed = new ArrayList<>();
+    private final long flushInterval;
+    private final int batchSize;
+    private final boolean dropWhenFull;
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private long droppedReported = 0;
+
+    private ScheduledExecutorService executor = null;
+
+    public QueuedLogDatastore(LuckPermsPlugin plugin, Datastore backing, int maxSize, long flushInterval, int batchSize, boolean dropWhenFull) {
+        super(plugin, backing.getName());
+        this.backing = backing;
+        this.queue = new ArrayBlockingQueue<>(maxSize);
+        this.flushInterval = flushInterval;
+        this.batchSize = batchSize;
+        this.dropWhenFull = dropWhenFull;
+    }
+
+    @Override
+    public void init() {
+        backing.init();
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "luckperms-log-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+
+        setAcceptingLogins(backing.isAcceptingLogins());
+    }
+
+    @Override
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        flush();
+        synchronized (queue) {
+            if (!failed.isEmpty()) {
+                plugin.getLog().severe("Unable to write " + (failed.size() + queue.size()) + " queued log entries. " +
+                        "They have been lost.");
+                failed.clear();
+                queue.clear();
+            }
+        }
+        backing.shutdown();
+    }
+
+    @Override
+    public PoolStats getPoolStats() {
+        return backing.getPoolStats();
+    }
+
+    /**
+     * @return the number of entries which have been dropped because they couldn't be queued or written
+     */
+    public long getDroppedEntries() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes all queued entries to the backing datastore
+     */
+    public void flush() {
+        // Only one flush can run at a time, so entries are always written in the order they were queued.
+        synchronized (queue) {
+            // Entries which failed last time are tried first
+            List<FailedEntry> failing = new ArrayList<>();
+            boolean written = !failed.isEmpty() && write(failed, failing);
+            failed.clear();
+
+            // Entries are only taken from the queue while few are failing, so that the failing entries stay bounded
+            List<LogEntry> drained = new ArrayList<>(batchSize);
+            while (failing.size() < batchSize && queue.drainTo(drained, batchSize) > 0) {
+                List<FailedEntry> batch = new ArrayList<>(drained.size());
+                for (LogEntry entry : drained) {
+                    batch.add(new FailedEntry(entry));
+                }
+                drained.clear();
+
+                if (!write(batch, failing)) {
+                    // Nothing could be written, so the datastore is probably unavailable. Newer entries wait for the next flush.
+                    break;
+                }
+                written = true;
+            }
+
+            // An attempt only counts if other entries could be written, so entries aren't dropped while the datastore is down
+            int lost = 0;
+            for (FailedEntry e : failing) {
+                if (written && ++e.attempts >= MAX_WRITE_ATTEMPTS) {
+                    lost++;
+                } else {
+                    failed.add(e);
+                }
+            }
+
+            if (lost != 0) {
+                dropped.addAndGet(lost);
+                plugin.getLog().severe("Unable to write " + lost + " log entries after " + MAX_WRITE_ATTEMPTS + " attempts. " +
+                        "They have been dropped.");
+            }
+            if (!failed.isEmpty()) {
+                plugin.getLog().severe("Unable to write " + failed.size() + " queued log entries. " +
+                        "They will be tried again on the next flush.");
+            }
+
+            long d = dropped.get();
+            if (d != droppedReported) {
+                plugin.getLog().warn((d - droppedReported) + " log entries were dropped because they couldn't be queued or written. " +
+                        "(" + d + " in total)");
+                droppedReported = d;
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of entries, or each entry on its own if the batch can't be written
+     * @param batch the entries to write
+     * @param failing the list to add the entries which couldn't be written to
+     * @return true if any of the entries were written
+     */
+    private boolean write(List<FailedEntry> batch, List<FailedEntry> failing) {
+        List<LogEntry> entries = new ArrayList<>(batch.size());
+        for (FailedEntry e : batch) {
+            entries.add(e.entry);
+        }
+        if (backing.logActions(entries)) {
+            return true;
+        }
+
+        // Write each entry on its own, so that one which can't be written doesn't hold back the rest
+        boolean written = false;
+        for (FailedEntry e : batch) {
+            if (backing.logAction(e.entry)) {
+                written = true;
+            } else {
+                failing.add(e);
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public boolean logAction(LogEntry entry) {
+        if (executor != null && executor.isShutdown()) {
+            // Nothing will drain the queue any more, so write straight through, after anything already waiting.
+            synchronized (queue) {
+                flush();
+                if (backing.logAction(entry)) {
+                    return true;
+                }
+            }
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        boolean added;
+        if (dropWhenFull) {
+            added = queue.offer(entry);
+        } else {
+            try {
+                added = queue.offer(entry, OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                added = false;
+            }
+        }
+
+        if (!added) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        if (queue.size() >= batchSize && executor != null && !executor.isShutdown() && flushScheduled.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+        return true;
+    }
+
+    @Override
+    public boolean logActions(Collection<LogEntry> entries) {
+        boolean success = true;
+        for (LogEntry entry : entries) {
+            if (!logAction(entry)) success = false;
+        }
+        return success;
+    }
+
+    @Override
+    public Log getLog() {
+        flush();
+        return backing.getLog();
+    }
+
+    @Override
+    public List<LogEntry> queryLog(LogQuery query) {
+        flush();
+        return backing.queryLog(query);
+    }
+
+    @Override
+    public int countLog(LogQuery query) {
+        flush();
+        return backing.countLog(query);
+    }
+
+    @Override
+    public boolean streamLog(LogQuery query, Consumer<LogEntry> consumer) {
+        flush();
+        return backing.streamLog(query, consumer);
+    }
+
+    @Override
+    public int purgeLog(LogQuery query) {
+        flush();
+        return backing.purgeLog(query);
+    }
+
+    @Override
+    public boolean loadUser(UUID uuid, String username) {
+        return backing.loadUser(uuid, username);
+    }
+
+    @Override
+    public UUID loadUserOnLogin(String username, UUID uuid) {
+        return backing.loadUserOnLogin(username, uuid);
+    }
+
+    @Override
+    public boolean saveUser(User user) {
+        return backing.saveUser(user);
+    }
+
+    @Override
+    public boolean saveUsers(Collection<User> users) {
+        return backing.saveUsers(users);
+    }
+
+    @Override
+    public boolean cleanupUsers() {
+        return backing.cleanupUsers();
+    }
+
+    @Override
+    public Set<UUID> getUniqueUsers() {
+        return backing.getUniqueUsers();
+    }
+
+    @Override
+    public Set<UUID> getUsersInGroup(String group) {
+        return backing.getUsersInGroup(group);
+    }
+
+    @Override
+    public boolean createAndLoadGroup(String name) {
+        return backing.createAndLoadGroup(name);
+    }
+
+    @Override
+    public boolean loadGroup(String name) {
+        return backing.loadGroup(name);
+    }
+
+    @Override
+    public boolean loadAllGroups() {
+        return backing.loadAllGroups();
+    }
+
+    @Override
+    public boolean saveGroup(Group group) {
+        return backing.saveGroup(group);
+    }
+
+    @Override
+    public boolean saveGroups(Collection<Group> groups) {
+        return backing.saveGroups(groups);
+    }
+
+    @Override
+    public boolean deleteGroup(Group group) {
+        return backing.deleteGroup(group);
+    }
+
+    @Override
+    public boolean createAndLoadTrack(String name) {
+        return backing.createAndLoadTrack(name);
+    }
+
+    @Override
+    public boolean loadTrack(String name) {
+        return backing.loadTrack(name);
+    }
+
+    @Override
+    public boolean loadAllTracks() {
+        return backing.loadAllTracks();
+    }
+
+    @Override
+    public boolean saveTrack(Track track) {
+        return backing.saveTrack(track);
+    }
+
+    @Override
+    public boolean deleteTrack(Track track) {
+        return backing.deleteTrack(track);
+    }
+
+    @Override
+    public boolean saveUUIDData(String username, UUID uuid) {
+        return backing.saveUUIDData(username, uuid);
+    }
+
+    @Override
+    public UUID getUUID(String username) {
+        return backing.getUUID(username);
+    }
+
+    @Override
+    public String getName(UUID uuid) {
+        return backing.getName(uuid);
+    }
+
+    @Override
+    public Map<UUID, String> getNames(Collection<UUID> uuids) {
+        return backing.getNames(uuids);
+    }
+
+    @RequiredArgsConstructor
+    private static class FailedEntry {
+        private final LogEntry entry;
+        private int attempts = 0;
+    }
+}
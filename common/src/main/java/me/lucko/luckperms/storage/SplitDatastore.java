@@ -25,14 +25,19 @@ package me.lucko.luckperms.storage;
 import com.google.common.collect.ImmutableMap;
 import me.lucko.luckperms.LuckPermsPlugin;
 import me.lucko.luckperms.api.LogEntry;
+import me.lucko.luckperms.api.data.PoolStats;
 import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.data.LogQuery;
 import me.lucko.luckperms.groups.Group;
 import me.lucko.luckperms.tracks.Track;
 import me.lucko.luckperms.users.User;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public class SplitDatastore extends Datastore {
     private final Map<String, Datastore> backing;
@@ -61,26 +66,75 @@ public class SplitDatastore extends Datastore {
         backing.values().forEach(Datastore::shutdown);
     }
 
+    @Override
+    public PoolStats getPoolStats() {
+        for (Datastore ds : backing.values()) {
+            PoolStats stats = ds.getPoolStats();
+            if (stats != null) {
+                return stats;
+            }
+        }
+        return null;
+    }
+
     @Override
     public boolean logAction(LogEntry entry) {
         return backing.get(types.get("log")).logAction(entry);
     }
 
+    @Override
+    public boolean logActions(Collection<LogEntry> entries) {
+        return backing.get(types.get("log")).logActions(entries);
+    }
+
     @Override
     public Log getLog() {
         return backing.get(types.get("log")).getLog();
     }
 
+    @Override
+    public List<LogEntry> queryLog(LogQuery query) {
+        return backing.get(types.get("log")).queryLog(query);
+    }
+
+    @Override
+    public int countLog(LogQuery query) {
+        return backing.get(types.get("log")).countLog(query);
+    }
+
+    @Override
+    public boolean streamLog(LogQuery query, Consumer<LogEntry> consumer) {
+        return backing.get(types.get("log")).streamLog(query, consumer);
+    }
+
+    @Override
+    public int purgeLog(LogQuery query) {
+        return backing.get(types.get("log")).purgeLog(query);
+    }
+
     @Override
     public boolean loadUser(UUID uuid, String username) {
         return backing.get(types.get("user")).loadUser(uuid, username);
     }
 
+    @Override
+    public UUID loadUserOnLogin(String username, UUID uuid) {
+        if (!types.get("user").equals(types.get("uuid"))) {
+            return super.loadUserOnLogin(username, uuid);
+        }
+        return backing.get(types.get("user")).loadUserOnLogin(username, uuid);
+    }
+
     @Override
     public boolean saveUser(User user) {
         return backing.get(types.get("user")).saveUser(user);
     }
 
+    @Override
+    public boolean saveUsers(Collection<User> users) {
+        return backing.get(types.get("user")).saveUsers(users);
+    }
+
     @Override
     public boolean cleanupUsers() {
         return backing.get(types.get("user")).cleanupUsers();
@@ -91,6 +145,11 @@ public class SplitDatastore extends Datastore {
         return backing.get(types.get("user")).getUniqueUsers();
     }
 
+    @Override
+    public Set<UUID> getUsersInGroup(String group) {
+        return backing.get(types.get("user")).getUsersInGroup(group);
+    }
+
     @Override
     public boolean createAndLoadGroup(String name) {
         return backing.get(types.get("group")).createAndLoadGroup(name);
@@ -111,6 +170,11 @@ public class SplitDatastore extends Datastore {
         return backing.get(types.get("group")).saveGroup(group);
     }
 
+    @Override
+    public boolean saveGroups(Collection<Group> groups) {
+        return backing.get(types.get("group")).saveGroups(groups);
+    }
+
     @Override
     public boolean deleteGroup(Group group) {
         return backing.get(types.get("group")).deleteGroup(group);
@@ -155,4 +219,9 @@ public class SplitDatastore extends Datastore {
     public String getName(UUID uuid) {
         return backing.get(types.get("uuid")).getName(uuid);
     }
+
+    @Override
+    public Map<UUID, String> getNames(Collection<UUID> uuids) {
+        return backing.get(types.get("uuid")).getNames(uuids);
+    }
 }
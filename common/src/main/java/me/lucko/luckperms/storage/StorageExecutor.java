@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import me.lucko.luckperms.LuckPermsPlugin;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A fixed size pool of threads which runs datastore operations, with a bounded queue.
+ *
+ * <p> When the queue is full, new operations are either ran on the thread submitting them, which slows the
+ * submitter down until the pool catches up, or rejected and failed straight away. Operations submitted from the
+ * platform's main thread are never ran on it, and are passed to the platform's async scheduler instead.
+ *
+ * <p> The time each operation spends waiting in the queue and running is recorded, by operation name.
+ */
+public class StorageExecutor {
+    private final LuckPermsPlugin plugin;
+    private final ThreadPoolExecutor executor;
+    private final boolean callerRuns;
+
+    @Getter
+    private final int queueCapacity;
+    private final Map<String, OperationStats> stats = new ConcurrentHashMap<>();
+
+    public StorageExecutor(LuckPermsPlugin plugin, int threads, int queueCapacity, boolean callerRuns) {
+        this.plugin = plugin;
+        AtomicInteger count = new AtomicInteger(0);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread t = new Thread(r, "luckperms-storage-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.queueCapacity = queueCapacity;
+        this.callerRuns = callerRuns;
+    }
+
+    /**
+     * Runs an operation on the pool
+     * @param operation the name to record the operation's timings under
+     * @param supplier the operation
+     * @return a future which is completed with the result
+     */
+    public <T> CompletableFuture<T> submit(String operation, Supplier<T> supplier) {
+        OperationStats s = stats.computeIfAbsent(operation, OperationStats::new);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long queued = System.nanoTime();
+
+        Runnable task = () -> {
+            long start = System.nanoTime();
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                s.record(start - queued, System.nanoTime() - start);
+            }
+        };
+
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            s.overflowed.incrementAndGet();
+            if (callerRuns && !executor.isShutdown()) {
+                if (plugin.isMainThread()) {
+                    plugin.doAsync(task);
+                } else {
+                    task.run();
+                }
+            } else {
+                future.completeExceptionally(e);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Stops accepting new operations, and waits for the queued ones to finish
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the timings of each operation which has been ran, sorted by name
+     */
+    public Map<String, OperationStats> getStats() {
+        return new TreeMap<>(stats);
+    }
+
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public static class OperationStats {
+        @Getter
+        private final String operation;
+
+        private final AtomicLong count = new AtomicLong(0);
+        private final AtomicLong overflowed = new AtomicLong(0);
+        private final AtomicLong waitNanos = new AtomicLong(0);
+        private final AtomicLong maxWaitNanos = new AtomicLong(0);
+        private final AtomicLong runNanos = new AtomicLong(0);
+        private final AtomicLong maxRunNanos = new AtomicLong(0);
+
+        private void record(long wait, long run) {
+            count.incrementAndGet();
+            waitNanos.addAndGet(wait);
+            maxWaitNanos.accumulateAndGet(wait, Math::max);
+            runNanos.addAndGet(run);
+            maxRunNanos.accumulateAndGet(run, Math::max);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getOverflowed() {
+            return overflowed.get();
+        }
+
+        public double getAverageWaitTime() {
+            return average(waitNanos.get());
+        }
+
+        public double getMaxWaitTime() {
+            return toMillis(maxWaitNanos.get());
+        }
+
+        public double getAverageRunTime() {
+            return average(runNanos.get());
+        }
+
+        public double getMaxRunTime() {
+            return toMillis(maxRunNanos.get());
+        }
+
+        private double average(long nanos) {
+            long c = count.get();
+            return c == 0 ? 0 : toMillis(nanos) / c;
+        }
+
+        private static double toMillis(long nanos) {
+            return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
@@ -35,7 +35,7 @@ import java.util.Set;
 
 @UtilityClass
 public class StorageFactory {
-    private static final Set<String> TYPES = ImmutableSet.of("json", "yaml", "flatfile", "mongodb", "mysql", "sqlite", "h2");
+    private static final Set<String> TYPES = ImmutableSet.of("json", "yaml", "flatfile", "mongodb", "mysql", "sqlite", "h2", "logstore");
 
     @SuppressWarnings("unchecked")
     public static Datastore getDatastore(LuckPermsPlugin plugin, String defaultMethod) {
@@ -78,6 +78,36 @@ public class StorageFactory {
             plugin.getLog().info("Using " + datastore.getName() + " as storage method.");
         }
 
+        if (plugin.getConfiguration().getSaveBuffer()) {
+            plugin.getLog().info("Buffering user and group saves.");
+            datastore = new BufferedDatastore(plugin, datastore,
+                    plugin.getConfiguration().getSaveBufferInterval(),
+                    plugin.getConfiguration().getSaveBufferSize()
+            );
+        }
+
+        datastore = new QueuedLogDatastore(plugin, datastore,
+                plugin.getConfiguration().getLogQueueMaxSize(),
+                plugin.getConfiguration().getLogQueueFlushInterval(),
+                plugin.getConfiguration().getLogQueueBatchSize(),
+                plugin.getConfiguration().getLogQueueOverflow().equalsIgnoreCase("drop")
+        );
+
+        datastore = new CoalescingDatastore(plugin, datastore, new LoadAdmission(
+                plugin.getConfiguration().getLoadLimit(),
+                plugin.getConfiguration().getLoginWait()
+        ), plugin.getConfiguration().getOfflineUserCacheSize() > 0 ? new OfflineUserCache(
+                plugin.getConfiguration().getOfflineUserCacheSize(),
+                plugin.getConfiguration().getOfflineUserCacheExpiry()
+        ) : null);
+
+        datastore.setExecutor(new StorageExecutor(
+                plugin,
+                plugin.getConfiguration().getStorageThreads(),
+                plugin.getConfiguration().getStorageQueueSize(),
+                !plugin.getConfiguration().getStorageQueueOverflow().equalsIgnoreCase("reject")
+        ));
+
         plugin.getLog().info("Initialising datastore...");
         datastore.init();
         return datastore;
@@ -91,12 +121,14 @@ public class StorageFactory {
                 return new SQLiteDatastore(plugin, new File(plugin.getDataFolder(), "luckperms.sqlite"));
             case "h2":
                 return new H2Datastore(plugin, new File(plugin.getDataFolder(), "luckperms.db"));
+            case "logstore":
+                return new LogStoreDatastore(plugin, new File(plugin.getDataFolder(), "logstore"), plugin.getConfiguration().getBinaryNodes());
             case "mongodb":
                 return new MongoDBDatastore(plugin, plugin.getConfiguration().getDatabaseValues());
             case "yaml":
-                return new YAMLDatastore(plugin, plugin.getDataFolder());
+                return new YAMLDatastore(plugin, plugin.getDataFolder(), plugin.getConfiguration().getShardUsers());
             default:
-                return new JSONDatastore(plugin, plugin.getDataFolder());
+                return new JSONDatastore(plugin, plugin.getDataFolder(), plugin.getConfiguration().getShardUsers());
         }
     }
 }
@@ -27,11 +27,15 @@ import me.lucko.luckperms.LuckPermsPlugin;
 import me.lucko.luckperms.api.LogEntry;
 import me.lucko.luckperms.constants.Constants;
 import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.data.LogQuery;
 import me.lucko.luckperms.storage.Datastore;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.logging.*;
 import java.util.logging.Formatter;
 
@@ -41,16 +45,30 @@ abstract class FlatfileDatastore extends Datastore {
     private final Logger actionLogger = Logger.getLogger("lp_actions");
     private Map<String, String> uuidCache = new ConcurrentHashMap<>();
 
+    // uuid -> name, the reverse of the uuid cache
+    private Map<String, String> nameCache = new ConcurrentHashMap<>();
+
     final File pluginDir;
     File usersDir;
     File groupsDir;
     File tracksDir;
     File uuidData;
     File actionLog;
+    FlatfileManifest userManifest;
+    FlatfileManifest groupManifest;
+    private FlatfileLog log = null;
+
+    // The extension of user, group and track files
+    private final String extension;
+
+    // If user files are split into sub directories by the start of their uuid
+    private final boolean shardUsers;
 
-    FlatfileDatastore(LuckPermsPlugin plugin, String name, File pluginDir) {
+    FlatfileDatastore(LuckPermsPlugin plugin, String name, File pluginDir, String extension, boolean shardUsers) {
         super(plugin, name);
         this.pluginDir = pluginDir;
+        this.extension = extension;
+        this.shardUsers = shardUsers;
     }
 
     @Override
@@ -62,7 +80,15 @@ abstract class FlatfileDatastore extends Datastore {
             return;
         }
 
+        moveUserFiles();
+
+        userManifest = new FlatfileManifest(new File(usersDir, ".manifest"));
+        userManifest.load();
+        groupManifest = new FlatfileManifest(new File(groupsDir, ".manifest"));
+        groupManifest.load();
+
         uuidCache.putAll(getUUIDCache());
+        uuidCache.forEach((name, uuid) -> nameCache.put(uuid, name));
 
         try {
             FileHandler fh = new FileHandler(actionLog.getAbsolutePath(), 0, 1, true);
@@ -80,6 +106,14 @@ abstract class FlatfileDatastore extends Datastore {
             e.printStackTrace();
         }
 
+        FlatfileLog log = new FlatfileLog(new File(actionLog.getParentFile(), "actions"));
+        try {
+            log.load();
+            this.log = log;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
         cleanupUsers();
         setAcceptingLogins(true);
     }
@@ -104,9 +138,141 @@ abstract class FlatfileDatastore extends Datastore {
         actionLog.createNewFile();
     }
 
+    /**
+     * Gets the file a user is stored in, using the configured layout
+     * @param uuid the uuid of the user
+     * @return the file, which may not exist yet
+     */
+    File getUserFile(UUID uuid) {
+        return getUserFile(uuid, shardUsers);
+    }
+
+    /**
+     * Gets the file a user is stored in. Falls back to the other layout if the user's file hasn't been moved yet.
+     * @param uuid the uuid of the user
+     * @return the file, which may not exist
+     */
+    File findUserFile(UUID uuid) {
+        File file = getUserFile(uuid, shardUsers);
+        if (!file.exists()) {
+            File other = getUserFile(uuid, !shardUsers);
+            if (other.exists()) {
+                return other;
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Deletes the file for a user, in either layout
+     * @param uuid the uuid of the user
+     */
+    void deleteUserFile(UUID uuid) {
+        for (File file : new File[]{getUserFile(uuid, true), getUserFile(uuid, false)}) {
+            if (file.exists()) {
+                file.delete();
+            }
+            userManifest.remove(file);
+        }
+    }
+
+    /**
+     * Removes the file for a user from the layout which isn't being used, once it has been saved in the current one
+     * @param uuid the uuid of the user
+     */
+    void removeOldUserFile(UUID uuid) {
+        File other = getUserFile(uuid, !shardUsers);
+        if (other.exists()) {
+            other.delete();
+        }
+    }
+
+    /**
+     * @return every user file, in both layouts
+     */
+    List<File> getUserFiles() {
+        List<File> files = new ArrayList<>();
+        addFiles(files, usersDir);
+
+        File[] shards = usersDir.listFiles(f -> f.isDirectory() && f.getName().length() == 2);
+        if (shards != null) {
+            for (File shard : shards) {
+                File[] subShards = shard.listFiles(f -> f.isDirectory() && f.getName().length() == 2);
+                if (subShards != null) {
+                    for (File subShard : subShards) {
+                        addFiles(files, subShard);
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    private void addFiles(List<File> files, File dir) {
+        File[] found = dir.listFiles((d, name) -> name.endsWith(extension));
+        if (found != null) {
+            files.addAll(Arrays.asList(found));
+        }
+    }
+
+    private File getUserFile(UUID uuid, boolean sharded) {
+        String name = uuid.toString();
+        if (!sharded) {
+            return new File(usersDir, name + extension);
+        }
+        return new File(new File(new File(usersDir, name.substring(0, 2)), name.substring(2, 4)), name + extension);
+    }
+
+    /**
+     * Moves any user files which are stored in the layout that isn't being used. Users whose files haven't been moved
+     * can still be loaded, so this is safe to interrupt.
+     */
+    private void moveUserFiles() {
+        int moved = 0;
+        for (File file : getUserFiles()) {
+            boolean sharded = !file.getParentFile().equals(usersDir);
+            if (sharded == shardUsers) {
+                continue;
+            }
+
+            UUID uuid;
+            try {
+                uuid = UUID.fromString(file.getName().substring(0, file.getName().length() - extension.length()));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+
+            // The file in the current layout is always read first, so an older copy can be discarded
+            File target = getUserFile(uuid, shardUsers);
+            if (target.exists()) {
+                file.delete();
+                continue;
+            }
+
+            try {
+                target.getParentFile().mkdirs();
+                Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                moved++;
+            } catch (IOException e) {
+                plugin.getLog().warn("Unable to move user file " + file + ": " + e.getMessage());
+            }
+        }
+
+        if (moved != 0) {
+            plugin.getLog().info("Moved " + moved + " user files to the " + (shardUsers ? "sharded" : "flat") + " layout.");
+        }
+    }
+
     @Override
     public void shutdown() {
         saveUUIDCache(uuidCache);
+        if (userManifest != null) {
+            userManifest.close();
+            groupManifest.close();
+        }
+        if (log != null) {
+            log.close();
+        }
     }
 
     @Override
@@ -119,13 +285,33 @@ abstract class FlatfileDatastore extends Datastore {
                 entry.getActedName(),
                 entry.getAction())
         );
-        return true;
+        return log != null && log.append(entry);
     }
 
     @Override
     public Log getLog() {
-        // Flatfile doesn't support viewing log data from in-game. You can just read the file in a text editor.
-        return Log.builder().build();
+        final Log.Builder builder = Log.builder();
+        return streamLog(LogQuery.builder().build(), builder::add) ? builder.build() : null;
+    }
+
+    @Override
+    public List<LogEntry> queryLog(LogQuery query) {
+        return log == null ? null : log.query(query);
+    }
+
+    @Override
+    public int countLog(LogQuery query) {
+        return log == null ? -1 : log.count(query);
+    }
+
+    @Override
+    public boolean streamLog(LogQuery query, Consumer<LogEntry> consumer) {
+        return log != null && log.stream(query, consumer);
+    }
+
+    @Override
+    public int purgeLog(LogQuery query) {
+        return log == null ? -1 : log.purge(query);
     }
 
     private Map<String, String> getUUIDCache() {
@@ -164,7 +350,11 @@ abstract class FlatfileDatastore extends Datastore {
     @Override
     public boolean saveUUIDData(String username, UUID uuid) {
         username = username.toLowerCase();
-        uuidCache.put(username, uuid.toString());
+        String previous = uuidCache.put(username, uuid.toString());
+        if (previous != null && !previous.equals(uuid.toString())) {
+            nameCache.remove(previous, username);
+        }
+        nameCache.put(uuid.toString(), username);
         return true;
     }
 
@@ -177,11 +367,6 @@ abstract class FlatfileDatastore extends Datastore {
 
     @Override
     public String getName(UUID uuid) {
-        for (Map.Entry<String, String> e : uuidCache.entrySet()) {
-            if (e.getValue().equalsIgnoreCase(uuid.toString())) {
-                return e.getKey();
-            }
-        }
-        return null;
+        return nameCache.get(uuid.toString());
     }
 }
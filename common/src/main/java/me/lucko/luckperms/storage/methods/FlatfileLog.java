@@ -0,0 +1,491 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage.methods;
+
+import lombok.AllArgsConstructor;
+import lombok.Cleanup;
+import me.lucko.luckperms.api.LogEntry;
+import me.lucko.luckperms.data.LogQuery;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * An append-only action log, stored as a series of segment files.
+ *
+ * <p> Each record is prefixed by its length. Records are grouped into blocks of {@link #BLOCK_SIZE}, and the offset,
+ * length, size and time range of each complete block is appended to the segment's index file. Queries only read the
+ * blocks which could contain matching entries, one block at a time. A new segment is started once the current one
+ * reaches {@link #SEGMENT_SIZE} bytes.
+ *
+ * <p> Entries are kept in the order they were logged.
+ */
+class FlatfileLog {
+    private static final int BLOCK_SIZE = 256;
+    private static final long SEGMENT_SIZE = 4L * 1024L * 1024L;
+
+    // offset, length, count, min timestamp, max timestamp
+    private static final int INDEX_ENTRY_SIZE = 8 + 4 + 4 + 8 + 8;
+
+    private final File dir;
+    private final List<Segment> segments = new ArrayList<>();
+
+    FlatfileLog(File dir) {
+        this.dir = dir;
+    }
+
+    synchronized void load() throws IOException {
+        dir.mkdirs();
+
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".dat"));
+        List<Integer> ids = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    ids.add(Integer.parseInt(file.getName().substring(0, file.getName().length() - 4)));
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        Collections.sort(ids);
+
+        for (int id : ids) {
+            Segment segment = new Segment(dir, id);
+            segment.load();
+            segments.add(segment);
+        }
+
+        if (segments.isEmpty()) {
+            segments.add(new Segment(dir, 1));
+        }
+        current().open();
+    }
+
+    synchronized void close() {
+        try {
+            current().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    synchronized boolean append(LogEntry entry) {
+        try {
+            Segment segment = current();
+            if (segment.size >= SEGMENT_SIZE) {
+                segment.closeBlock();
+                segment.close();
+
+                segment = new Segment(dir, segment.id + 1);
+                segment.open();
+                segments.add(segment);
+            }
+
+            segment.append(entry.getTimestamp(), encode(entry));
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    List<LogEntry> query(LogQuery query) {
+        final List<LogEntry> entries = new ArrayList<>();
+        final int[] skip = {query.getOffset()};
+        boolean success = visit(query, e -> {
+            if (skip[0] > 0) {
+                skip[0]--;
+                return true;
+            }
+
+            entries.add(e);
+            return query.getLimit() == 0 || entries.size() < query.getLimit();
+        });
+        return success ? entries : null;
+    }
+
+    boolean stream(LogQuery query, Consumer<LogEntry> consumer) {
+        return visit(query, e -> {
+            consumer.accept(e);
+            return true;
+        });
+    }
+
+    int count(LogQuery query) {
+        // Blocks which lie entirely within the time range don't need to be read if nothing else is being filtered
+        boolean timeOnly = query.getActor() == null && query.getActed() == null && query.getActedName() == null &&
+                query.getType() == null && query.getSearch() == null;
+
+        int count = 0;
+        try {
+            for (BlockRef ref : getBlocks(query)) {
+                if (timeOnly && ref.block.min >= query.getAfter() && ref.block.max < query.getBefore()) {
+                    count += ref.block.count;
+                    continue;
+                }
+
+                for (LogEntry e : read(ref)) {
+                    if (query.matches(e)) {
+                        count++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        }
+        return count;
+    }
+
+    /**
+     * Deletes the entries matching a query. Segments containing matching entries are rewritten without them.
+     * @param query the query
+     * @return the number of entries deleted, or -1 if the log could not be modified
+     */
+    synchronized int purge(LogQuery query) {
+        Set<Segment> affected = new LinkedHashSet<>();
+        try {
+            for (BlockRef ref : getBlocks(query)) {
+                if (!affected.contains(ref.segment) && read(ref).stream().anyMatch(query::matches)) {
+                    affected.add(ref.segment);
+                }
+            }
+
+            int total = 0;
+            for (Segment segment : affected) {
+                total += rewrite(segment, query);
+            }
+            return total;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    private Segment current() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private int rewrite(Segment segment, LogQuery query) throws IOException {
+        boolean current = segment == current();
+        if (current) {
+            segment.close();
+        }
+
+        Segment temp = new Segment(dir, segment.id, ".tmp");
+        temp.data.delete();
+        temp.index.delete();
+        temp.open();
+
+        int removed = 0;
+        for (Block block : segment.getBlocks()) {
+            for (LogEntry e : read(new BlockRef(segment, block))) {
+                if (query.matches(e)) {
+                    removed++;
+                } else {
+                    temp.append(e.getTimestamp(), encode(e));
+                }
+            }
+        }
+        temp.closeBlock();
+        temp.close();
+
+        segment.deleted = true;
+        int i = segments.indexOf(segment);
+
+        if (temp.size == 0 && !current) {
+            temp.data.delete();
+            temp.index.delete();
+            segment.data.delete();
+            segment.index.delete();
+            segments.remove(i);
+            return removed;
+        }
+
+        Files.move(temp.data.toPath(), segment.data.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(temp.index.toPath(), segment.index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        Segment replacement = new Segment(dir, segment.id);
+        replacement.load();
+        segments.set(i, replacement);
+        if (current) {
+            replacement.open();
+        }
+        return removed;
+    }
+
+    /**
+     * Passes the entries matching a query to the visitor, in the order given by the query, until it returns false
+     * @param query the query
+     * @param visitor the visitor
+     * @return true if the log was read successfully
+     */
+    private boolean visit(LogQuery query, Predicate<LogEntry> visitor) {
+        try {
+            List<BlockRef> refs = getBlocks(query);
+            if (query.isDescending()) {
+                Collections.reverse(refs);
+            }
+
+            for (BlockRef ref : refs) {
+                List<LogEntry> entries = read(ref);
+                if (query.isDescending()) {
+                    Collections.reverse(entries);
+                }
+
+                for (LogEntry e : entries) {
+                    if (query.matches(e) && !visitor.test(e)) {
+                        return true;
+                    }
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * @return the blocks which could contain entries in the query's time range, oldest first
+     */
+    private synchronized List<BlockRef> getBlocks(LogQuery query) {
+        List<BlockRef> refs = new ArrayList<>();
+        for (Segment segment : segments) {
+            for (Block block : segment.getBlocks()) {
+                if (block.max >= query.getAfter() && block.min < query.getBefore()) {
+                    refs.add(new BlockRef(segment, block));
+                }
+            }
+        }
+        return refs;
+    }
+
+    private synchronized List<LogEntry> read(BlockRef ref) throws IOException {
+        if (ref.segment.deleted) {
+            throw new IOException("Segment " + ref.segment.data.getName() + " was modified whilst being read");
+        }
+
+        byte[] buf = new byte[ref.block.length];
+        @Cleanup RandomAccessFile file = new RandomAccessFile(ref.segment.data, "r");
+        file.seek(ref.block.offset);
+        file.readFully(buf);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf));
+        List<LogEntry> entries = new ArrayList<>(ref.block.count);
+        for (int i = 0; i < ref.block.count; i++) {
+            byte[] record = new byte[in.readInt()];
+            in.readFully(record);
+            entries.add(decode(record));
+        }
+        return entries;
+    }
+
+    private static byte[] encode(LogEntry e) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(e.getTimestamp());
+        out.writeLong(e.getActor().getMostSignificantBits());
+        out.writeLong(e.getActor().getLeastSignificantBits());
+        out.writeUTF(e.getActorName());
+        out.writeChar(e.getType());
+        out.writeBoolean(e.getActed() != null);
+        if (e.getActed() != null) {
+            out.writeLong(e.getActed().getMostSignificantBits());
+            out.writeLong(e.getActed().getLeastSignificantBits());
+        }
+        out.writeUTF(e.getActedName());
+        out.writeUTF(e.getAction());
+        return bytes.toByteArray();
+    }
+
+    private static LogEntry decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        long timestamp = in.readLong();
+        UUID actor = new UUID(in.readLong(), in.readLong());
+        String actorName = in.readUTF();
+        char type = in.readChar();
+        UUID acted = in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+        String actedName = in.readUTF();
+        String action = in.readUTF();
+        return new LogEntry(timestamp, actor, actorName, type, acted, actedName, action);
+    }
+
+    @AllArgsConstructor
+    private static final class Block {
+        private final long offset;
+        private final int length;
+        private final int count;
+        private final long min;
+        private final long max;
+    }
+
+    @AllArgsConstructor
+    private static final class BlockRef {
+        private final Segment segment;
+        private final Block block;
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final File data;
+        private final File index;
+        private final List<Block> blocks = new ArrayList<>();
+
+        // The records after the last complete block
+        private Block tail = null;
+        private long size = 0;
+        private boolean deleted = false;
+
+        private DataOutputStream dataOut = null;
+        private DataOutputStream indexOut = null;
+
+        private Segment(File dir, int id) {
+            this(dir, id, "");
+        }
+
+        private Segment(File dir, int id, String suffix) {
+            this.id = id;
+            this.data = new File(dir, String.format("%08d.dat", id) + suffix);
+            this.index = new File(dir, String.format("%08d.idx", id) + suffix);
+        }
+
+        /**
+         * Reads the index, then scans the records after the last indexed block. A record which was only partly
+         * written is removed, along with anything after it.
+         */
+        private void load() throws IOException {
+            long dataLength = data.length();
+            long indexLength = index.exists() ? index.length() : 0;
+            long validIndexLength = 0;
+
+            if (indexLength > 0) {
+                @Cleanup DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+                for (long read = 0; read + INDEX_ENTRY_SIZE <= indexLength; read += INDEX_ENTRY_SIZE) {
+                    Block block = new Block(in.readLong(), in.readInt(), in.readInt(), in.readLong(), in.readLong());
+                    if (block.offset + block.length > dataLength) {
+                        break;
+                    }
+                    blocks.add(block);
+                    validIndexLength += INDEX_ENTRY_SIZE;
+                }
+            }
+
+            if (validIndexLength != indexLength) {
+                @Cleanup RandomAccessFile file = new RandomAccessFile(index, "rw");
+                file.setLength(validIndexLength);
+            }
+
+            size = blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).offset + blocks.get(blocks.size() - 1).length;
+
+            @Cleanup RandomAccessFile file = new RandomAccessFile(data, "rw");
+            file.seek(size);
+            while (size + 4 <= dataLength) {
+                int length = file.readInt();
+                if (length < 0 || size + 4 + length > dataLength) {
+                    break;
+                }
+
+                byte[] record = new byte[length];
+                file.readFully(record);
+                long timestamp = new DataInputStream(new ByteArrayInputStream(record)).readLong();
+                addToTail(timestamp, 4 + length);
+            }
+
+            if (size != dataLength) {
+                file.setLength(size);
+            }
+        }
+
+        private void open() throws IOException {
+            dataOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(data, true)));
+            indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index, true)));
+
+            // Blocks filled whilst loading are indexed once the segment can be written to
+            if (tail != null && tail.count >= BLOCK_SIZE) {
+                closeBlock();
+            }
+        }
+
+        private void close() throws IOException {
+            if (dataOut != null) {
+                dataOut.close();
+                dataOut = null;
+            }
+            if (indexOut != null) {
+                indexOut.close();
+                indexOut = null;
+            }
+        }
+
+        private void append(long timestamp, byte[] record) throws IOException {
+            dataOut.writeInt(record.length);
+            dataOut.write(record);
+            dataOut.flush();
+
+            addToTail(timestamp, 4 + record.length);
+            if (tail.count >= BLOCK_SIZE) {
+                closeBlock();
+            }
+        }
+
+        private void addToTail(long timestamp, int length) {
+            if (tail == null) {
+                tail = new Block(size, length, 1, timestamp, timestamp);
+            } else {
+                tail = new Block(tail.offset, tail.length + length, tail.count + 1, Math.min(tail.min, timestamp), Math.max(tail.max, timestamp));
+            }
+            size += length;
+        }
+
+        private void closeBlock() throws IOException {
+            if (tail == null) {
+                return;
+            }
+
+            indexOut.writeLong(tail.offset);
+            indexOut.writeInt(tail.length);
+            indexOut.writeInt(tail.count);
+            indexOut.writeLong(tail.min);
+            indexOut.writeLong(tail.max);
+            indexOut.flush();
+
+            blocks.add(tail);
+            tail = null;
+        }
+
+        private List<Block> getBlocks() {
+            if (tail == null) {
+                return new ArrayList<>(blocks);
+            }
+
+            List<Block> all = new ArrayList<>(blocks.size() + 1);
+            all.addAll(blocks);
+            all.add(tail);
+            return all;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage.methods;
+
+import lombok.AllArgsConstructor;
+import lombok.Cleanup;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * A summary of the files in a flatfile data directory, so that they don't all need to be parsed on startup.
+ *
+ * <p> Each entry holds the modification time and size of a file when it was last read or written, along with its
+ * primary group and whether its only permission is "group.default". Entries are only trusted whilst the file's
+ * modification time and size still match, so changes made outside of the plugin are picked up.
+ *
+ * <p> Updates are appended to the manifest as length-prefixed records, and the file is compacted when it is loaded or
+ * closed if most of the records are out of date. Anything which can't be read is ignored.
+ */
+class FlatfileManifest {
+    private static final int VERSION = 1;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+    private final File file;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private int records = 0;
+    private OutputStream out = null;
+
+    FlatfileManifest(File file) {
+        this.file = file;
+    }
+
+    synchronized void load() {
+        boolean intact = true;
+        if (file.exists()) {
+            try {
+                @Cleanup DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                intact = in.readInt() == VERSION && read(in);
+            } catch (IOException e) {
+                intact = false;
+            }
+        }
+
+        // Entries read before a partial record are kept
+        if (!intact || records > entries.size() * 2) {
+            compact();
+        }
+
+        try {
+            out = new FileOutputStream(file, true);
+            if (file.length() == 0) {
+                write(out, header());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            out = null;
+        }
+    }
+
+    synchronized void close() {
+        if (out == null) {
+            return;
+        }
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out = null;
+
+        if (records > entries.size() * 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Gets the entry for a file, if it is still up to date
+     * @param f the file
+     * @return the entry, or null if there isn't one or the file has changed since it was recorded
+     */
+    synchronized Entry get(File f) {
+        Entry entry = entries.get(f.getName());
+        if (entry == null || entry.getModified() != f.lastModified() || entry.getSize() != f.length()) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Records the current state of a file
+     * @param f the file, which has just been read or written
+     * @param primaryGroup the primary group of the user stored in the file, or null
+     * @param defaultOnly if the file's only permission is "group.default"
+     */
+    synchronized void put(File f, String primaryGroup, boolean defaultOnly) {
+        Entry entry = new Entry(f.lastModified(), f.length(), primaryGroup, defaultOnly);
+        if (entry.equals(entries.put(f.getName(), entry))) {
+            return;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeByte(PUT);
+            writeEntry(data, f.getName(), entry);
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    synchronized void remove(File f) {
+        if (entries.remove(f.getName()) == null) {
+            return;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeByte(REMOVE);
+            data.writeUTF(f.getName());
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Removes the entries for files which no longer exist
+     * @param names the names of the files in the directory
+     */
+    synchronized void retain(Set<String> names) {
+        for (String name : new ArrayList<>(entries.keySet())) {
+            if (!names.contains(name)) {
+                remove(new File(file.getParentFile(), name));
+            }
+        }
+    }
+
+    static boolean isDefaultOnly(Map<String, Boolean> nodes) {
+        if (nodes.size() != 1) {
+            return false;
+        }
+
+        Map.Entry<String, Boolean> e = nodes.entrySet().iterator().next();
+        return e.getKey().equalsIgnoreCase("group.default") && e.getValue();
+    }
+
+    /**
+     * @return false if the manifest ended part way through a record
+     */
+    private boolean read(DataInputStream in) throws IOException {
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return true;
+            }
+
+            if (length <= 0 || length > MAX_RECORD_SIZE) {
+                return false;
+            }
+
+            byte[] record = new byte[length];
+            try {
+                in.readFully(record);
+            } catch (EOFException e) {
+                return false;
+            }
+
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+            byte op = data.readByte();
+            String name = data.readUTF();
+            if (op == PUT) {
+                long modified = data.readLong();
+                long size = data.readLong();
+                String primaryGroup = data.readBoolean() ? data.readUTF() : null;
+                entries.put(name, new Entry(modified, size, primaryGroup, data.readBoolean()));
+            } else if (op == REMOVE) {
+                entries.remove(name);
+            } else {
+                return false;
+            }
+            records++;
+        }
+    }
+
+    private void append(byte[] record) throws IOException {
+        records++;
+        if (out == null) {
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(record.length + 4);
+        new DataOutputStream(bytes).writeInt(record.length);
+        bytes.write(record);
+
+        // Written in one go, so a crash can only leave a partial record at the end
+        write(out, bytes.toByteArray());
+    }
+
+    private void compact() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            @Cleanup DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            data.write(header());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream record = new DataOutputStream(bytes);
+                record.writeByte(PUT);
+                writeEntry(record, e.getKey(), e.getValue());
+                data.writeInt(bytes.size());
+                bytes.writeTo(data);
+            }
+            data.close();
+
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            records = entries.size();
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+        }
+    }
+
+    private static void writeEntry(DataOutputStream data, String name, Entry entry) throws IOException {
+        data.writeUTF(name);
+        data.writeLong(entry.getModified());
+        data.writeLong(entry.getSize());
+        data.writeBoolean(entry.getPrimaryGroup() != null);
+        if (entry.getPrimaryGroup() != null) {
+            data.writeUTF(entry.getPrimaryGroup());
+        }
+        data.writeBoolean(entry.isDefaultOnly());
+    }
+
+    private static byte[] header() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4);
+        new DataOutputStream(bytes).writeInt(VERSION);
+        return bytes.toByteArray();
+    }
+
+    private static void write(OutputStream out, byte[] bytes) throws IOException {
+        out.write(bytes);
+        out.flush();
+    }
+
+    @Getter
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    static class Entry {
+        private final long modified;
+        private final long size;
+        private final String primaryGroup;
+        private final boolean defaultOnly;
+    }
+}
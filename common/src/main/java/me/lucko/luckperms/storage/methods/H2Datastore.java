@@ -22,19 +22,48 @@
 
 package me.lucko.luckperms.storage.methods;
 
-import lombok.Cleanup;
+import com.google.common.collect.ImmutableList;
 import me.lucko.luckperms.LuckPermsPlugin;
 
 import java.io.File;
 import java.sql.*;
+import java.util.List;
 
 public class H2Datastore extends SQLDatastore {
 
     private static final String CREATETABLE_UUID = "CREATE TABLE IF NOT EXISTS `lp_uuid` (`name` VARCHAR(16) NOT NULL, `uuid` VARCHAR(36) NOT NULL, PRIMARY KEY (`name`)) DEFAULT CHARSET=utf8;";
     private static final String CREATETABLE_USERS = "CREATE TABLE IF NOT EXISTS `lp_users` (`uuid` VARCHAR(36) NOT NULL, `name` VARCHAR(16) NOT NULL, `primary_group` VARCHAR(36) NOT NULL, `perms` TEXT NOT NULL, PRIMARY KEY (`uuid`)) DEFAULT CHARSET=utf8;";
+    private static final String CREATETABLE_USER_PERMISSIONS = "CREATE TABLE IF NOT EXISTS `lp_user_permissions` (`id` INT AUTO_INCREMENT NOT NULL, `uuid` VARCHAR(36) NOT NULL, `permission` VARCHAR NOT NULL, `value` BOOL NOT NULL, `server` VARCHAR(36) NOT NULL, `world` VARCHAR(36) NOT NULL, `expiry` BIGINT NOT NULL, `contexts` VARCHAR NOT NULL, PRIMARY KEY (`id`)) DEFAULT CHARSET=utf8;";
     private static final String CREATETABLE_GROUPS = "CREATE TABLE IF NOT EXISTS `lp_groups` (`name` VARCHAR(36) NOT NULL, `perms` TEXT NULL, PRIMARY KEY (`name`)) DEFAULT CHARSET=utf8;";
+    private static final String CREATETABLE_GROUP_PERMISSIONS = "CREATE TABLE IF NOT EXISTS `lp_group_permissions` (`id` INT AUTO_INCREMENT NOT NULL, `name` VARCHAR(36) NOT NULL, `permission` VARCHAR NOT NULL, `value` BOOL NOT NULL, `server` VARCHAR(36) NOT NULL, `world` VARCHAR(36) NOT NULL, `expiry` BIGINT NOT NULL, `contexts` VARCHAR NOT NULL, PRIMARY KEY (`id`)) DEFAULT CHARSET=utf8;";
     private static final String CREATETABLE_TRACKS = "CREATE TABLE IF NOT EXISTS `lp_tracks` (`name` VARCHAR(36) NOT NULL, `groups` TEXT NULL, PRIMARY KEY (`name`)) DEFAULT CHARSET=utf8;";
     private static final String CREATETABLE_ACTION = "CREATE TABLE IF NOT EXISTS `lp_actions` (`id` INT AUTO_INCREMENT NOT NULL, `time` BIGINT NOT NULL, `actor_uuid` VARCHAR(36) NOT NULL, `actor_name` VARCHAR(16) NOT NULL, `type` CHAR(1) NOT NULL, `acted_uuid` VARCHAR(36) NOT NULL, `acted_name` VARCHAR(36) NOT NULL, `action` VARCHAR(256) NOT NULL, PRIMARY KEY (`id`)) DEFAULT CHARSET=utf8;";
+    private static final String CREATETABLE_SCHEMA = "CREATE TABLE IF NOT EXISTS `lp_schema` (`version` INT NOT NULL, `description` VARCHAR(200) NOT NULL, `applied` BIGINT NOT NULL, PRIMARY KEY (`version`)) DEFAULT CHARSET=utf8;";
+    private static final String CREATEINDEX_USER_PERMISSIONS_UUID = "CREATE INDEX IF NOT EXISTS `lp_user_permissions_uuid` ON `lp_user_permissions` (`uuid`);";
+    private static final String CREATEINDEX_USER_PERMISSIONS_PERMISSION = "CREATE INDEX IF NOT EXISTS `lp_user_permissions_permission` ON `lp_user_permissions` (`permission`);";
+    private static final String CREATEINDEX_GROUP_PERMISSIONS_NAME = "CREATE INDEX IF NOT EXISTS `lp_group_permissions_name` ON `lp_group_permissions` (`name`);";
+    private static final String CREATEINDEX_GROUP_PERMISSIONS_PERMISSION = "CREATE INDEX IF NOT EXISTS `lp_group_permissions_permission` ON `lp_group_permissions` (`permission`);";
+    private static final String CREATEINDEX_ACTIONS_TIME = "CREATE INDEX IF NOT EXISTS `lp_actions_time` ON `lp_actions` (`time`);";
+    private static final String CREATEINDEX_ACTIONS_ACTOR = "CREATE INDEX IF NOT EXISTS `lp_actions_actor` ON `lp_actions` (`actor_uuid`, `time`);";
+    private static final String CREATEINDEX_ACTIONS_ACTED = "CREATE INDEX IF NOT EXISTS `lp_actions_acted` ON `lp_actions` (`acted_uuid`, `time`);";
+    private static final String CREATEINDEX_ACTIONS_ACTED_NAME = "CREATE INDEX IF NOT EXISTS `lp_actions_acted_name` ON `lp_actions` (`acted_name`, `time`);";
+    private static final String WIDEN_USER_PERMISSIONS_PERMISSION = "ALTER TABLE `lp_user_permissions` ALTER COLUMN `permission` VARCHAR NOT NULL;";
+    private static final String WIDEN_USER_PERMISSIONS_CONTEXTS = "ALTER TABLE `lp_user_permissions` ALTER COLUMN `contexts` VARCHAR NOT NULL;";
+    private static final String WIDEN_GROUP_PERMISSIONS_PERMISSION = "ALTER TABLE `lp_group_permissions` ALTER COLUMN `permission` VARCHAR NOT NULL;";
+    private static final String WIDEN_GROUP_PERMISSIONS_CONTEXTS = "ALTER TABLE `lp_group_permissions` ALTER COLUMN `contexts` VARCHAR NOT NULL;";
+    private static final String CREATEINDEX_UUID_UUID = "CREATE INDEX IF NOT EXISTS `lp_uuid_uuid` ON `lp_uuid` (`uuid`);";
+
+    private static final List<SchemaMigration> MIGRATIONS = ImmutableList.of(
+            SchemaMigration.of(1, "Index the action log", CREATEINDEX_ACTIONS_TIME, CREATEINDEX_ACTIONS_ACTOR, CREATEINDEX_ACTIONS_ACTED, CREATEINDEX_ACTIONS_ACTED_NAME),
+            SchemaMigration.of(2, "Index the uuid cache by uuid", CREATEINDEX_UUID_UUID),
+            SchemaMigration.of(3, "Remove the length limit on permissions and contexts", WIDEN_USER_PERMISSIONS_PERMISSION, WIDEN_USER_PERMISSIONS_CONTEXTS,
+                    WIDEN_GROUP_PERMISSIONS_PERMISSION, WIDEN_GROUP_PERMISSIONS_CONTEXTS)
+    );
+
+    private static final String USER_UPSERT = "MERGE INTO lp_users (uuid, name, primary_group, perms) KEY(uuid) VALUES(?, ?, ?, ?)";
+    private static final String GROUP_UPSERT = "MERGE INTO lp_groups (name, perms) KEY(name) VALUES(?, ?)";
+    private static final String TRACK_UPSERT = "MERGE INTO lp_tracks (name, groups) KEY(name) VALUES(?, ?)";
+    private static final String UUIDCACHE_UPSERT = "MERGE INTO lp_uuid (name, uuid) KEY(name) VALUES(?, ?)";
 
     private final File file;
     private Connection connection = null;
@@ -46,7 +75,8 @@ public class H2Datastore extends SQLDatastore {
 
     @Override
     public void init() {
-        if (!setupTables(CREATETABLE_UUID, CREATETABLE_USERS, CREATETABLE_GROUPS, CREATETABLE_TRACKS, CREATETABLE_ACTION)) {
+        if (!setupTables(CREATETABLE_UUID, CREATETABLE_USERS, CREATETABLE_USER_PERMISSIONS, CREATETABLE_GROUPS, CREATETABLE_GROUP_PERMISSIONS, CREATETABLE_TRACKS, CREATETABLE_ACTION, CREATETABLE_SCHEMA,
+                CREATEINDEX_USER_PERMISSIONS_UUID, CREATEINDEX_USER_PERMISSIONS_PERMISSION, CREATEINDEX_GROUP_PERMISSIONS_NAME, CREATEINDEX_GROUP_PERMISSIONS_PERMISSION)) {
             plugin.getLog().severe("Error occurred whilst initialising the database.");
             shutdown();
         } else {
@@ -54,46 +84,6 @@ public class H2Datastore extends SQLDatastore {
         }
     }
 
-    @Override
-    boolean runQuery(QueryPS queryPS) {
-        boolean success = false;
-        try {
-            Connection connection = getConnection();
-            if (connection == null || connection.isClosed()) {
-                throw new IllegalStateException("SQL connection is null");
-            }
-
-            @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(queryPS.getQuery());
-            queryPS.onRun(preparedStatement);
-            preparedStatement.execute();
-
-            success = true;
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return success;
-    }
-
-    @Override
-    boolean runQuery(QueryRS queryRS) {
-        boolean success = false;
-        try {
-            Connection connection = getConnection();
-            if (connection == null || connection.isClosed()) {
-                throw new IllegalStateException("SQL connection is null");
-            }
-
-            @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(queryRS.getQuery());
-            queryRS.onRun(preparedStatement);
-
-            @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
-            success = queryRS.onResult(resultSet);
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return success;
-    }
-
     @Override
     public void shutdown() {
         try {
@@ -117,4 +107,29 @@ public class H2Datastore extends SQLDatastore {
 
         return connection;
     }
+
+    @Override
+    String getUserUpsert() {
+        return USER_UPSERT;
+    }
+
+    @Override
+    String getGroupUpsert() {
+        return GROUP_UPSERT;
+    }
+
+    @Override
+    String getTrackUpsert() {
+        return TRACK_UPSERT;
+    }
+
+    @Override
+    String getUUIDCacheUpsert() {
+        return UUIDCACHE_UPSERT;
+    }
+
+    @Override
+    List<SchemaMigration> getMigrations() {
+        return MIGRATIONS;
+    }
 }
@@ -27,6 +27,7 @@ import com.google.gson.stream.JsonWriter;
 import lombok.Cleanup;
 import me.lucko.luckperms.LuckPermsPlugin;
 import me.lucko.luckperms.groups.Group;
+import me.lucko.luckperms.groups.GroupManager;
 import me.lucko.luckperms.tracks.Track;
 import me.lucko.luckperms.users.User;
 import me.lucko.luckperms.utils.Node;
@@ -39,8 +40,8 @@ import static me.lucko.luckperms.core.PermissionHolder.exportToLegacy;
 
 @SuppressWarnings({"ResultOfMethodCallIgnored", "UnnecessaryLocalVariable"})
 public class JSONDatastore extends FlatfileDatastore {
-    public JSONDatastore(LuckPermsPlugin plugin, File pluginDir) {
-        super(plugin, "Flatfile - JSON", pluginDir);
+    public JSONDatastore(LuckPermsPlugin plugin, File pluginDir, boolean shardUsers) {
+        super(plugin, "Flatfile - JSON", pluginDir, ".json", shardUsers);
     }
 
     private boolean doWrite(File file, WriteOperation writeOperation) {
@@ -76,7 +77,7 @@ public class JSONDatastore extends FlatfileDatastore {
         User user = plugin.getUserManager().make(uuid, username);
         boolean success = false;
 
-        File userFile = new File(usersDir, uuid.toString() + ".json");
+        File userFile = findUserFile(uuid);
         if (userFile.exists()) {
             final String[] name = new String[1];
             success = doRead(userFile, reader -> {
@@ -121,6 +122,10 @@ public class JSONDatastore extends FlatfileDatastore {
                 }
             }
 
+            if (success) {
+                userManifest.put(userFile, user.getPrimaryGroup(), FlatfileManifest.isDefaultOnly(exportToLegacy(user.getNodes())));
+            }
+
         } else {
             success = true;
         }
@@ -131,16 +136,15 @@ public class JSONDatastore extends FlatfileDatastore {
 
     @Override
     public boolean saveUser(User user) {
-        File userFile = new File(usersDir, user.getUuid().toString() + ".json");
+        File userFile = getUserFile(user.getUuid());
         if (!plugin.getUserManager().shouldSave(user)) {
-            if (userFile.exists()) {
-                userFile.delete();
-            }
+            deleteUserFile(user.getUuid());
             return true;
         }
 
         if (!userFile.exists()) {
             try {
+                userFile.getParentFile().mkdirs();
                 userFile.createNewFile();
             } catch (IOException e) {
                 e.printStackTrace();
@@ -148,6 +152,7 @@ public class JSONDatastore extends FlatfileDatastore {
             }
         }
 
+        final Map<String, Boolean> nodes = exportToLegacy(user.getNodes());
         boolean success = doWrite(userFile, writer -> {
             writer.beginObject();
             writer.name("uuid").value(user.getUuid().toString());
@@ -155,31 +160,49 @@ public class JSONDatastore extends FlatfileDatastore {
             writer.name("primaryGroup").value(user.getPrimaryGroup());
             writer.name("perms");
             writer.beginObject();
-            for (Map.Entry<String, Boolean> e : exportToLegacy(user.getNodes()).entrySet()) {
+            for (Map.Entry<String, Boolean> e : nodes.entrySet()) {
                 writer.name(e.getKey()).value(e.getValue().booleanValue());
             }
             writer.endObject();
             writer.endObject();
             return true;
         });
+
+        if (success) {
+            removeOldUserFile(user.getUuid());
+            userManifest.put(userFile, user.getPrimaryGroup(), FlatfileManifest.isDefaultOnly(nodes));
+        }
         return success;
     }
 
     @Override
     public boolean cleanupUsers() {
-        File[] files = usersDir.listFiles((dir, name) -> name.endsWith(".json"));
-        if (files == null) return false;
+        List<File> files = getUserFiles();
 
+        // The names of the files which are kept
+        Set<String> names = new HashSet<>();
         for (File file : files) {
+            // Only files which have changed since they were last read or written need to be parsed
+            FlatfileManifest.Entry entry = userManifest.get(file);
+            if (entry != null) {
+                if (entry.isDefaultOnly()) {
+                    file.delete();
+                } else {
+                    names.add(file.getName());
+                }
+                continue;
+            }
+
             Map<String, Boolean> nodes = new HashMap<>();
-             doRead(file, reader -> {
+            final String[] primaryGroup = {null};
+            boolean success = doRead(file, reader -> {
                 reader.beginObject();
                 reader.nextName(); // uuid record
                 reader.nextString(); // uuid
                 reader.nextName(); // name record
                 reader.nextString(); // name
                 reader.nextName(); // primaryGroup record
-                reader.nextString(); // primaryGroup
+                primaryGroup[0] = reader.nextString(); // primaryGroup
                 reader.nextName(); //perms
                 reader.beginObject();
                 while (reader.hasNext()) {
@@ -193,26 +216,25 @@ public class JSONDatastore extends FlatfileDatastore {
                 return true;
             });
 
-            boolean shouldDelete = false;
-            if (nodes.size() == 1) {
-                for (Map.Entry<String, Boolean> e : nodes.entrySet()) {
-                    // There's only one
-                    shouldDelete = e.getKey().equalsIgnoreCase("group.default") && e.getValue();
-                }
+            if (success && FlatfileManifest.isDefaultOnly(nodes)) {
+                file.delete();
+                continue;
             }
 
-            if (shouldDelete) {
-                file.delete();
+            names.add(file.getName());
+            if (success) {
+                userManifest.put(file, primaryGroup[0], false);
             }
         }
+
+        userManifest.retain(names);
         return true;
     }
 
     @Override
     public Set<UUID> getUniqueUsers() {
-        String[] fileNames = usersDir.list((dir, name) -> name.endsWith(".json"));
-        if (fileNames == null) return null;
-        return Arrays.stream(fileNames)
+        return getUserFiles().stream()
+                .map(File::getName)
                 .map(s -> s.substring(0, s.length() - 5))
                 .map(UUID::fromString)
                 .collect(Collectors.toSet());
@@ -264,7 +286,10 @@ public class JSONDatastore extends FlatfileDatastore {
             return true;
         });
 
-        if (success) plugin.getGroupManager().updateOrSet(group);
+        if (success) {
+            groupManifest.put(groupFile, null, false);
+            plugin.getGroupManager().updateOrSet(group);
+        }
         return success;
     }
 
@@ -294,7 +319,10 @@ public class JSONDatastore extends FlatfileDatastore {
             return true;
         });
 
-        if (success) plugin.getGroupManager().updateOrSet(group);
+        if (success) {
+            groupManifest.put(groupFile, null, false);
+            plugin.getGroupManager().updateOrSet(group);
+        }
         return success;
     }
 
@@ -306,8 +334,20 @@ public class JSONDatastore extends FlatfileDatastore {
                 .map(s -> s.substring(0, s.length() - 5))
                 .collect(Collectors.toList());
 
-        plugin.getGroupManager().unloadAll();
-        groups.forEach(this::loadGroup);
+        GroupManager gm = plugin.getGroupManager();
+        for (Group group : gm.getAll().values()) {
+            if (!groups.contains(group.getName())) {
+                gm.unload(group);
+            }
+        }
+
+        // Loaded groups are only read again if their file has changed since it was last read or written
+        for (String group : groups) {
+            if (!gm.isLoaded(group) || groupManifest.get(new File(groupsDir, group + ".json")) == null) {
+                loadGroup(group);
+            }
+        }
+        groupManifest.retain(Arrays.stream(fileNames).collect(Collectors.toSet()));
         return true;
     }
 
@@ -336,6 +376,9 @@ public class JSONDatastore extends FlatfileDatastore {
             return true;
         });
 
+        if (success) {
+            groupManifest.put(groupFile, null, false);
+        }
         return success;
     }
 
@@ -345,6 +388,7 @@ public class JSONDatastore extends FlatfileDatastore {
         if (groupFile.exists()) {
             groupFile.delete();
         }
+        groupManifest.remove(groupFile);
         return true;
     }
 
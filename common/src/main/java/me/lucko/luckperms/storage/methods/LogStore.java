@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage.methods;
+
+import lombok.AllArgsConstructor;
+import lombok.Cleanup;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only key value store, kept as a series of segment files.
+ *
+ * <p> Every write appends a record holding the namespace, key and value, prefixed by its length and a checksum. The
+ * location of the latest record for each key is held in memory, so a read is a single seek. Deletes append a
+ * tombstone.
+ *
+ * <p> A new segment is started once the current one reaches {@link #SEGMENT_SIZE} bytes. Older segments which are
+ * mostly out of date are compacted by copying their live records to the current segment, and then deleting them
+ * once the copies have been synced to disk.
+ *
+ * <p> When loading, a segment is truncated at the first record which is incomplete or doesn't match its checksum.
+ */
+class LogStore {
+    private static final String EXTENSION = ".seg";
+    private static final long SEGMENT_SIZE = 8L * 1024L * 1024L;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    // length, checksum
+    private static final int HEADER_SIZE = 4 + 4;
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private final File dir;
+    private final SortedMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<Byte, Map<String, Location>> index = new HashMap<>();
+    private Segment current = null;
+    private boolean compacting = false;
+
+    LogStore(File dir) {
+        this.dir = dir;
+    }
+
+    synchronized void load() throws IOException {
+        dir.mkdirs();
+
+        File[] files = dir.listFiles((d, name) -> name.endsWith(EXTENSION));
+        List<Integer> ids = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    ids.add(Integer.parseInt(file.getName().substring(0, file.getName().length() - EXTENSION.length())));
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        Collections.sort(ids);
+
+        for (int id : ids) {
+            Segment segment = new Segment(dir, id);
+            segments.put(id, segment);
+            load(segment);
+        }
+
+        if (segments.isEmpty()) {
+            Segment segment = new Segment(dir, 1);
+            segments.put(1, segment);
+        }
+        current = segments.get(segments.lastKey());
+
+        compact();
+    }
+
+    synchronized void close() {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        segments.clear();
+        index.clear();
+    }
+
+    /**
+     * @return the value stored under a key, or null if there isn't one
+     */
+    synchronized byte[] get(byte namespace, String key) throws IOException {
+        Location location = getIndex(namespace).get(key);
+        return location == null ? null : read(location).value;
+    }
+
+    synchronized Set<String> keys(byte namespace) {
+        return new HashSet<>(getIndex(namespace).keySet());
+    }
+
+    /**
+     * Reads every value in a namespace
+     * @param namespace the namespace
+     * @param consumer the consumer, called with each key and value
+     */
+    synchronized void forEach(byte namespace, BiConsumer<String, byte[]> consumer) throws IOException {
+        for (Map.Entry<String, Location> e : new ArrayList<>(getIndex(namespace).entrySet())) {
+            consumer.accept(e.getKey(), read(e.getValue()).value);
+        }
+    }
+
+    synchronized void put(byte namespace, String key, byte[] value) throws IOException {
+        Location location = append(encode(PUT, namespace, key, value));
+        Location previous = getIndex(namespace).put(key, location);
+        if (previous != null) {
+            segments.get(previous.segment).live -= previous.length;
+        }
+        segments.get(location.segment).live += location.length;
+        rollIfFull();
+    }
+
+    /**
+     * @return true if there was a value to delete
+     */
+    synchronized boolean delete(byte namespace, String key) throws IOException {
+        Location previous = getIndex(namespace).remove(key);
+        if (previous == null) {
+            return false;
+        }
+
+        segments.get(previous.segment).live -= previous.length;
+        append(encode(DELETE, namespace, key, new byte[0]));
+        rollIfFull();
+        return true;
+    }
+
+    private Map<String, Location> getIndex(byte namespace) {
+        return index.computeIfAbsent(namespace, k -> new HashMap<>());
+    }
+
+    private Location append(byte[] record) throws IOException {
+        Location location = new Location(current.id, current.size, record.length);
+        current.file.seek(current.size);
+        current.file.write(record);
+        current.size += record.length;
+        return location;
+    }
+
+    private void rollIfFull() throws IOException {
+        if (current.size < SEGMENT_SIZE) {
+            return;
+        }
+
+        Segment segment = new Segment(dir, current.id + 1);
+        segments.put(segment.id, segment);
+        current = segment;
+
+        if (!compacting) {
+            compact();
+        }
+    }
+
+    /**
+     * Compacts every old segment where less than half of the data is still live
+     */
+    private void compact() throws IOException {
+        compacting = true;
+        try {
+            for (Segment segment : new ArrayList<>(segments.values())) {
+                if (segment != current && (segment.size == 0 || segment.live * 2 < segment.size)) {
+                    compact(segment);
+                }
+            }
+        } finally {
+            compacting = false;
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        // A tombstone has to be kept whilst an older segment could still hold a value for its key
+        boolean keepTombstones = segments.firstKey() < segment.id;
+        int firstCopy = current.id;
+
+        List<Record> records = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        long end = scan(segment, (offset, record) -> {
+            records.add(record);
+            offsets.add(offset);
+        });
+        if (end != segment.size) {
+            throw new IOException("Invalid record at " + end + " in " + segment.path);
+        }
+
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            Map<String, Location> keys = getIndex(record.namespace);
+            Location location = keys.get(record.key);
+
+            if (record.op == PUT && location != null && location.segment == segment.id && location.offset == offsets.get(i)) {
+                Location moved = append(record.bytes);
+                keys.put(record.key, moved);
+                segments.get(moved.segment).live += moved.length;
+                rollIfFull();
+            } else if (record.op == DELETE && location == null && keepTombstones) {
+                append(record.bytes);
+                rollIfFull();
+            }
+        }
+
+        // The copies have to be on disk before the only other copy is deleted
+        for (Segment copy : segments.tailMap(firstCopy).values()) {
+            copy.file.getFD().sync();
+        }
+        syncDir();
+
+        segments.remove(segment.id);
+        segment.file.close();
+        if (!segment.path.delete()) {
+            throw new IOException("Unable to delete " + segment.path);
+        }
+    }
+
+    /**
+     * Makes sure segment files which have been created are on disk. Not every platform supports this.
+     */
+    private void syncDir() {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {}
+    }
+
+    private void load(Segment segment) throws IOException {
+        long end = scan(segment, (offset, record) -> {
+            Map<String, Location> keys = getIndex(record.namespace);
+            Location previous = record.op == PUT ?
+                    keys.put(record.key, new Location(segment.id, offset, record.bytes.length)) :
+                    keys.remove(record.key);
+
+            if (previous != null) {
+                segments.get(previous.segment).live -= previous.length;
+            }
+            if (record.op == PUT) {
+                segment.live += record.bytes.length;
+            }
+        });
+
+        if (end != segment.file.length()) {
+            segment.file.setLength(end);
+        }
+        segment.size = end;
+    }
+
+    /**
+     * Reads through the records in a segment, in order
+     * @return the offset after the last valid record
+     */
+    private static long scan(Segment segment, RecordVisitor visitor) throws IOException {
+        long length = segment.file.length();
+        long offset = 0;
+
+        @Cleanup DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.path), 64 * 1024));
+        while (offset + HEADER_SIZE <= length) {
+            int size = in.readInt();
+            if (size < 0 || size > MAX_RECORD_SIZE || offset + HEADER_SIZE + size > length) {
+                break;
+            }
+
+            byte[] bytes = new byte[HEADER_SIZE + size];
+            writeInt(bytes, 0, size);
+            in.readFully(bytes, 4, bytes.length - 4);
+
+            Record record = decode(bytes);
+            if (record == null) {
+                break;
+            }
+
+            visitor.visit(offset, record);
+            offset += bytes.length;
+        }
+        return offset;
+    }
+
+    private Record read(Location location) throws IOException {
+        Segment segment = segments.get(location.segment);
+        byte[] bytes = new byte[location.length];
+        segment.file.seek(location.offset);
+        segment.file.readFully(bytes);
+
+        Record record = decode(bytes);
+        if (record == null) {
+            throw new IOException("Invalid record at " + location.offset + " in " + segment.path);
+        }
+        return record;
+    }
+
+    /**
+     * @return the record, or null if it doesn't match its checksum
+     */
+    private static Record decode(byte[] bytes) throws IOException {
+        int length = readInt(bytes, 0);
+        if (length != bytes.length - HEADER_SIZE || checksum(bytes, HEADER_SIZE, length) != readInt(bytes, 4)) {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, HEADER_SIZE, length));
+        byte op = in.readByte();
+        byte namespace = in.readByte();
+        String key = in.readUTF();
+        byte[] value = new byte[in.available()];
+        in.readFully(value);
+        return new Record(bytes, op, namespace, key, value);
+    }
+
+    private static byte[] encode(byte op, byte namespace, String key, byte[] value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + 64 + value.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(op);
+        out.writeByte(namespace);
+        out.writeUTF(key);
+        out.write(value);
+
+        byte[] record = bytes.toByteArray();
+        int length = record.length - HEADER_SIZE;
+        writeInt(record, 0, length);
+        writeInt(record, 4, checksum(record, HEADER_SIZE, length));
+        return record;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private interface RecordVisitor {
+        void visit(long offset, Record record) throws IOException;
+    }
+
+    @AllArgsConstructor
+    private static final class Location {
+        private final int segment;
+        private final long offset;
+        private final int length;
+    }
+
+    @AllArgsConstructor
+    private static final class Record {
+        private final byte[] bytes;
+        private final byte op;
+        private final byte namespace;
+        private final String key;
+        private final byte[] value;
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final File path;
+        private final RandomAccessFile file;
+        private long size = 0;
+
+        // The number of bytes taken up by records which haven't been replaced or deleted
+        private long live = 0;
+
+        private Segment(File dir, int id) throws IOException {
+            this.id = id;
+            this.path = new File(dir, String.format("%08d", id) + EXTENSION);
+            this.file = new RandomAccessFile(path, "rw");
+        }
+    }
+}
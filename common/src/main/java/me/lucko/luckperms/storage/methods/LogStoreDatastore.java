@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage.methods;
+
+import me.lucko.luckperms.LuckPermsPlugin;
+import me.lucko.luckperms.api.LogEntry;
+import me.lucko.luckperms.api.Node;
+import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.data.LogQuery;
+import me.lucko.luckperms.groups.Group;
+import me.lucko.luckperms.groups.GroupManager;
+import me.lucko.luckperms.storage.Datastore;
+import me.lucko.luckperms.tracks.Track;
+import me.lucko.luckperms.tracks.TrackManager;
+import me.lucko.luckperms.users.User;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static me.lucko.luckperms.core.PermissionHolder.exportToLegacy;
+
+/**
+ * Stores users, groups, tracks and uuid mappings in a {@link LogStore}, and the action log in a {@link FlatfileLog}.
+ * Needs no external dependencies, and is intended for single server installs with a lot of users.
+ */
+public class LogStoreDatastore extends Datastore {
+    private static final byte USERS = 1;
+    private static final byte GROUPS = 2;
+    private static final byte TRACKS = 3;
+    private static final byte UUIDS = 4;
+
+    private final LogStore store;
+    private final FlatfileLog log;
+    private final boolean binaryNodes;
+
+    // username -> uuid, and the reverse. Both are loaded in full on startup.
+    private final Map<String, UUID> uuidCache = new ConcurrentHashMap<>();
+    private final Map<UUID, String> nameCache = new ConcurrentHashMap<>();
+
+    public LogStoreDatastore(LuckPermsPlugin plugin, File dir, boolean binaryNodes) {
+        super(plugin, "LogStore");
+        this.store = new LogStore(new File(dir, "data"));
+        this.log = new FlatfileLog(new File(dir, "actions"));
+        this.binaryNodes = binaryNodes;
+    }
+
+    @Override
+    public void init() {
+        try {
+            store.load();
+            store.forEach(UUIDS, (name, value) -> {
+                UUID uuid = readUuid(value);
+                uuidCache.put(name, uuid);
+                nameCache.put(uuid, name);
+            });
+            log.load();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        setAcceptingLogins(true);
+    }
+
+    @Override
+    public void shutdown() {
+        store.close();
+        log.close();
+    }
+
+    @Override
+    public boolean logAction(LogEntry entry) {
+        return log.append(entry);
+    }
+
+    @Override
+    public Log getLog() {
+        final Log.Builder builder = Log.builder();
+        return streamLog(LogQuery.builder().build(), builder::add) ? builder.build() : null;
+    }
+
+    @Override
+    public List<LogEntry> queryLog(LogQuery query) {
+        return log.query(query);
+    }
+
+    @Override
+    public int countLog(LogQuery query) {
+        return log.count(query);
+    }
+
+    @Override
+    public boolean streamLog(LogQuery query, Consumer<LogEntry> consumer) {
+        return log.stream(query, consumer);
+    }
+
+    @Override
+    public int purgeLog(LogQuery query) {
+        return log.purge(query);
+    }
+
+    @Override
+    public boolean loadUser(UUID uuid, String username) {
+        User user = plugin.getUserManager().make(uuid, username);
+        try {
+            byte[] value = store.get(USERS, uuid.toString());
+            if (value != null) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+                String name = in.readUTF();
+                user.setPrimaryGroup(in.readUTF());
+                user.setNodes(readNodes(in));
+
+                if (user.getName().equalsIgnoreCase("null")) {
+                    user.setName(name);
+                } else {
+                    if (!name.equals(user.getName())) {
+                        store.put(USERS, uuid.toString(), writeUser(user));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        plugin.getUserManager().updateOrSet(user);
+        return true;
+    }
+
+    @Override
+    public boolean saveUser(User user) {
+        try {
+            if (!plugin.getUserManager().shouldSave(user)) {
+                store.delete(USERS, user.getUuid().toString());
+            } else {
+                store.put(USERS, user.getUuid().toString(), writeUser(user));
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean cleanupUsers() {
+        try {
+            // Default users aren't saved, so this only finds users which were stored before they became default
+            List<String> remove = new ArrayList<>();
+            store.forEach(USERS, (uuid, value) -> {
+                try {
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+                    in.readUTF(); // name
+                    in.readUTF(); // primary group
+                    if (FlatfileManifest.isDefaultOnly(exportToLegacy(readNodes(in)))) {
+                        remove.add(uuid);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+
+            for (String uuid : remove) {
+                store.delete(USERS, uuid);
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public Set<UUID> getUniqueUsers() {
+        return store.keys(USERS).stream().map(UUID::fromString).collect(Collectors.toSet());
+    }
+
+    @Override
+    public boolean createAndLoadGroup(String name) {
+        Group group = plugin.getGroupManager().make(name);
+        try {
+            byte[] value = store.get(GROUPS, name);
+            if (value == null) {
+                store.put(GROUPS, name, writeNodes(group.getNodes()));
+            } else {
+                group.setNodes(readNodes(new DataInputStream(new ByteArrayInputStream(value))));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        plugin.getGroupManager().updateOrSet(group);
+        return true;
+    }
+
+    @Override
+    public boolean loadGroup(String name) {
+        Group group = plugin.getGroupManager().make(name);
+        try {
+            byte[] value = store.get(GROUPS, name);
+            if (value == null) {
+                return false;
+            }
+            group.setNodes(readNodes(new DataInputStream(new ByteArrayInputStream(value))));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        plugin.getGroupManager().updateOrSet(group);
+        return true;
+    }
+
+    @Override
+    public boolean loadAllGroups() {
+        List<Group> groups = new ArrayList<>();
+        try {
+            store.forEach(GROUPS, (name, value) -> {
+                Group group = plugin.getGroupManager().make(name);
+                try {
+                    group.setNodes(readNodes(new DataInputStream(new ByteArrayInputStream(value))));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                groups.add(group);
+            });
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        GroupManager gm = plugin.getGroupManager();
+        gm.unloadAll();
+        groups.forEach(gm::set);
+        return true;
+    }
+
+    @Override
+    public boolean saveGroup(Group group) {
+        try {
+            store.put(GROUPS, group.getName(), writeNodes(group.getNodes()));
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean deleteGroup(Group group) {
+        try {
+            store.delete(GROUPS, group.getName());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        plugin.getGroupManager().unload(group);
+        return true;
+    }
+
+    @Override
+    public boolean createAndLoadTrack(String name) {
+        Track track = plugin.getTrackManager().make(name);
+        try {
+            byte[] value = store.get(TRACKS, name);
+            if (value == null) {
+                store.put(TRACKS, name, writeTrack(track));
+            } else {
+                track.setGroups(readTrack(value));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        plugin.getTrackManager().updateOrSet(track);
+        return true;
+    }
+
+    @Override
+    public boolean loadTrack(String name) {
+        Track track = plugin.getTrackManager().make(name);
+        try {
+            byte[] value = store.get(TRACKS, name);
+            if (value == null) {
+                return false;
+            }
+            track.setGroups(readTrack(value));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        plugin.getTrackManager().updateOrSet(track);
+        return true;
+    }
+
+    @Override
+    public boolean loadAllTracks() {
+        List<Track> tracks = new ArrayList<>();
+        try {
+            store.forEach(TRACKS, (name, value) -> {
+                Track track = plugin.getTrackManager().make(name);
+                try {
+                    track.setGroups(readTrack(value));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                tracks.add(track);
+            });
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        TrackManager tm = plugin.getTrackManager();
+        tm.unloadAll();
+        tracks.forEach(tm::set);
+        return true;
+    }
+
+    @Override
+    public boolean saveTrack(Track track) {
+        try {
+            store.put(TRACKS, track.getName(), writeTrack(track));
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean deleteTrack(Track track) {
+        try {
+            store.delete(TRACKS, track.getName());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        plugin.getTrackManager().unload(track);
+        return true;
+    }
+
+    @Override
+    public boolean saveUUIDData(String username, UUID uuid) {
+        username = username.toLowerCase();
+        if (uuid.equals(uuidCache.get(username))) {
+            return true;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+            store.put(UUIDS, username, bytes.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        UUID previous = uuidCache.put(username, uuid);
+        if (previous != null) {
+            nameCache.remove(previous, username);
+        }
+        nameCache.put(uuid, username);
+        return true;
+    }
+
+    @Override
+    public UUID getUUID(String username) {
+        return uuidCache.get(username.toLowerCase());
+    }
+
+    @Override
+    public String getName(UUID uuid) {
+        return nameCache.get(uuid);
+    }
+
+    private static UUID readUuid(byte[] value) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+            return new UUID(in.readLong(), in.readLong());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] writeUser(User user) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(user.getName());
+        out.writeUTF(user.getPrimaryGroup());
+        writeNodes(out, user.getNodes());
+        return bytes.toByteArray();
+    }
+
+    private byte[] writeNodes(Set<Node> nodes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        writeNodes(new DataOutputStream(bytes), nodes);
+        return bytes.toByteArray();
+    }
+
+    private void writeNodes(DataOutputStream out, Set<Node> nodes) throws IOException {
+        if (binaryNodes) {
+            NodeCodec.encode(out, nodes);
+            return;
+        }
+
+        Map<String, Boolean> legacy = exportToLegacy(nodes);
+        out.writeInt(legacy.size());
+        for (Map.Entry<String, Boolean> e : legacy.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeBoolean(e.getValue());
+        }
+    }
+
+    static Set<Node> readNodes(DataInputStream in) throws IOException {
+        // Values in either format can be read, regardless of which one is being written.
+        in.mark(1);
+        int first = in.read();
+        in.reset();
+        if (first != -1 && NodeCodec.isEncoded(first)) {
+            return NodeCodec.decode(in);
+        }
+
+        Set<Node> nodes = new HashSet<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            nodes.add(me.lucko.luckperms.utils.Node.fromSerialisedNode(in.readUTF(), in.readBoolean()));
+        }
+        return nodes;
+    }
+
+    private static byte[] writeTrack(Track track) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(track.getGroups().size());
+        for (String group : track.getGroups()) {
+            out.writeUTF(group);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<String> readTrack(byte[] value) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+        List<String> groups = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            groups.add(in.readUTF());
+        }
+        return groups;
+    }
+}
@@ -25,13 +25,15 @@ package me.lucko.luckperms.storage.methods;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoCredential;
 import com.mongodb.ServerAddress;
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.InsertOneOptions;
+import com.mongodb.client.model.*;
 import me.lucko.luckperms.LuckPermsPlugin;
 import me.lucko.luckperms.api.LogEntry;
 import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.data.LogQuery;
 import me.lucko.luckperms.groups.Group;
 import me.lucko.luckperms.groups.GroupManager;
 import me.lucko.luckperms.storage.Datastore;
@@ -40,9 +42,12 @@ import me.lucko.luckperms.tracks.Track;
 import me.lucko.luckperms.tracks.TrackManager;
 import me.lucko.luckperms.users.User;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static me.lucko.luckperms.core.PermissionHolder.exportToLegacy;
@@ -50,6 +55,9 @@ import static me.lucko.luckperms.core.PermissionHolder.exportToLegacy;
 @SuppressWarnings("unchecked")
 public class MongoDBDatastore extends Datastore {
 
+    // The number of log entries read or deleted at a time when streaming or purging the log
+    private static final int ACTION_BATCH_SIZE = 1000;
+
     private final DatastoreConfiguration configuration;
     private MongoClient mongoClient;
     private MongoDatabase database;
@@ -74,6 +82,16 @@ public class MongoDBDatastore extends Datastore {
 
         mongoClient = new MongoClient(address, Collections.singletonList(credential));
         database = mongoClient.getDatabase(configuration.getDatabase());
+
+        // Username lookups, log retention (by timestamp) and log queries by actor or target
+        call(() -> {
+            database.getCollection("uuid").createIndex(Indexes.ascending("name"));
+            MongoCollection<Document> c = database.getCollection("action");
+            c.createIndex(Indexes.ascending("timestamp"));
+            c.createIndex(Indexes.ascending("actor"));
+            c.createIndex(Indexes.ascending("acted"));
+            return true;
+        }, false);
         setAcceptingLogins(true);
     }
 
@@ -88,20 +106,20 @@ public class MongoDBDatastore extends Datastore {
     public boolean logAction(LogEntry entry) {
         return call(() -> {
             MongoCollection<Document> c = database.getCollection("action");
+            c.insertOne(fromLogEntry(entry), new InsertOneOptions());
+            return true;
+        }, false);
+    }
 
-            Document doc = new Document()
-                    .append("timestamp", entry.getTimestamp())
-                    .append("actor", entry.getActor())
-                    .append("actorName", entry.getActorName())
-                    .append("type", Character.toString(entry.getType()))
-                    .append("actedName", entry.getActedName())
-                    .append("action", entry.getAction());
-
-            if (entry.getActed() != null) {
-                doc.append("acted", entry.getActed());
-            }
+    @Override
+    public boolean logActions(Collection<LogEntry> entries) {
+        if (entries.isEmpty()) {
+            return true;
+        }
 
-            c.insertOne(doc, new InsertOneOptions());
+        return call(() -> {
+            MongoCollection<Document> c = database.getCollection("action");
+            c.insertMany(entries.stream().map(MongoDBDatastore::fromLogEntry).collect(Collectors.toList()));
             return true;
         }, false);
     }
@@ -114,30 +132,154 @@ public class MongoDBDatastore extends Datastore {
 
             try (MongoCursor<Document> cursor = c.find().iterator()) {
                 while (cursor.hasNext()) {
-                    Document d = cursor.next();
+                    log.add(readLogEntry(cursor.next()));
+                }
+            }
 
-                    UUID actedUuid = null;
-                    if (d.containsKey("acted")) {
-                        actedUuid = d.get("acted", UUID.class);
-                    }
+            return log.build();
+        }, null);
+    }
+
+    @Override
+    public List<LogEntry> queryLog(LogQuery query) {
+        return call(() -> {
+            MongoCollection<Document> c = database.getCollection("action");
 
-                    LogEntry e = new LogEntry(
-                            d.getLong("timestamp"),
-                            d.get("actor", UUID.class),
-                            d.getString("actorName"),
-                            d.getString("type").toCharArray()[0],
-                            actedUuid,
-                            d.getString("actedName"),
-                            d.getString("action")
-                    );
-                    log.add(e);
+            FindIterable<Document> find = c.find(getLogFilter(query))
+                    .sort(query.isDescending() ? Sorts.descending("timestamp", "_id") : Sorts.ascending("timestamp", "_id"))
+                    .skip(query.getOffset());
+
+            if (query.getLimit() > 0) {
+                find.limit(query.getLimit());
+            }
+
+            final List<LogEntry> entries = new ArrayList<>();
+            try (MongoCursor<Document> cursor = find.iterator()) {
+                while (cursor.hasNext()) {
+                    entries.add(readLogEntry(cursor.next()));
                 }
             }
 
-            return log.build();
+            return entries;
         }, null);
     }
 
+    @Override
+    public int countLog(LogQuery query) {
+        return call(() -> (int) database.getCollection("action").count(getLogFilter(query)), -1);
+    }
+
+    @Override
+    public boolean streamLog(LogQuery query, Consumer<LogEntry> consumer) {
+        return call(() -> {
+            MongoCollection<Document> c = database.getCollection("action");
+
+            FindIterable<Document> find = c.find(getLogFilter(query))
+                    .sort(query.isDescending() ? Sorts.descending("timestamp", "_id") : Sorts.ascending("timestamp", "_id"))
+                    .batchSize(ACTION_BATCH_SIZE);
+
+            try (MongoCursor<Document> cursor = find.iterator()) {
+                while (cursor.hasNext()) {
+                    consumer.accept(readLogEntry(cursor.next()));
+                }
+            }
+
+            return true;
+        }, false);
+    }
+
+    @Override
+    public int purgeLog(LogQuery query) {
+        return call(() -> {
+            MongoCollection<Document> c = database.getCollection("action");
+            Bson filter = getLogFilter(query);
+
+            int total = 0;
+            while (true) {
+                List<Object> ids = new ArrayList<>();
+                try (MongoCursor<Document> cursor = c.find(filter).projection(Projections.include("_id")).limit(ACTION_BATCH_SIZE).iterator()) {
+                    while (cursor.hasNext()) {
+                        ids.add(cursor.next().get("_id"));
+                    }
+                }
+
+                if (ids.isEmpty()) {
+                    return total;
+                }
+
+                total += (int) c.deleteMany(Filters.in("_id", ids)).getDeletedCount();
+                if (ids.size() < ACTION_BATCH_SIZE) {
+                    return total;
+                }
+            }
+        }, -1);
+    }
+
+    private static Bson getLogFilter(LogQuery query) {
+        List<Bson> filters = new ArrayList<>();
+
+        if (query.getActor() != null) {
+            filters.add(Filters.eq("actor", query.getActor()));
+        }
+        if (query.getActed() != null) {
+            filters.add(Filters.eq("acted", query.getActed()));
+        }
+        if (query.getActedName() != null) {
+            filters.add(Filters.eq("actedName", query.getActedName()));
+        }
+        if (query.getType() != null) {
+            filters.add(Filters.eq("type", query.getType().toString()));
+        }
+        if (query.getAfter() != Long.MIN_VALUE) {
+            filters.add(Filters.gte("timestamp", query.getAfter()));
+        }
+        if (query.getBefore() != Long.MAX_VALUE) {
+            filters.add(Filters.lt("timestamp", query.getBefore()));
+        }
+        for (String term : query.getSearchTerms()) {
+            Pattern pattern = Pattern.compile(Pattern.quote(term), Pattern.CASE_INSENSITIVE);
+            filters.add(Filters.or(
+                    Filters.regex("actorName", pattern),
+                    Filters.regex("actedName", pattern),
+                    Filters.regex("action", pattern)
+            ));
+        }
+
+        return filters.isEmpty() ? new Document() : Filters.and(filters);
+    }
+
+    private static Document fromLogEntry(LogEntry entry) {
+        Document doc = new Document()
+                .append("timestamp", entry.getTimestamp())
+                .append("actor", entry.getActor())
+                .append("actorName", entry.getActorName())
+                .append("type", Character.toString(entry.getType()))
+                .append("actedName", entry.getActedName())
+                .append("action", entry.getAction());
+
+        if (entry.getActed() != null) {
+            doc.append("acted", entry.getActed());
+        }
+        return doc;
+    }
+
+    private static LogEntry readLogEntry(Document d) {
+        UUID actedUuid = null;
+        if (d.containsKey("acted")) {
+            actedUuid = d.get("acted", UUID.class);
+        }
+
+        return new LogEntry(
+                d.getLong("timestamp"),
+                d.get("actor", UUID.class),
+                d.getString("actorName"),
+                d.getString("type").toCharArray()[0],
+                actedUuid,
+                d.getString("actedName"),
+                d.getString("action")
+        );
+    }
+
     @Override
     public boolean loadUser(UUID uuid, String username) {
         User user = plugin.getUserManager().make(uuid, username);
@@ -154,7 +296,7 @@ public class MongoDBDatastore extends Datastore {
                         user.setName(d.getString("name"));
                     } else {
                         if (!d.getString("name").equals(user.getName())) {
-                            c.replaceOne(new Document("_id", user.getUuid()), fromUser(user));
+                            c.updateOne(new Document("_id", user.getUuid()), Updates.set("name", user.getName()));
                         }
                     }
                 }
@@ -176,18 +318,32 @@ public class MongoDBDatastore extends Datastore {
             return success;
         }
 
-        boolean success = call(() -> {
+        return call(() -> {
             MongoCollection<Document> c = database.getCollection("users");
-            try (MongoCursor<Document> cursor = c.find(new Document("_id", user.getUuid())).iterator()) {
-                if (!cursor.hasNext()) {
-                    c.insertOne(fromUser(user));
-                } else {
-                    c.replaceOne(new Document("_id", user.getUuid()), fromUser(user));
-                }
-            }
+            return c.replaceOne(new Document("_id", user.getUuid()), fromUser(user), new UpdateOptions().upsert(true)).wasAcknowledged();
+        }, false);
+    }
+
+    @Override
+    public boolean saveUsers(Collection<User> users) {
+        if (users.isEmpty()) {
             return true;
+        }
+
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        for (User user : users) {
+            Document filter = new Document("_id", user.getUuid());
+            if (!plugin.getUserManager().shouldSave(user)) {
+                writes.add(new DeleteOneModel<>(filter));
+            } else {
+                writes.add(new ReplaceOneModel<>(filter, fromUser(user), new UpdateOptions().upsert(true)));
+            }
+        }
+
+        return call(() -> {
+            MongoCollection<Document> c = database.getCollection("users");
+            return c.bulkWrite(writes, new BulkWriteOptions().ordered(false)).wasAcknowledged();
         }, false);
-        return success;
     }
 
     @Override
@@ -201,10 +357,9 @@ public class MongoDBDatastore extends Datastore {
         boolean success = call(() -> {
             MongoCollection<Document> c = database.getCollection("users");
 
-            try (MongoCursor<Document> cursor = c.find().iterator()) {
+            try (MongoCursor<Document> cursor = c.find().projection(Projections.include("_id")).iterator()) {
                 while (cursor.hasNext()) {
-                    Document d = cursor.next();
-                    uuids.add(UUID.fromString(d.getString("_id")));
+                    uuids.add(cursor.next().get("_id", UUID.class));
                 }
             }
 
@@ -220,14 +375,13 @@ public class MongoDBDatastore extends Datastore {
         boolean success =  call(() -> {
             MongoCollection<Document> c = database.getCollection("groups");
 
-            try (MongoCursor<Document> cursor = c.find(new Document("_id", group.getName())).iterator()) {
-                if (!cursor.hasNext()) {
-                    c.insertOne(fromGroup(group));
-                } else {
-                    Document d = cursor.next();
-                    group.setNodes(revert((Map<String, Boolean>) d.get("perms")));
-                }
-            }
+            // Inserts the group if it doesn't exist, and returns the stored copy either way
+            Document d = c.findOneAndUpdate(
+                    new Document("_id", group.getName()),
+                    Updates.setOnInsert("perms", fromGroup(group).get("perms")),
+                    new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER)
+            );
+            group.setNodes(revert((Map<String, Boolean>) d.get("perms")));
             return true;
         }, false);
 
@@ -285,7 +439,23 @@ public class MongoDBDatastore extends Datastore {
     public boolean saveGroup(Group group) {
         return call(() -> {
             MongoCollection<Document> c = database.getCollection("groups");
-            return c.replaceOne(new Document("_id", group.getName()), fromGroup(group)).wasAcknowledged();
+            return c.replaceOne(new Document("_id", group.getName()), fromGroup(group), new UpdateOptions().upsert(true)).wasAcknowledged();
+        }, false);
+    }
+
+    @Override
+    public boolean saveGroups(Collection<Group> groups) {
+        if (groups.isEmpty()) {
+            return true;
+        }
+
+        List<WriteModel<Document>> writes = groups.stream()
+                .map(g -> new ReplaceOneModel<>(new Document("_id", g.getName()), fromGroup(g), new UpdateOptions().upsert(true)))
+                .collect(Collectors.toList());
+
+        return call(() -> {
+            MongoCollection<Document> c = database.getCollection("groups");
+            return c.bulkWrite(writes, new BulkWriteOptions().ordered(false)).wasAcknowledged();
         }, false);
     }
 
@@ -306,14 +476,12 @@ public class MongoDBDatastore extends Datastore {
         boolean success =  call(() -> {
             MongoCollection<Document> c = database.getCollection("tracks");
 
-            try (MongoCursor<Document> cursor = c.find(new Document("_id", track.getName())).iterator()) {
-                if (!cursor.hasNext()) {
-                    c.insertOne(fromTrack(track));
-                } else {
-                    Document d = cursor.next();
-                    track.setGroups((List<String>) d.get("groups"));
-                }
-            }
+            Document d = c.findOneAndUpdate(
+                    new Document("_id", track.getName()),
+                    Updates.setOnInsert("groups", track.getGroups()),
+                    new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER)
+            );
+            track.setGroups((List<String>) d.get("groups"));
             return true;
         }, false);
 
@@ -371,7 +539,7 @@ public class MongoDBDatastore extends Datastore {
     public boolean saveTrack(Track track) {
         return call(() -> {
             MongoCollection<Document> c = database.getCollection("tracks");
-            return c.replaceOne(new Document("_id", track.getName()), fromTrack(track)).wasAcknowledged();
+            return c.replaceOne(new Document("_id", track.getName()), fromTrack(track), new UpdateOptions().upsert(true)).wasAcknowledged();
         }, false);
     }
 
@@ -390,16 +558,11 @@ public class MongoDBDatastore extends Datastore {
     public boolean saveUUIDData(String username, UUID uuid) {
         return call(() -> {
             MongoCollection<Document> c = database.getCollection("uuid");
-
-            try (MongoCursor<Document> cursor = c.find(new Document("_id", uuid)).iterator()) {
-                if (cursor.hasNext()) {
-                    c.replaceOne(new Document("_id", uuid), new Document("_id", uuid).append("name", username.toLowerCase()));
-                } else {
-                    c.insertOne(new Document("_id", uuid).append("name", username.toLowerCase()));
-                }
-            }
-
-            return true;
+            return c.replaceOne(
+                    new Document("_id", uuid),
+                    new Document("_id", uuid).append("name", username.toLowerCase()),
+                    new UpdateOptions().upsert(true)
+            ).wasAcknowledged();
         }, false);
     }
 
@@ -408,7 +571,7 @@ public class MongoDBDatastore extends Datastore {
         return call(() -> {
             MongoCollection<Document> c = database.getCollection("uuid");
 
-            try (MongoCursor<Document> cursor = c.find(new Document("name", username.toLowerCase())).iterator()) {
+            try (MongoCursor<Document> cursor = c.find(new Document("name", username.toLowerCase())).projection(Projections.include("_id")).limit(1).iterator()) {
                 if (cursor.hasNext()) {
                     return cursor.next().get("_id", UUID.class);
                 }
@@ -422,7 +585,7 @@ public class MongoDBDatastore extends Datastore {
         return call(() -> {
             MongoCollection<Document> c = database.getCollection("uuid");
 
-            try (MongoCursor<Document> cursor = c.find(new Document("_id", uuid)).iterator()) {
+            try (MongoCursor<Document> cursor = c.find(new Document("_id", uuid)).projection(Projections.include("name")).iterator()) {
                 if (cursor.hasNext()) {
                     return cursor.next().get("name", String.class);
                 }
@@ -431,6 +594,22 @@ public class MongoDBDatastore extends Datastore {
         }, null);
     }
 
+    @Override
+    public Map<UUID, String> getNames(Collection<UUID> uuids) {
+        return call(() -> {
+            MongoCollection<Document> c = database.getCollection("uuid");
+
+            Map<UUID, String> names = new HashMap<>();
+            try (MongoCursor<Document> cursor = c.find(Filters.in("_id", new HashSet<>(uuids))).projection(Projections.include("name")).iterator()) {
+                while (cursor.hasNext()) {
+                    Document d = cursor.next();
+                    names.put(d.get("_id", UUID.class), d.getString("name"));
+                }
+            }
+            return names;
+        }, null);
+    }
+
     private static <T> T call(Callable<T> c, T def) {
         try {
             return c.call();
@@ -448,12 +627,12 @@ public class MongoDBDatastore extends Datastore {
                 .collect(Collectors.toMap(e -> e.getKey().replace(".", "[**DOT**]").replace("$", "[**DOLLAR**]"), Map.Entry::getValue));
     }
 
-    private static <V> Map<String, V> revert(Map<String, V> map) {
+    static <V> Map<String, V> revert(Map<String, V> map) {
         return map.entrySet().stream()
                 .collect(Collectors.toMap(e -> e.getKey().replace("[**DOT**]", ".").replace("[**DOLLAR**]", "$"), Map.Entry::getValue));
     }
 
-    private static Document fromUser(User user) {
+    static Document fromUser(User user) {
         Document main = new Document("_id", user.getUuid())
                 .append("name", user.getName())
                 .append("primaryGroup", user.getPrimaryGroup());
@@ -467,7 +646,7 @@ public class MongoDBDatastore extends Datastore {
         return main;
     }
 
-    private static Document fromGroup(Group group) {
+    static Document fromGroup(Group group) {
         Document main = new Document("_id", group.getName());
 
         Document perms = new Document();
@@ -22,26 +22,66 @@
 
 package me.lucko.luckperms.storage.methods;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.MetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import lombok.AllArgsConstructor;
 import lombok.Cleanup;
+import lombok.Getter;
 import me.lucko.luckperms.LuckPermsPlugin;
+import me.lucko.luckperms.api.data.PoolStats;
 import me.lucko.luckperms.storage.DatastoreConfiguration;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MySQLDatastore extends SQLDatastore {
 
     private static final String CREATETABLE_UUID = "CREATE TABLE IF NOT EXISTS `lp_uuid` (`name` VARCHAR(16) NOT NULL, `uuid` VARCHAR(36) NOT NULL, PRIMARY KEY (`name`)) DEFAULT CHARSET=utf8;";
     private static final String CREATETABLE_USERS = "CREATE TABLE IF NOT EXISTS `lp_users` (`uuid` VARCHAR(36) NOT NULL, `name` VARCHAR(16) NOT NULL, `primary_group` VARCHAR(36) NOT NULL, `perms` TEXT NOT NULL, PRIMARY KEY (`uuid`)) DEFAULT CHARSET=utf8;";
+    private static final String CREATETABLE_USER_PERMISSIONS = "CREATE TABLE IF NOT EXISTS `lp_user_permissions` (`id` INT AUTO_INCREMENT NOT NULL, `uuid` VARCHAR(36) NOT NULL, `permission` TEXT NOT NULL, `value` BOOL NOT NULL, `server` VARCHAR(36) NOT NULL, `world` VARCHAR(36) NOT NULL, `expiry` BIGINT NOT NULL, `contexts` TEXT NOT NULL, PRIMARY KEY (`id`), KEY `lp_user_permissions_uuid` (`uuid`), KEY `lp_user_permissions_permission` (`permission`(191))) DEFAULT CHARSET=utf8;";
     private static final String CREATETABLE_GROUPS = "CREATE TABLE IF NOT EXISTS `lp_groups` (`name` VARCHAR(36) NOT NULL, `perms` TEXT NULL, PRIMARY KEY (`name`)) DEFAULT CHARSET=utf8;";
+    private static final String CREATETABLE_GROUP_PERMISSIONS = "CREATE TABLE IF NOT EXISTS `lp_group_permissions` (`id` INT AUTO_INCREMENT NOT NULL, `name` VARCHAR(36) NOT NULL, `permission` TEXT NOT NULL, `value` BOOL NOT NULL, `server` VARCHAR(36) NOT NULL, `world` VARCHAR(36) NOT NULL, `expiry` BIGINT NOT NULL, `contexts` TEXT NOT NULL, PRIMARY KEY (`id`), KEY `lp_group_permissions_name` (`name`), KEY `lp_group_permissions_permission` (`permission`(191))) DEFAULT CHARSET=utf8;";
     private static final String CREATETABLE_TRACKS = "CREATE TABLE IF NOT EXISTS `lp_tracks` (`name` VARCHAR(36) NOT NULL, `groups` TEXT NULL, PRIMARY KEY (`name`)) DEFAULT CHARSET=utf8;";
     private static final String CREATETABLE_ACTION = "CREATE TABLE IF NOT EXISTS `lp_actions` (`id` INT AUTO_INCREMENT NOT NULL, `time` BIGINT NOT NULL, `actor_uuid` VARCHAR(36) NOT NULL, `actor_name` VARCHAR(16) NOT NULL, `type` CHAR(1) NOT NULL, `acted_uuid` VARCHAR(36) NOT NULL, `acted_name` VARCHAR(36) NOT NULL, `action` VARCHAR(256) NOT NULL, PRIMARY KEY (`id`)) DEFAULT CHARSET=utf8;";
+    private static final String CREATETABLE_SCHEMA = "CREATE TABLE IF NOT EXISTS `lp_schema` (`version` INT NOT NULL, `description` VARCHAR(200) NOT NULL, `applied` BIGINT NOT NULL, PRIMARY KEY (`version`)) DEFAULT CHARSET=utf8;";
+
+    // Permissions and contexts have no length limit, so only a prefix of each permission is indexed.
+    private static final String WIDEN_USER_PERMISSIONS = "ALTER TABLE `lp_user_permissions` DROP INDEX `lp_user_permissions_permission`, MODIFY `permission` TEXT NOT NULL, MODIFY `contexts` TEXT NOT NULL, ADD INDEX `lp_user_permissions_permission` (`permission`(191))";
+    private static final String WIDEN_GROUP_PERMISSIONS = "ALTER TABLE `lp_group_permissions` DROP INDEX `lp_group_permissions_permission`, MODIFY `permission` TEXT NOT NULL, MODIFY `contexts` TEXT NOT NULL, ADD INDEX `lp_group_permissions_permission` (`permission`(191))";
+
+    private static final String INDEX_EXISTS = "SELECT 1 FROM information_schema.statistics WHERE table_schema=DATABASE() AND table_name=? AND index_name=? LIMIT 1";
+
+    // MySQL has no "CREATE INDEX IF NOT EXISTS", so each index is checked for first.
+    private static final List<SchemaMigration> MIGRATIONS = ImmutableList.of(
+            SchemaMigration.of(1, "Index the action log", addIndexes("lp_actions", ImmutableMap.of(
+                    "lp_actions_time", "`time`",
+                    "lp_actions_actor", "`actor_uuid`, `time`",
+                    "lp_actions_acted", "`acted_uuid`, `time`",
+                    "lp_actions_acted_name", "`acted_name`, `time`"
+            ))),
+            SchemaMigration.of(2, "Index the uuid cache by uuid", addIndexes("lp_uuid", ImmutableMap.of(
+                    "lp_uuid_uuid", "`uuid`"
+            ))),
+            SchemaMigration.of(3, "Remove the length limit on permissions and contexts", WIDEN_USER_PERMISSIONS, WIDEN_GROUP_PERMISSIONS)
+    );
+
+    private static final String USER_UPSERT = "INSERT INTO lp_users VALUES(?, ?, ?, ?) ON DUPLICATE KEY UPDATE name=VALUES(name), primary_group=VALUES(primary_group), perms=VALUES(perms)";
+    private static final String GROUP_UPSERT = "INSERT INTO lp_groups VALUES(?, ?) ON DUPLICATE KEY UPDATE perms=VALUES(perms)";
+    private static final String TRACK_UPSERT = "INSERT INTO lp_tracks VALUES(?, ?) ON DUPLICATE KEY UPDATE `groups`=VALUES(`groups`)";
+    private static final String UUIDCACHE_UPSERT = "INSERT INTO lp_uuid VALUES(?, ?) ON DUPLICATE KEY UPDATE uuid=VALUES(uuid)";
 
     private final DatastoreConfiguration configuration;
     private HikariDataSource hikari;
+    private PoolMetrics metrics;
 
     public MySQLDatastore(LuckPermsPlugin plugin, DatastoreConfiguration configuration) {
         super(plugin, "MySQL");
@@ -57,7 +97,16 @@ public class MySQLDatastore extends SQLDatastore {
         final String username = configuration.getUsername();
         final String password = configuration.getPassword();
 
-        hikari.setMaximumPoolSize(10);
+        hikari.setPoolName("luckperms");
+        hikari.setMaximumPoolSize(configuration.getMaxPoolSize());
+        hikari.setMinimumIdle(configuration.getMinIdleConnections());
+        hikari.setMaxLifetime(configuration.getMaxLifetime());
+        hikari.setConnectionTimeout(configuration.getConnectionTimeout());
+        hikari.setLeakDetectionThreshold(configuration.getLeakDetectionThreshold());
+
+        metrics = new PoolMetrics(configuration.getMaxPoolSize());
+        hikari.setMetricsTrackerFactory(metrics);
+
         hikari.setDataSourceClassName("com.mysql.jdbc.jdbc2.optional.MysqlDataSource");
         hikari.addDataSourceProperty("serverName", address.split(":")[0]);
         hikari.addDataSourceProperty("port", address.split(":")[1]);
@@ -65,7 +114,18 @@ public class MySQLDatastore extends SQLDatastore {
         hikari.addDataSourceProperty("user", username);
         hikari.addDataSourceProperty("password", password);
 
-        if (!setupTables(CREATETABLE_UUID, CREATETABLE_USERS, CREATETABLE_GROUPS, CREATETABLE_TRACKS, CREATETABLE_ACTION)) {
+        // Cache prepared statements on both the client and the server
+        hikari.addDataSourceProperty("cachePrepStmts", true);
+        hikari.addDataSourceProperty("prepStmtCacheSize", 250);
+        hikari.addDataSourceProperty("prepStmtCacheSqlLimit", 2048);
+        hikari.addDataSourceProperty("useServerPrepStmts", true);
+
+        // Driver properties from the config take priority over the defaults above
+        for (Map.Entry<String, String> property : configuration.getProperties().entrySet()) {
+            hikari.addDataSourceProperty(property.getKey(), property.getValue());
+        }
+
+        if (!setupTables(CREATETABLE_UUID, CREATETABLE_USERS, CREATETABLE_USER_PERMISSIONS, CREATETABLE_GROUPS, CREATETABLE_GROUP_PERMISSIONS, CREATETABLE_TRACKS, CREATETABLE_ACTION, CREATETABLE_SCHEMA)) {
             plugin.getLog().severe("Error occurred whilst initialising the database.");
             shutdown();
         } else {
@@ -73,44 +133,25 @@ public class MySQLDatastore extends SQLDatastore {
         }
     }
 
-    @Override
-    boolean runQuery(QueryPS queryPS) {
-        boolean success = false;
-        try {
-            @Cleanup Connection connection = getConnection();
-            if (connection == null || connection.isClosed()) {
-                throw new IllegalStateException("SQL connection is null");
-            }
+    private static SchemaMigration.Step addIndexes(String table, Map<String, String> indexes) {
+        return new SchemaMigration.Step() {
+            @Override
+            public void apply(Connection connection) throws SQLException {
+                for (Map.Entry<String, String> index : indexes.entrySet()) {
+                    @Cleanup PreparedStatement select = connection.prepareStatement(INDEX_EXISTS);
+                    select.setString(1, table);
+                    select.setString(2, index.getKey());
 
-            @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(queryPS.getQuery());
-            queryPS.onRun(preparedStatement);
-            preparedStatement.execute();
+                    @Cleanup ResultSet resultSet = select.executeQuery();
+                    if (resultSet.next()) {
+                        continue;
+                    }
 
-            success = true;
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return success;
-    }
-
-    @Override
-    boolean runQuery(QueryRS queryRS) {
-        boolean success = false;
-        try {
-            @Cleanup Connection connection = getConnection();
-            if (connection == null || connection.isClosed()) {
-                throw new IllegalStateException("SQL connection is null");
+                    @Cleanup PreparedStatement alter = connection.prepareStatement("ALTER TABLE `" + table + "` ADD INDEX `" + index.getKey() + "` (" + index.getValue() + ")");
+                    alter.execute();
+                }
             }
-
-            @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(queryRS.getQuery());
-            queryRS.onRun(preparedStatement);
-
-            @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
-            success = queryRS.onResult(resultSet);
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return success;
+        };
     }
 
     @Override
@@ -120,8 +161,115 @@ public class MySQLDatastore extends SQLDatastore {
         }
     }
 
+    @Override
+    public PoolStats getPoolStats() {
+        return metrics == null ? null : metrics.snapshot();
+    }
+
     @Override
     Connection getConnection() throws SQLException {
         return hikari.getConnection();
     }
+
+    @Override
+    void releaseConnection(Connection connection) throws SQLException {
+        // Return the connection to the pool
+        connection.close();
+    }
+
+    @Override
+    String getUserUpsert() {
+        return USER_UPSERT;
+    }
+
+    @Override
+    String getGroupUpsert() {
+        return GROUP_UPSERT;
+    }
+
+    @Override
+    String getTrackUpsert() {
+        return TRACK_UPSERT;
+    }
+
+    @Override
+    String getUUIDCacheUpsert() {
+        return UUIDCACHE_UPSERT;
+    }
+
+    @Override
+    List<SchemaMigration> getMigrations() {
+        return MIGRATIONS;
+    }
+
+    /**
+     * Records connection acquire times, and keeps hold of the pool's own stats
+     */
+    private static class PoolMetrics extends MetricsTracker implements MetricsTrackerFactory {
+        private final int maxPoolSize;
+        private final AtomicLong acquired = new AtomicLong(0);
+        private final AtomicLong acquireNanos = new AtomicLong(0);
+        private final AtomicLong maxAcquireNanos = new AtomicLong(0);
+        private final AtomicLong timeouts = new AtomicLong(0);
+        private volatile com.zaxxer.hikari.metrics.PoolStats poolStats = null;
+
+        private PoolMetrics(int maxPoolSize) {
+            this.maxPoolSize = maxPoolSize;
+        }
+
+        @Override
+        public MetricsTracker create(String poolName, com.zaxxer.hikari.metrics.PoolStats poolStats) {
+            this.poolStats = poolStats;
+            return this;
+        }
+
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            acquired.incrementAndGet();
+            acquireNanos.addAndGet(elapsedAcquiredNanos);
+            maxAcquireNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            timeouts.incrementAndGet();
+        }
+
+        private PoolStats snapshot() {
+            com.zaxxer.hikari.metrics.PoolStats stats = poolStats;
+            if (stats == null) {
+                return null;
+            }
+
+            long count = acquired.get();
+            double average = count == 0 ? 0 : toMillis(acquireNanos.get()) / count;
+            return new Snapshot(
+                    stats.getActiveConnections(),
+                    stats.getIdleConnections(),
+                    stats.getTotalConnections(),
+                    maxPoolSize,
+                    stats.getPendingThreads(),
+                    average,
+                    toMillis(maxAcquireNanos.get()),
+                    timeouts.get()
+            );
+        }
+
+        private static double toMillis(long nanos) {
+            return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Snapshot implements PoolStats {
+        private final int activeConnections;
+        private final int idleConnections;
+        private final int totalConnections;
+        private final int maximumPoolSize;
+        private final int pendingThreads;
+        private final double averageAcquireTime;
+        private final double maxAcquireTime;
+        private final long connectionTimeouts;
+    }
 }
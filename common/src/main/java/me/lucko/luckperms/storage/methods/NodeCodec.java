@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage.methods;
+
+import lombok.experimental.UtilityClass;
+import me.lucko.luckperms.api.Node;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A compact binary encoding for a set of nodes, which avoids parsing serialised node strings.
+ *
+ * <p> The permission, value, server, world, expiry and extra contexts of each node are stored as separate fields.
+ * Strings are written once to a dictionary at the start, and then referred to by their position in it.
+ *
+ * <p> The first byte always has its high bit set, so encoded sets can be told apart from data written in other
+ * formats which starts with a small length or count.
+ */
+@UtilityClass
+class NodeCodec {
+    private static final int VERSION = 1;
+    private static final int MARKER = 0x80;
+
+    private static final int VALUE = 1;
+    private static final int SERVER = 1 << 1;
+    private static final int WORLD = 1 << 2;
+    private static final int EXPIRY = 1 << 3;
+    private static final int CONTEXTS = 1 << 4;
+
+    /**
+     * @param firstByte the first byte of some data
+     * @return true if the data was written by this codec
+     */
+    static boolean isEncoded(int firstByte) {
+        return (firstByte & MARKER) != 0;
+    }
+
+    static void encode(DataOutputStream out, Set<Node> nodes) throws IOException {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (Node node : nodes) {
+            index(dictionary, node.getPermission());
+            node.getServer().ifPresent(s -> index(dictionary, s));
+            node.getWorld().ifPresent(s -> index(dictionary, s));
+            for (Map.Entry<String, String> e : node.getExtraContexts().entrySet()) {
+                index(dictionary, e.getKey());
+                index(dictionary, e.getValue());
+            }
+        }
+
+        out.writeByte(MARKER | VERSION);
+        writeVarInt(out, dictionary.size());
+        for (String s : dictionary.keySet()) {
+            out.writeUTF(s);
+        }
+
+        writeVarInt(out, nodes.size());
+        for (Node node : nodes) {
+            Optional<String> server = node.getServer();
+            Optional<String> world = node.getWorld();
+            Map<String, String> contexts = node.getExtraContexts();
+
+            int flags = 0;
+            if (node.getValue()) flags |= VALUE;
+            if (server.isPresent()) flags |= SERVER;
+            if (world.isPresent()) flags |= WORLD;
+            if (node.isTemporary()) flags |= EXPIRY;
+            if (!contexts.isEmpty()) flags |= CONTEXTS;
+
+            writeVarInt(out, dictionary.get(node.getPermission()));
+            out.writeByte(flags);
+            if (server.isPresent()) writeVarInt(out, dictionary.get(server.get()));
+            if (world.isPresent()) writeVarInt(out, dictionary.get(world.get()));
+            if (node.isTemporary()) out.writeLong(node.getExpiryUnixTime());
+            if (!contexts.isEmpty()) {
+                writeVarInt(out, contexts.size());
+                for (Map.Entry<String, String> e : contexts.entrySet()) {
+                    writeVarInt(out, dictionary.get(e.getKey()));
+                    writeVarInt(out, dictionary.get(e.getValue()));
+                }
+            }
+        }
+    }
+
+    static Set<Node> decode(DataInputStream in) throws IOException {
+        int version = in.readUnsignedByte() & ~MARKER;
+        if (version != VERSION) {
+            throw new IOException("Unsupported node encoding version: " + version);
+        }
+
+        String[] dictionary = new String[readVarInt(in)];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = in.readUTF();
+        }
+
+        int size = readVarInt(in);
+        Set<Node> nodes = new HashSet<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            String permission = dictionary[readVarInt(in)];
+            int flags = in.readUnsignedByte();
+            String server = (flags & SERVER) != 0 ? dictionary[readVarInt(in)] : null;
+            String world = (flags & WORLD) != 0 ? dictionary[readVarInt(in)] : null;
+            long expiry = (flags & EXPIRY) != 0 ? in.readLong() : 0L;
+
+            Map<String, String> contexts = null;
+            if ((flags & CONTEXTS) != 0) {
+                int count = readVarInt(in);
+                contexts = new HashMap<>(count * 2);
+                for (int j = 0; j < count; j++) {
+                    contexts.put(dictionary[readVarInt(in)], dictionary[readVarInt(in)]);
+                }
+            }
+
+            nodes.add(new me.lucko.luckperms.utils.Node(permission, (flags & VALUE) != 0, false, expiry, server, world, contexts));
+        }
+        return nodes;
+    }
+
+    private static void index(Map<String, Integer> dictionary, String s) {
+        if (!dictionary.containsKey(s)) {
+            dictionary.put(s, dictionary.size());
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage.methods;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import me.lucko.luckperms.api.Node;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A flattened representation of a {@link Node}, matching a single row in the normalized permission tables.
+ *
+ * <p> Server and world are stored as "global" when the node doesn't specify them, so they can be compared and indexed
+ * without having to deal with null values.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+@AllArgsConstructor
+class NodeDataHolder {
+    private static final Gson GSON = new Gson();
+    private static final Type CONTEXT_TYPE = new TypeToken<Map<String, String>>(){}.getType();
+
+    static NodeDataHolder fromNode(Node node) {
+        return new NodeDataHolder(
+                node.getPermission(),
+                node.getValue(),
+                node.getServer().orElse("global"),
+                node.getWorld().orElse("global"),
+                node.getExpiryUnixTime(),
+                GSON.toJson(new TreeMap<>(node.getExtraContexts()))
+        );
+    }
+
+    private final String permission;
+    private final boolean value;
+    private final String server;
+    private final String world;
+    private final long expiry;
+    private final String contexts;
+
+    Node toNode() {
+        Map<String, String> extraContexts = GSON.fromJson(contexts, CONTEXT_TYPE);
+
+        Node.Builder builder = new me.lucko.luckperms.utils.Node.Builder(permission)
+                .setServerRaw(server)
+                .setValue(value)
+                .setWorld(world.equalsIgnoreCase("global") ? null : world)
+                .setExpiry(expiry);
+
+        if (extraContexts != null) {
+            builder.withExtraContext(extraContexts);
+        }
+
+        return builder.build();
+    }
+}
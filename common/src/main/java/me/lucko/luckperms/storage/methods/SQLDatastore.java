@@ -23,12 +23,16 @@
 package me.lucko.luckperms.storage.methods;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
 import lombok.AllArgsConstructor;
+import lombok.Cleanup;
 import lombok.Getter;
 import me.lucko.luckperms.LuckPermsPlugin;
 import me.lucko.luckperms.api.LogEntry;
+import me.lucko.luckperms.api.Node;
 import me.lucko.luckperms.data.Log;
+import me.lucko.luckperms.data.LogQuery;
 import me.lucko.luckperms.groups.Group;
 import me.lucko.luckperms.groups.GroupManager;
 import me.lucko.luckperms.storage.Datastore;
@@ -42,8 +46,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
-
-import static me.lucko.luckperms.core.PermissionHolder.exportToLegacy;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @SuppressWarnings("UnnecessaryLocalVariable")
 abstract class SQLDatastore extends Datastore {
@@ -51,32 +55,66 @@ abstract class SQLDatastore extends Datastore {
     private static final Type NM_TYPE = new TypeToken<Map<String, Boolean>>(){}.getType();
     private static final Type T_TYPE = new TypeToken<List<String>>(){}.getType();
 
-    private static final String USER_INSERT = "INSERT INTO lp_users VALUES(?, ?, ?, ?)";
+    /*
+        Permissions used to be stored as a json blob in the "perms" column of the lp_users and lp_groups tables.
+        They now live in lp_user_permissions and lp_group_permissions, one row per node. The old column is kept
+        for compatibility, and is set to an empty object once its content has been migrated.
+     */
+    private static final String EMPTY_PERMS = "{}";
+    private static final int MIGRATION_BATCH_SIZE = 500;
+
     private static final String USER_SELECT = "SELECT * FROM lp_users WHERE uuid=?";
     private static final String USER_SELECT_ALL = "SELECT uuid FROM lp_users";
-    private static final String USER_UPDATE = "UPDATE lp_users SET name=?, primary_group = ?, perms=? WHERE uuid=?";
+    private static final String USER_UPDATE_NAME = "UPDATE lp_users SET name=? WHERE uuid=?";
     private static final String USER_DELETE = "DELETE FROM lp_users WHERE uuid=?";
-    private static final String USER_DELETE_ALL = "DELETE FROM lp_users WHERE perms=?";
+    private static final String USER_DELETE_DEFAULT = "DELETE FROM lp_users WHERE primary_group=? AND perms=? AND uuid NOT IN (SELECT uuid FROM lp_user_permissions WHERE NOT (permission=? AND `value`=? AND server=? AND world=? AND expiry=? AND contexts=?))";
+    private static final String USER_SELECT_LEGACY = "SELECT uuid, perms FROM lp_users WHERE uuid > ? AND perms <> ? ORDER BY uuid LIMIT " + MIGRATION_BATCH_SIZE;
+    private static final String USER_CLEAR_LEGACY = "UPDATE lp_users SET perms=? WHERE uuid=?";
+
+    private static final String USER_PERMISSIONS_SELECT = "SELECT permission, `value`, server, world, expiry, contexts FROM lp_user_permissions WHERE uuid=?";
+    private static final String USER_PERMISSIONS_INSERT = "INSERT INTO lp_user_permissions(uuid, permission, `value`, server, world, expiry, contexts) VALUES(?, ?, ?, ?, ?, ?, ?)";
+    private static final String USER_PERMISSIONS_DELETE_SPECIFIC = "DELETE FROM lp_user_permissions WHERE uuid=? AND permission=? AND `value`=? AND server=? AND world=? AND expiry=? AND contexts=?";
+    private static final String USER_PERMISSIONS_DELETE = "DELETE FROM lp_user_permissions WHERE uuid=?";
+    private static final String USER_PERMISSIONS_SELECT_HOLDERS = "SELECT DISTINCT uuid FROM lp_user_permissions WHERE permission=? AND `value`=?";
+    private static final String USER_PERMISSIONS_DELETE_ORPHANED = "DELETE FROM lp_user_permissions WHERE uuid NOT IN (SELECT uuid FROM lp_users)";
 
     private static final String GROUP_INSERT = "INSERT INTO lp_groups VALUES(?, ?)";
-    private static final String GROUP_SELECT = "SELECT perms FROM lp_groups WHERE name=?";
-    private static final String GROUP_SELECT_ALL = "SELECT * FROM lp_groups";
-    private static final String GROUP_UPDATE = "UPDATE lp_groups SET perms=? WHERE name=?";
+    private static final String GROUP_SELECT = "SELECT name FROM lp_groups WHERE name=?";
+    private static final String GROUP_SELECT_ALL = "SELECT name FROM lp_groups";
     private static final String GROUP_DELETE = "DELETE FROM lp_groups WHERE name=?";
+    private static final String GROUP_SELECT_LEGACY = "SELECT name, perms FROM lp_groups WHERE name > ? AND perms <> ? ORDER BY name LIMIT " + MIGRATION_BATCH_SIZE;
+    private static final String GROUP_CLEAR_LEGACY = "UPDATE lp_groups SET perms=? WHERE name=?";
+
+    private static final String GROUP_PERMISSIONS_SELECT = "SELECT permission, `value`, server, world, expiry, contexts FROM lp_group_permissions WHERE name=?";
+    private static final String GROUP_PERMISSIONS_SELECT_ALL = "SELECT name, permission, `value`, server, world, expiry, contexts FROM lp_group_permissions";
+    private static final String GROUP_PERMISSIONS_INSERT = "INSERT INTO lp_group_permissions(name, permission, `value`, server, world, expiry, contexts) VALUES(?, ?, ?, ?, ?, ?, ?)";
+    private static final String GROUP_PERMISSIONS_DELETE_SPECIFIC = "DELETE FROM lp_group_permissions WHERE name=? AND permission=? AND `value`=? AND server=? AND world=? AND expiry=? AND contexts=?";
+    private static final String GROUP_PERMISSIONS_DELETE = "DELETE FROM lp_group_permissions WHERE name=?";
 
     private static final String TRACK_INSERT = "INSERT INTO lp_tracks VALUES(?, ?)";
     private static final String TRACK_SELECT = "SELECT groups FROM lp_tracks WHERE name=?";
     private static final String TRACK_SELECT_ALL = "SELECT * FROM lp_tracks";
-    private static final String TRACK_UPDATE = "UPDATE lp_tracks SET groups=? WHERE name=?";
     private static final String TRACK_DELETE = "DELETE FROM lp_tracks WHERE name=?";
 
-    private static final String UUIDCACHE_INSERT = "INSERT INTO lp_uuid VALUES(?, ?)";
     private static final String UUIDCACHE_SELECT = "SELECT uuid FROM lp_uuid WHERE name=?";
     private static final String UUIDCACHE_SELECT_NAME = "SELECT name FROM lp_uuid WHERE uuid=?";
-    private static final String UUIDCACHE_UPDATE = "UPDATE lp_uuid SET uuid=? WHERE name=?";
+    private static final String UUIDCACHE_SELECT_NAMES = "SELECT name, uuid FROM lp_uuid WHERE uuid IN (%s)";
+
+    // Lookups are padded to a fixed size, so the same prepared statement can be reused for every batch
+    private static final int UUIDCACHE_BATCH_SIZE = 100;
+
+    private static final String SCHEMA_SELECT = "SELECT version FROM lp_schema";
+    private static final String SCHEMA_INSERT = "INSERT INTO lp_schema VALUES(?, ?, ?)";
 
     private static final String ACTION_INSERT = "INSERT INTO lp_actions(`time`, `actor_uuid`, `actor_name`, `type`, `acted_uuid`, `acted_name`, `action`) VALUES(?, ?, ?, ?, ?, ?, ?)";
     private static final String ACTION_SELECT_ALL = "SELECT * FROM lp_actions";
+    private static final String ACTION_SELECT = "SELECT * FROM lp_actions%s ORDER BY `time` %s, id %s";
+    private static final String ACTION_COUNT = "SELECT COUNT(*) FROM lp_actions%s";
+    private static final String ACTION_SELECT_IDS = "SELECT id FROM lp_actions%s ORDER BY id LIMIT ?";
+    private static final String ACTION_DELETE = "DELETE FROM lp_actions WHERE id=?";
+
+    // The number of log entries read or deleted at a time when streaming or purging the log
+    private static final int ACTION_BATCH_SIZE = 1000;
 
     private final Gson gson;
 
@@ -87,8 +125,139 @@ abstract class SQLDatastore extends Datastore {
 
     abstract Connection getConnection() throws SQLException;
 
-    abstract boolean runQuery(QueryPS queryPS);
-    abstract boolean runQuery(QueryRS queryRS);
+    /**
+     * Gets the statement used to insert or replace a row in lp_users, in a single query.
+     * Parameters are bound in the order uuid, name, primary_group, perms.
+     * @return the upsert statement
+     */
+    abstract String getUserUpsert();
+
+    /**
+     * Gets the statement used to insert or replace a row in lp_groups, in a single query.
+     * Parameters are bound in the order name, perms.
+     * @return the upsert statement
+     */
+    abstract String getGroupUpsert();
+
+    /**
+     * Gets the statement used to insert or replace a row in lp_tracks, in a single query.
+     * Parameters are bound in the order name, groups.
+     * @return the upsert statement
+     */
+    abstract String getTrackUpsert();
+
+    /**
+     * Gets the statement used to insert or replace a row in lp_uuid, in a single query.
+     * Parameters are bound in the order name, uuid.
+     * @return the upsert statement
+     */
+    abstract String getUUIDCacheUpsert();
+
+    /**
+     * Gets the schema changes for this dialect, which are applied to existing databases when the datastore starts.
+     * Versions must never be reused or removed once released.
+     * @return the migrations, in version order
+     */
+    abstract List<SchemaMigration> getMigrations();
+
+    /**
+     * Called once a query has finished with a connection obtained from {@link #getConnection()}.
+     * Datastores which only use a single connection keep it open.
+     * @param connection the connection to release
+     * @throws SQLException if the connection could not be released
+     */
+    void releaseConnection(Connection connection) throws SQLException {
+
+    }
+
+    boolean runQuery(QueryPS queryPS) {
+        return runTransaction(new QueryTX() {
+            @Override
+            public boolean onRun(Connection connection) throws SQLException {
+                @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(queryPS.getQuery());
+                queryPS.onRun(preparedStatement);
+                preparedStatement.execute();
+                return true;
+            }
+        }, false);
+    }
+
+    boolean runQuery(QueryRS queryRS) {
+        return runTransaction(new QueryTX() {
+            @Override
+            public boolean onRun(Connection connection) throws SQLException {
+                @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(queryRS.getQuery());
+                queryRS.onRun(preparedStatement);
+
+                @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
+                return queryRS.onResult(resultSet);
+            }
+        }, true);
+    }
+
+    boolean runTransaction(QueryTX queryTX) {
+        return runTransaction(queryTX, false);
+    }
+
+    /**
+     * Runs a number of statements against the same connection, as a single transaction.
+     * The transaction is rolled back if the operation returns false or throws an exception.
+     * @param queryTX the operation to run
+     * @param readOnly if the operation only reads from the database
+     * @return true if the transaction was committed
+     */
+    boolean runTransaction(QueryTX queryTX, boolean readOnly) {
+        boolean success = false;
+        Connection connection = null;
+        try {
+            connection = getConnection();
+            if (connection == null || connection.isClosed()) {
+                throw new IllegalStateException("SQL connection is null");
+            }
+
+            synchronized (connection) {
+                success = runTransaction(connection, queryTX);
+            }
+        } catch (SQLException | RuntimeException e) {
+            e.printStackTrace();
+            success = false;
+        } finally {
+            release(connection);
+        }
+        return success;
+    }
+
+    static boolean runTransaction(Connection connection, QueryTX queryTX) throws SQLException {
+        boolean success;
+        connection.setAutoCommit(false);
+        try {
+            success = queryTX.onRun(connection);
+            if (success) {
+                connection.commit();
+            } else {
+                connection.rollback();
+            }
+        } catch (SQLException | RuntimeException | Error e) {
+            // Restoring auto commit would otherwise commit the partial writes
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        return success;
+    }
+
+    private void release(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        try {
+            releaseConnection(connection);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
 
     boolean setupTables(String... tableQueries) {
         boolean success = true;
@@ -96,7 +265,216 @@ abstract class SQLDatastore extends Datastore {
             if (!runQuery(new Query(q))) success = false;
         }
 
-        return success && cleanupUsers();
+        return success && migrateSchema() && migrateLegacyData() && cleanupUsers();
+    }
+
+    /**
+     * Applies any schema migrations which have not yet been recorded in the lp_schema table
+     * @return true if the schema is up to date
+     */
+    private boolean migrateSchema() {
+        Set<Integer> applied = getSchemaVersions();
+        if (applied == null) {
+            return false;
+        }
+
+        for (SchemaMigration migration : getMigrations()) {
+            if (applied.contains(migration.getVersion())) {
+                continue;
+            }
+
+            plugin.getLog().info("Updating the database schema to version " + migration.getVersion() + ": " + migration.getDescription());
+            boolean success = runTransaction(new QueryTX() {
+                @Override
+                public boolean onRun(Connection connection) throws SQLException {
+                    migration.apply(connection);
+
+                    @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(SCHEMA_INSERT);
+                    preparedStatement.setInt(1, migration.getVersion());
+                    preparedStatement.setString(2, migration.getDescription());
+                    preparedStatement.setLong(3, System.currentTimeMillis() / 1000L);
+                    preparedStatement.execute();
+                    return true;
+                }
+            });
+
+            if (!success) {
+                // Another server sharing the database may have applied it at the same time
+                applied = getSchemaVersions();
+                if (applied == null || !applied.contains(migration.getVersion())) {
+                    plugin.getLog().severe("Unable to update the database schema to version " + migration.getVersion() + ".");
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private Set<Integer> getSchemaVersions() {
+        final Set<Integer> versions = new HashSet<>();
+        boolean success = runQuery(new QueryRS(SCHEMA_SELECT) {
+            @Override
+            void onRun(PreparedStatement preparedStatement) throws SQLException {
+
+            }
+
+            @Override
+            boolean onResult(ResultSet resultSet) throws SQLException {
+                while (resultSet.next()) {
+                    versions.add(resultSet.getInt(1));
+                }
+                return true;
+            }
+        });
+        return success ? versions : null;
+    }
+
+    /**
+     * Moves any permissions still stored in the legacy "perms" json columns into the per-node tables.
+     * Rows are processed in small batches, so the migration can be resumed if it is interrupted.
+     * @return true if the migration completed successfully
+     */
+    private boolean migrateLegacyData() {
+        int users = migrateLegacyData(USER_SELECT_LEGACY, USER_CLEAR_LEGACY, USER_PERMISSIONS_INSERT);
+        int groups = migrateLegacyData(GROUP_SELECT_LEGACY, GROUP_CLEAR_LEGACY, GROUP_PERMISSIONS_INSERT);
+
+        if (users > 0 || groups > 0) {
+            plugin.getLog().info("Migrated the permissions of " + users + " users and " + groups + " groups to the new table format.");
+        }
+
+        return users != -1 && groups != -1;
+    }
+
+    private int migrateLegacyData(String selectQuery, String clearQuery, String insertQuery) {
+        final int[] migrated = {0};
+        final String[] lastKey = {""};
+        final boolean[] hasMore = {true};
+
+        while (hasMore[0]) {
+            boolean success = runTransaction(new QueryTX() {
+                @Override
+                public boolean onRun(Connection connection) throws SQLException {
+                    Map<String, String> legacy = new LinkedHashMap<>();
+
+                    @Cleanup PreparedStatement select = connection.prepareStatement(selectQuery);
+                    select.setString(1, lastKey[0]);
+                    select.setString(2, EMPTY_PERMS);
+                    @Cleanup ResultSet resultSet = select.executeQuery();
+                    while (resultSet.next()) {
+                        legacy.put(resultSet.getString(1), resultSet.getString(2));
+                    }
+
+                    if (legacy.isEmpty()) {
+                        hasMore[0] = false;
+                        return true;
+                    }
+
+                    @Cleanup PreparedStatement insert = connection.prepareStatement(insertQuery);
+                    @Cleanup PreparedStatement clear = connection.prepareStatement(clearQuery);
+                    for (Map.Entry<String, String> e : legacy.entrySet()) {
+                        lastKey[0] = e.getKey();
+
+                        Map<String, Boolean> nodes;
+                        try {
+                            nodes = gson.fromJson(e.getValue(), NM_TYPE);
+                        } catch (JsonSyntaxException ex) {
+                            plugin.getLog().severe("Unable to migrate the permissions of '" + e.getKey() + "': " + ex.getMessage());
+                            continue;
+                        }
+
+                        if (nodes != null) {
+                            for (Map.Entry<String, Boolean> node : nodes.entrySet()) {
+                                NodeDataHolder data = NodeDataHolder.fromNode(me.lucko.luckperms.utils.Node.fromSerialisedNode(node.getKey(), node.getValue()));
+                                setNodeData(insert, e.getKey(), data);
+                                insert.addBatch();
+                            }
+                        }
+
+                        clear.setString(1, EMPTY_PERMS);
+                        clear.setString(2, e.getKey());
+                        clear.addBatch();
+                        migrated[0]++;
+                    }
+
+                    insert.executeBatch();
+                    clear.executeBatch();
+                    return true;
+                }
+            });
+
+            if (!success) {
+                return -1;
+            }
+        }
+
+        return migrated[0];
+    }
+
+    private static void setNodeData(PreparedStatement preparedStatement, String holder, NodeDataHolder data) throws SQLException {
+        preparedStatement.setString(1, holder);
+        preparedStatement.setString(2, data.getPermission());
+        preparedStatement.setBoolean(3, data.isValue());
+        preparedStatement.setString(4, data.getServer());
+        preparedStatement.setString(5, data.getWorld());
+        preparedStatement.setLong(6, data.getExpiry());
+        preparedStatement.setString(7, data.getContexts());
+    }
+
+    private static NodeDataHolder getNodeData(ResultSet resultSet) throws SQLException {
+        return new NodeDataHolder(
+                resultSet.getString("permission"),
+                resultSet.getBoolean("value"),
+                resultSet.getString("server"),
+                resultSet.getString("world"),
+                resultSet.getLong("expiry"),
+                resultSet.getString("contexts")
+        );
+    }
+
+    private static Set<Node> selectNodes(Connection connection, String selectQuery, String holder) throws SQLException {
+        Set<Node> nodes = new HashSet<>();
+
+        @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(selectQuery);
+        preparedStatement.setString(1, holder);
+        @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
+        while (resultSet.next()) {
+            nodes.add(getNodeData(resultSet).toNode());
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Adds the changes between the nodes currently stored for a holder, and the nodes it holds in memory, to the
+     * given batches. The caller is responsible for executing the delete batch before the insert batch.
+     */
+    private static void saveNodes(PreparedStatement select, PreparedStatement insert, PreparedStatement delete, String holder, Set<Node> nodes) throws SQLException {
+        Set<NodeDataHolder> remote = new HashSet<>();
+
+        select.setString(1, holder);
+        @Cleanup ResultSet resultSet = select.executeQuery();
+        while (resultSet.next()) {
+            remote.add(getNodeData(resultSet));
+        }
+
+        Set<NodeDataHolder> local = nodes.stream().map(NodeDataHolder::fromNode).collect(Collectors.toSet());
+
+        Set<NodeDataHolder> toRemove = new HashSet<>(remote);
+        toRemove.removeAll(local);
+
+        Set<NodeDataHolder> toAdd = new HashSet<>(local);
+        toAdd.removeAll(remote);
+
+        for (NodeDataHolder data : toRemove) {
+            setNodeData(delete, holder, data);
+            delete.addBatch();
+        }
+
+        for (NodeDataHolder data : toAdd) {
+            setNodeData(insert, holder, data);
+            insert.addBatch();
+        }
     }
 
     @Override
@@ -104,18 +482,42 @@ abstract class SQLDatastore extends Datastore {
         boolean success = runQuery(new QueryPS(ACTION_INSERT) {
             @Override
             void onRun(PreparedStatement preparedStatement) throws SQLException {
-                preparedStatement.setLong(1, entry.getTimestamp());
-                preparedStatement.setString(2, entry.getActor().toString());
-                preparedStatement.setString(3, entry.getActorName());
-                preparedStatement.setString(4, Character.toString(entry.getType()));
-                preparedStatement.setString(5, entry.getActed() == null ? "null" : entry.getActed().toString());
-                preparedStatement.setString(6, entry.getActedName());
-                preparedStatement.setString(7, entry.getAction());
+                setLogParameters(preparedStatement, entry);
             }
         });
         return success;
     }
 
+    @Override
+    public boolean logActions(Collection<LogEntry> entries) {
+        if (entries.isEmpty()) {
+            return true;
+        }
+
+        return runTransaction(new QueryTX() {
+            @Override
+            public boolean onRun(Connection connection) throws SQLException {
+                @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(ACTION_INSERT);
+                for (LogEntry entry : entries) {
+                    setLogParameters(preparedStatement, entry);
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+                return true;
+            }
+        });
+    }
+
+    private static void setLogParameters(PreparedStatement preparedStatement, LogEntry entry) throws SQLException {
+        preparedStatement.setLong(1, entry.getTimestamp());
+        preparedStatement.setString(2, entry.getActor().toString());
+        preparedStatement.setString(3, entry.getActorName());
+        preparedStatement.setString(4, Character.toString(entry.getType()));
+        preparedStatement.setString(5, entry.getActed() == null ? "null" : entry.getActed().toString());
+        preparedStatement.setString(6, entry.getActedName());
+        preparedStatement.setString(7, entry.getAction());
+    }
+
     @Override
     public Log getLog() {
         final Log.Builder log = Log.builder();
@@ -128,17 +530,7 @@ abstract class SQLDatastore extends Datastore {
             @Override
             boolean onResult(ResultSet resultSet) throws SQLException {
                 while (resultSet.next()) {
-                    final String actedUuid = resultSet.getString("acted_uuid");
-                    LogEntry e = new LogEntry(
-                            resultSet.getLong("time"),
-                            UUID.fromString(resultSet.getString("actor_uuid")),
-                            resultSet.getString("actor_name"),
-                            resultSet.getString("type").toCharArray()[0],
-                            actedUuid.equals("null") ? null : UUID.fromString(actedUuid),
-                            resultSet.getString("acted_name"),
-                            resultSet.getString("action")
-                    );
-                    log.add(e);
+                    log.add(readLogEntry(resultSet));
                 }
                 return true;
             }
@@ -147,92 +539,370 @@ abstract class SQLDatastore extends Datastore {
     }
 
     @Override
-    public boolean loadUser(UUID uuid, String username) {
-        User user = plugin.getUserManager().make(uuid, username);
-        boolean success = runQuery(new QueryRS(USER_SELECT) {
+    public List<LogEntry> queryLog(LogQuery query) {
+        final List<Object> params = new ArrayList<>();
+        final String order = query.isDescending() ? "DESC" : "ASC";
+        String sql = String.format(ACTION_SELECT, getLogFilter(query, params), order, order);
+
+        if (query.getLimit() > 0 || query.getOffset() > 0) {
+            sql += " LIMIT ? OFFSET ?";
+            params.add(query.getLimit() > 0 ? query.getLimit() : Integer.MAX_VALUE);
+            params.add(query.getOffset());
+        }
+
+        final List<LogEntry> entries = new ArrayList<>();
+        boolean success = runQuery(new QueryRS(sql) {
             @Override
             void onRun(PreparedStatement preparedStatement) throws SQLException {
-                preparedStatement.setString(1, user.getUuid().toString());
+                setParameters(preparedStatement, params);
             }
 
             @Override
             boolean onResult(ResultSet resultSet) throws SQLException {
-                if (resultSet.next()) {
-                    // User exists, let's load.
-                    Map<String, Boolean> nodes = gson.fromJson(resultSet.getString("perms"), NM_TYPE);
-                    user.setNodes(nodes);
-                    user.setPrimaryGroup(resultSet.getString("primary_group"));
-
-                    if (user.getName().equalsIgnoreCase("null")) {
-                        user.setName(resultSet.getString("name"));
-                    } else {
-                        if (!resultSet.getString("name").equals(user.getName())) {
-                            runQuery(new QueryPS(USER_UPDATE) {
-                                @Override
-                                void onRun(PreparedStatement preparedStatement) throws SQLException {
-                                    preparedStatement.setString(1, user.getName());
-                                    preparedStatement.setString(2, user.getPrimaryGroup());
-                                    preparedStatement.setString(3, gson.toJson(exportToLegacy(user.getNodes())));
-                                    preparedStatement.setString(4, user.getUuid().toString());
-                                }
-                            });
-                        }
-                    }
+                while (resultSet.next()) {
+                    entries.add(readLogEntry(resultSet));
                 }
                 return true;
             }
         });
+        return success ? entries : null;
+    }
 
-        if (success) plugin.getUserManager().updateOrSet(user);
-        return success;
+    @Override
+    public int countLog(LogQuery query) {
+        final List<Object> params = new ArrayList<>();
+        final int[] count = {-1};
+        runQuery(new QueryRS(String.format(ACTION_COUNT, getLogFilter(query, params))) {
+            @Override
+            void onRun(PreparedStatement preparedStatement) throws SQLException {
+                setParameters(preparedStatement, params);
+            }
+
+            @Override
+            boolean onResult(ResultSet resultSet) throws SQLException {
+                if (resultSet.next()) {
+                    count[0] = resultSet.getInt(1);
+                }
+                return true;
+            }
+        });
+        return count[0];
     }
 
     @Override
-    public boolean saveUser(User user) {
-        if (!plugin.getUserManager().shouldSave(user)) {
-            boolean success = runQuery(new QueryPS(USER_DELETE) {
+    public boolean streamLog(LogQuery query, Consumer<LogEntry> consumer) {
+        final String order = query.isDescending() ? "DESC" : "ASC";
+        final String direction = query.isDescending() ? "<" : ">";
+        final List<Object> filterParams = new ArrayList<>();
+        final String filter = getLogFilter(query, filterParams);
+
+        // Each batch continues from the last entry of the previous one, so no connection is held whilst the consumer runs
+        long[] cursor = null;
+        while (true) {
+            final List<Object> params = new ArrayList<>(filterParams);
+            String where = filter;
+            if (cursor != null) {
+                where += (filter.isEmpty() ? " WHERE " : " AND ") + "(`time`" + direction + "? OR (`time`=? AND id" + direction + "?))";
+                params.add(cursor[0]);
+                params.add(cursor[0]);
+                params.add(cursor[1]);
+            }
+            params.add(ACTION_BATCH_SIZE);
+
+            final List<LogEntry> entries = new ArrayList<>();
+            final long[] last = new long[2];
+            boolean success = runQuery(new QueryRS(String.format(ACTION_SELECT, where, order, order) + " LIMIT ?") {
                 @Override
                 void onRun(PreparedStatement preparedStatement) throws SQLException {
-                    preparedStatement.setString(1, user.getUuid().toString());
+                    setParameters(preparedStatement, params);
+                }
+
+                @Override
+                boolean onResult(ResultSet resultSet) throws SQLException {
+                    while (resultSet.next()) {
+                        entries.add(readLogEntry(resultSet));
+                        last[0] = resultSet.getLong("time");
+                        last[1] = resultSet.getLong("id");
+                    }
+                    return true;
+                }
+            });
+
+            if (!success) {
+                return false;
+            }
+
+            entries.forEach(consumer);
+            if (entries.size() < ACTION_BATCH_SIZE) {
+                return true;
+            }
+            cursor = last;
+        }
+    }
+
+    @Override
+    public int purgeLog(LogQuery query) {
+        final List<Object> params = new ArrayList<>();
+        final String select = String.format(ACTION_SELECT_IDS, getLogFilter(query, params));
+        params.add(ACTION_BATCH_SIZE);
+
+        // Entries are deleted in separate transactions, so large purges don't hold locks on the table for long
+        int total = 0;
+        while (true) {
+            final int[] deleted = {0};
+            boolean success = runTransaction(new QueryTX() {
+                @Override
+                public boolean onRun(Connection connection) throws SQLException {
+                    List<Long> ids = new ArrayList<>();
+                    {
+                        @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(select);
+                        setParameters(preparedStatement, params);
+                        @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
+                        while (resultSet.next()) {
+                            ids.add(resultSet.getLong("id"));
+                        }
+                    }
+
+                    if (ids.isEmpty()) {
+                        return true;
+                    }
+
+                    @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(ACTION_DELETE);
+                    for (long id : ids) {
+                        preparedStatement.setLong(1, id);
+                        preparedStatement.addBatch();
+                    }
+                    preparedStatement.executeBatch();
+                    deleted[0] = ids.size();
+                    return true;
                 }
             });
-            return success;
+
+            if (!success) {
+                return -1;
+            }
+
+            total += deleted[0];
+            if (deleted[0] < ACTION_BATCH_SIZE) {
+                return total;
+            }
+        }
+    }
+
+    /**
+     * Builds the WHERE clause for a log query
+     * @param query the query
+     * @param params the list to add the clause's parameters to, in order
+     * @return the clause, or an empty string if the query has no filters
+     */
+    private static String getLogFilter(LogQuery query, List<Object> params) {
+        List<String> conditions = new ArrayList<>();
+
+        if (query.getActor() != null) {
+            conditions.add("actor_uuid=?");
+            params.add(query.getActor().toString());
         }
+        if (query.getActed() != null) {
+            conditions.add("acted_uuid=?");
+            params.add(query.getActed().toString());
+        }
+        if (query.getActedName() != null) {
+            conditions.add("acted_name=?");
+            params.add(query.getActedName());
+        }
+        if (query.getType() != null) {
+            conditions.add("`type`=?");
+            params.add(query.getType().toString());
+        }
+        if (query.getAfter() != Long.MIN_VALUE) {
+            conditions.add("`time`>=?");
+            params.add(query.getAfter());
+        }
+        if (query.getBefore() != Long.MAX_VALUE) {
+            conditions.add("`time`<?");
+            params.add(query.getBefore());
+        }
+        for (String term : query.getSearchTerms()) {
+            conditions.add("(LOWER(actor_name) LIKE ? ESCAPE '!' OR LOWER(acted_name) LIKE ? ESCAPE '!' OR LOWER(action) LIKE ? ESCAPE '!')");
+            String pattern = "%" + term
+                    .replace("!", "!!")
+                    .replace("%", "!%")
+                    .replace("_", "!_") + "%";
+            params.add(pattern);
+            params.add(pattern);
+            params.add(pattern);
+        }
+
+        return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+    }
+
+    private static void setParameters(PreparedStatement preparedStatement, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            preparedStatement.setObject(i + 1, params.get(i));
+        }
+    }
 
-        boolean success = runQuery(new QueryRS(USER_SELECT) {
+    private static LogEntry readLogEntry(ResultSet resultSet) throws SQLException {
+        final String actedUuid = resultSet.getString("acted_uuid");
+        return new LogEntry(
+                resultSet.getLong("time"),
+                UUID.fromString(resultSet.getString("actor_uuid")),
+                resultSet.getString("actor_name"),
+                resultSet.getString("type").toCharArray()[0],
+                actedUuid.equals("null") ? null : UUID.fromString(actedUuid),
+                resultSet.getString("acted_name"),
+                resultSet.getString("action")
+        );
+    }
+
+    @Override
+    public boolean loadUser(UUID uuid, String username) {
+        User user = plugin.getUserManager().make(uuid, username);
+        final boolean[] rename = {false};
+        boolean success = runTransaction(new QueryTX() {
             @Override
-            void onRun(PreparedStatement preparedStatement) throws SQLException {
-                preparedStatement.setString(1, user.getUuid().toString());
+            public boolean onRun(Connection connection) throws SQLException {
+                rename[0] = selectUser(connection, user);
+                return true;
             }
+        }, true);
 
+        if (success && rename[0]) {
+            runQuery(new QueryPS(USER_UPDATE_NAME) {
+                @Override
+                void onRun(PreparedStatement preparedStatement) throws SQLException {
+                    preparedStatement.setString(1, user.getName());
+                    preparedStatement.setString(2, user.getUuid().toString());
+                }
+            });
+        }
+
+        if (success) plugin.getUserManager().updateOrSet(user);
+        return success;
+    }
+
+    @Override
+    public UUID loadUserOnLogin(String username, UUID uuid) {
+        final String name = username.toLowerCase();
+        final boolean onlineMode = plugin.getUuidCache().isOnlineMode();
+        final UUID[] previous = {null};
+        final User[] user = {null};
+
+        // The uuid lookup, uuid save and user load all share one connection and transaction
+        boolean success = runTransaction(new QueryTX() {
             @Override
-            boolean onResult(ResultSet resultSet) throws SQLException {
-                boolean b;
-                if (!resultSet.next()) {
-                    // Doesn't already exist, let's insert.
-                    b = runQuery(new QueryPS(USER_INSERT) {
-                        @Override
-                        void onRun(PreparedStatement preparedStatement) throws SQLException {
-                            preparedStatement.setString(1, user.getUuid().toString());
-                            preparedStatement.setString(2, user.getName());
-                            preparedStatement.setString(3, user.getPrimaryGroup());
-                            preparedStatement.setString(4, gson.toJson(exportToLegacy(user.getNodes())));
-                        }
-                    });
+            public boolean onRun(Connection connection) throws SQLException {
+                {
+                    @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(UUIDCACHE_SELECT);
+                    preparedStatement.setString(1, name);
+                    @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
+                    if (resultSet.next()) {
+                        previous[0] = UUID.fromString(resultSet.getString("uuid"));
+                    }
+                }
 
+                UUID internal = uuid;
+                if (onlineMode || previous[0] == null) {
+                    @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(getUUIDCacheUpsert());
+                    preparedStatement.setString(1, name);
+                    preparedStatement.setString(2, uuid.toString());
+                    preparedStatement.execute();
                 } else {
-                    // User exists, let's update.
-                    b = runQuery(new QueryPS(USER_UPDATE) {
-                        @Override
-                        void onRun(PreparedStatement preparedStatement) throws SQLException {
-                            preparedStatement.setString(1, user.getName());
-                            preparedStatement.setString(2, user.getPrimaryGroup());
-                            preparedStatement.setString(3, gson.toJson(exportToLegacy(user.getNodes())));
-                            preparedStatement.setString(4, user.getUuid().toString());
-                        }
-                    });
+                    internal = previous[0];
+                }
+
+                user[0] = plugin.getUserManager().make(internal, username);
+                if (selectUser(connection, user[0])) {
+                    @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(USER_UPDATE_NAME);
+                    preparedStatement.setString(1, user[0].getName());
+                    preparedStatement.setString(2, user[0].getUuid().toString());
+                    preparedStatement.execute();
+                }
+                return true;
+            }
+        });
+
+        if (success) plugin.getUserManager().updateOrSet(user[0]);
+        return previous[0];
+    }
+
+    /**
+     * Reads a user's data into the given user, if they have been saved before
+     * @param connection the connection to use
+     * @param user the user to read into
+     * @return true if the saved name is different to the user's name, and should be updated
+     * @throws SQLException if the user could not be read
+     */
+    private static boolean selectUser(Connection connection, User user) throws SQLException {
+        String name;
+        String primaryGroup;
+
+        {
+            @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(USER_SELECT);
+            preparedStatement.setString(1, user.getUuid().toString());
+            @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                // User doesn't exist yet
+                return false;
+            }
+
+            name = resultSet.getString("name");
+            primaryGroup = resultSet.getString("primary_group");
+        }
+
+        user.setNodes(selectNodes(connection, USER_PERMISSIONS_SELECT, user.getUuid().toString()));
+        user.setPrimaryGroup(primaryGroup);
+
+        if (user.getName().equalsIgnoreCase("null")) {
+            user.setName(name);
+            return false;
+        }
+        return !name.equals(user.getName());
+    }
+
+    @Override
+    public boolean saveUser(User user) {
+        return saveUsers(Collections.singletonList(user));
+    }
+
+    @Override
+    public boolean saveUsers(Collection<User> users) {
+        boolean success = runTransaction(new QueryTX() {
+            @Override
+            public boolean onRun(Connection connection) throws SQLException {
+                @Cleanup PreparedStatement deleteUser = connection.prepareStatement(USER_DELETE);
+                @Cleanup PreparedStatement deletePermissions = connection.prepareStatement(USER_PERMISSIONS_DELETE);
+                @Cleanup PreparedStatement upsert = connection.prepareStatement(getUserUpsert());
+                @Cleanup PreparedStatement select = connection.prepareStatement(USER_PERMISSIONS_SELECT);
+                @Cleanup PreparedStatement insert = connection.prepareStatement(USER_PERMISSIONS_INSERT);
+                @Cleanup PreparedStatement delete = connection.prepareStatement(USER_PERMISSIONS_DELETE_SPECIFIC);
+
+                for (User user : users) {
+                    final String uuid = user.getUuid().toString();
+
+                    if (!plugin.getUserManager().shouldSave(user)) {
+                        deleteUser.setString(1, uuid);
+                        deleteUser.addBatch();
+                        deletePermissions.setString(1, uuid);
+                        deletePermissions.addBatch();
+                        continue;
+                    }
+
+                    upsert.setString(1, uuid);
+                    upsert.setString(2, user.getName());
+                    upsert.setString(3, user.getPrimaryGroup());
+                    upsert.setString(4, EMPTY_PERMS);
+                    upsert.addBatch();
+
+                    saveNodes(select, insert, delete, uuid, user.getNodes());
                 }
-                return b;
+
+                deleteUser.executeBatch();
+                deletePermissions.executeBatch();
+                upsert.executeBatch();
+                delete.executeBatch();
+                insert.executeBatch();
+                return true;
             }
         });
 
@@ -241,10 +911,25 @@ abstract class SQLDatastore extends Datastore {
 
     @Override
     public boolean cleanupUsers() {
-        boolean success = runQuery(new QueryPS(USER_DELETE_ALL) {
+        final NodeDataHolder defaultNode = NodeDataHolder.fromNode(new me.lucko.luckperms.utils.Node.Builder("group.default").build());
+
+        boolean success = runTransaction(new QueryTX() {
             @Override
-            void onRun(PreparedStatement preparedStatement) throws SQLException {
-                preparedStatement.setString(1, "{\"group.default\":true}");
+            public boolean onRun(Connection connection) throws SQLException {
+                @Cleanup PreparedStatement deleteUsers = connection.prepareStatement(USER_DELETE_DEFAULT);
+                deleteUsers.setString(1, "default");
+                deleteUsers.setString(2, EMPTY_PERMS);
+                deleteUsers.setString(3, defaultNode.getPermission());
+                deleteUsers.setBoolean(4, defaultNode.isValue());
+                deleteUsers.setString(5, defaultNode.getServer());
+                deleteUsers.setString(6, defaultNode.getWorld());
+                deleteUsers.setLong(7, defaultNode.getExpiry());
+                deleteUsers.setString(8, defaultNode.getContexts());
+                deleteUsers.execute();
+
+                @Cleanup PreparedStatement deletePermissions = connection.prepareStatement(USER_PERMISSIONS_DELETE_ORPHANED);
+                deletePermissions.execute();
+                return true;
             }
         });
         return success;
@@ -273,30 +958,51 @@ abstract class SQLDatastore extends Datastore {
     }
 
     @Override
-    public boolean createAndLoadGroup(String name) {
-        Group group = plugin.getGroupManager().make(name);
-        boolean success = runQuery(new QueryRS(GROUP_SELECT) {
+    public Set<UUID> getUsersInGroup(String group) {
+        Set<UUID> uuids = new HashSet<>();
+
+        boolean success = runQuery(new QueryRS(USER_PERMISSIONS_SELECT_HOLDERS) {
             @Override
             void onRun(PreparedStatement preparedStatement) throws SQLException {
-                preparedStatement.setString(1, group.getName());
+                preparedStatement.setString(1, "group." + group.toLowerCase());
+                preparedStatement.setBoolean(2, true);
             }
 
             @Override
             boolean onResult(ResultSet resultSet) throws SQLException {
-                boolean success = true;
-                if (!resultSet.next()) {
-                    success = runQuery(new QueryPS(GROUP_INSERT) {
-                        @Override
-                        void onRun(PreparedStatement preparedStatement) throws SQLException {
-                            preparedStatement.setString(1, group.getName());
-                            preparedStatement.setString(2, gson.toJson(exportToLegacy(group.getNodes())));
-                        }
-                    });
+                while (resultSet.next()) {
+                    uuids.add(UUID.fromString(resultSet.getString("uuid")));
+                }
+                return true;
+            }
+        });
+
+        return success ? uuids : null;
+    }
+
+    @Override
+    public boolean createAndLoadGroup(String name) {
+        Group group = plugin.getGroupManager().make(name);
+        boolean success = runTransaction(new QueryTX() {
+            @Override
+            public boolean onRun(Connection connection) throws SQLException {
+                boolean exists;
+                {
+                    @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(GROUP_SELECT);
+                    preparedStatement.setString(1, group.getName());
+                    @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
+                    exists = resultSet.next();
+                }
+
+                if (!exists) {
+                    @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(GROUP_INSERT);
+                    preparedStatement.setString(1, group.getName());
+                    preparedStatement.setString(2, EMPTY_PERMS);
+                    preparedStatement.execute();
                 } else {
-                    Map<String, Boolean> nodes = gson.fromJson(resultSet.getString("perms"), NM_TYPE);
-                    group.setNodes(nodes);
+                    group.setNodes(selectNodes(connection, GROUP_PERMISSIONS_SELECT, group.getName()));
                 }
-                return success;
+                return true;
             }
         });
 
@@ -307,22 +1013,22 @@ abstract class SQLDatastore extends Datastore {
     @Override
     public boolean loadGroup(String name) {
         Group group = plugin.getGroupManager().make(name);
-        boolean success = runQuery(new QueryRS(GROUP_SELECT) {
+        boolean success = runTransaction(new QueryTX() {
             @Override
-            void onRun(PreparedStatement preparedStatement) throws SQLException {
-                preparedStatement.setString(1, name);
-            }
-
-            @Override
-            boolean onResult(ResultSet resultSet) throws SQLException {
-                if (resultSet.next()) {
-                    Map<String, Boolean> nodes = gson.fromJson(resultSet.getString("perms"), NM_TYPE);
-                    group.setNodes(nodes);
-                    return true;
+            public boolean onRun(Connection connection) throws SQLException {
+                {
+                    @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(GROUP_SELECT);
+                    preparedStatement.setString(1, name);
+                    @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
+                    if (!resultSet.next()) {
+                        return false;
+                    }
                 }
-                return false;
+
+                group.setNodes(selectNodes(connection, GROUP_PERMISSIONS_SELECT, name));
+                return true;
             }
-        });
+        }, true);
 
         if (success) plugin.getGroupManager().updateOrSet(group);
         return success;
@@ -330,40 +1036,77 @@ abstract class SQLDatastore extends Datastore {
 
     @Override
     public boolean loadAllGroups() {
-        List<Group> groups = new ArrayList<>();
-        boolean success = runQuery(new QueryRS(GROUP_SELECT_ALL) {
+        Map<String, Group> groups = new HashMap<>();
+        boolean success = runTransaction(new QueryTX() {
             @Override
-            void onRun(PreparedStatement preparedStatement) throws SQLException {
+            public boolean onRun(Connection connection) throws SQLException {
+                {
+                    @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(GROUP_SELECT_ALL);
+                    @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
+                    while (resultSet.next()) {
+                        String name = resultSet.getString("name");
+                        groups.put(name, plugin.getGroupManager().make(name));
+                    }
+                }
 
-            }
+                Map<String, Set<Node>> nodes = new HashMap<>();
+                {
+                    @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(GROUP_PERMISSIONS_SELECT_ALL);
+                    @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
+                    while (resultSet.next()) {
+                        String name = resultSet.getString("name");
+                        if (!nodes.containsKey(name)) {
+                            nodes.put(name, new HashSet<>());
+                        }
+                        nodes.get(name).add(getNodeData(resultSet).toNode());
+                    }
+                }
 
-            @Override
-            boolean onResult(ResultSet resultSet) throws SQLException {
-                while (resultSet.next()) {
-                    Group group = plugin.getGroupManager().make(resultSet.getString("name"));
-                    Map<String, Boolean> nodes = gson.fromJson(resultSet.getString("perms"), NM_TYPE);
-                    group.setNodes(nodes);
-                    groups.add(group);
+                for (Group group : groups.values()) {
+                    Set<Node> n = nodes.get(group.getName());
+                    if (n != null) {
+                        group.setNodes(n);
+                    }
                 }
                 return true;
             }
-        });
+        }, true);
 
         if (success) {
             GroupManager gm = plugin.getGroupManager();
             gm.unloadAll();
-            groups.forEach(gm::set);
+            groups.values().forEach(gm::set);
         }
         return success;
     }
 
     @Override
     public boolean saveGroup(Group group) {
-        boolean success = runQuery(new QueryPS(GROUP_UPDATE) {
+        return saveGroups(Collections.singletonList(group));
+    }
+
+    @Override
+    public boolean saveGroups(Collection<Group> groups) {
+        boolean success = runTransaction(new QueryTX() {
             @Override
-            void onRun(PreparedStatement preparedStatement) throws SQLException {
-                preparedStatement.setString(1, gson.toJson(exportToLegacy(group.getNodes())));
-                preparedStatement.setString(2, group.getName());
+            public boolean onRun(Connection connection) throws SQLException {
+                @Cleanup PreparedStatement upsert = connection.prepareStatement(getGroupUpsert());
+                @Cleanup PreparedStatement select = connection.prepareStatement(GROUP_PERMISSIONS_SELECT);
+                @Cleanup PreparedStatement insert = connection.prepareStatement(GROUP_PERMISSIONS_INSERT);
+                @Cleanup PreparedStatement delete = connection.prepareStatement(GROUP_PERMISSIONS_DELETE_SPECIFIC);
+
+                for (Group group : groups) {
+                    upsert.setString(1, group.getName());
+                    upsert.setString(2, EMPTY_PERMS);
+                    upsert.addBatch();
+
+                    saveNodes(select, insert, delete, group.getName(), group.getNodes());
+                }
+
+                upsert.executeBatch();
+                delete.executeBatch();
+                insert.executeBatch();
+                return true;
             }
         });
         return success;
@@ -371,10 +1114,17 @@ abstract class SQLDatastore extends Datastore {
 
     @Override
     public boolean deleteGroup(Group group) {
-        boolean success = runQuery(new QueryPS(GROUP_DELETE) {
+        boolean success = runTransaction(new QueryTX() {
             @Override
-            void onRun(PreparedStatement preparedStatement) throws SQLException {
-                preparedStatement.setString(1, group.getName());
+            public boolean onRun(Connection connection) throws SQLException {
+                @Cleanup PreparedStatement deleteGroup = connection.prepareStatement(GROUP_DELETE);
+                deleteGroup.setString(1, group.getName());
+                deleteGroup.execute();
+
+                @Cleanup PreparedStatement deletePermissions = connection.prepareStatement(GROUP_PERMISSIONS_DELETE);
+                deletePermissions.setString(1, group.getName());
+                deletePermissions.execute();
+                return true;
             }
         });
 
@@ -385,27 +1135,28 @@ abstract class SQLDatastore extends Datastore {
     @Override
     public boolean createAndLoadTrack(String name) {
         Track track = plugin.getTrackManager().make(name);
-        boolean success = runQuery(new QueryRS(TRACK_SELECT) {
+        boolean success = runTransaction(new QueryTX() {
             @Override
-            void onRun(PreparedStatement preparedStatement) throws SQLException {
-                preparedStatement.setString(1, track.getName());
-            }
+            public boolean onRun(Connection connection) throws SQLException {
+                String groups = null;
+                {
+                    @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(TRACK_SELECT);
+                    preparedStatement.setString(1, track.getName());
+                    @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
+                    if (resultSet.next()) {
+                        groups = resultSet.getString("groups");
+                    }
+                }
 
-            @Override
-            boolean onResult(ResultSet resultSet) throws SQLException {
-                boolean success = true;
-                if (!resultSet.next()) {
-                    success = runQuery(new QueryPS(TRACK_INSERT) {
-                        @Override
-                        void onRun(PreparedStatement preparedStatement) throws SQLException {
-                            preparedStatement.setString(1, track.getName());
-                            preparedStatement.setString(2, gson.toJson(track.getGroups()));
-                        }
-                    });
+                if (groups == null) {
+                    @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(TRACK_INSERT);
+                    preparedStatement.setString(1, track.getName());
+                    preparedStatement.setString(2, gson.toJson(track.getGroups()));
+                    preparedStatement.execute();
                 } else {
-                    track.setGroups(gson.fromJson(resultSet.getString("groups"), T_TYPE));
+                    track.setGroups(gson.fromJson(groups, T_TYPE));
                 }
-                return success;
+                return true;
             }
         });
 
@@ -466,11 +1217,11 @@ abstract class SQLDatastore extends Datastore {
 
     @Override
     public boolean saveTrack(Track track) {
-        boolean success = runQuery(new QueryPS(TRACK_UPDATE) {
+        boolean success = runQuery(new QueryPS(getTrackUpsert()) {
             @Override
             void onRun(PreparedStatement preparedStatement) throws SQLException {
-                preparedStatement.setString(1, gson.toJson(track.getGroups()));
-                preparedStatement.setString(2, track.getName());
+                preparedStatement.setString(1, track.getName());
+                preparedStatement.setString(2, gson.toJson(track.getGroups()));
             }
         });
         return success;
@@ -492,33 +1243,11 @@ abstract class SQLDatastore extends Datastore {
     @Override
     public boolean saveUUIDData(String username, UUID uuid) {
         final String u = username.toLowerCase();
-        boolean success = runQuery(new QueryRS(UUIDCACHE_SELECT) {
+        boolean success = runQuery(new QueryPS(getUUIDCacheUpsert()) {
             @Override
             void onRun(PreparedStatement preparedStatement) throws SQLException {
                 preparedStatement.setString(1, u);
-            }
-
-            @Override
-            boolean onResult(ResultSet resultSet) throws SQLException {
-                boolean success;
-                if (resultSet.next()) {
-                    success = runQuery(new QueryPS(UUIDCACHE_UPDATE) {
-                        @Override
-                        void onRun(PreparedStatement preparedStatement) throws SQLException {
-                            preparedStatement.setString(1, uuid.toString());
-                            preparedStatement.setString(2, u);
-                        }
-                    });
-                } else {
-                    success = runQuery(new QueryPS(UUIDCACHE_INSERT) {
-                        @Override
-                        void onRun(PreparedStatement preparedStatement) throws SQLException {
-                            preparedStatement.setString(1, u);
-                            preparedStatement.setString(2, uuid.toString());
-                        }
-                    });
-                }
-                return success;
+                preparedStatement.setString(2, uuid.toString());
             }
         });
 
@@ -573,6 +1302,38 @@ abstract class SQLDatastore extends Datastore {
         return success ? name[0] : null;
     }
 
+    @Override
+    public Map<UUID, String> getNames(Collection<UUID> uuids) {
+        final List<String> u = uuids.stream().map(UUID::toString).distinct().collect(Collectors.toList());
+        final Map<UUID, String> names = new HashMap<>();
+        if (u.isEmpty()) {
+            return names;
+        }
+
+        final String query = String.format(UUIDCACHE_SELECT_NAMES, String.join(", ", Collections.nCopies(UUIDCACHE_BATCH_SIZE, "?")));
+
+        boolean success = runTransaction(new QueryTX() {
+            @Override
+            public boolean onRun(Connection connection) throws SQLException {
+                @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(query);
+                for (int i = 0; i < u.size(); i += UUIDCACHE_BATCH_SIZE) {
+                    List<String> batch = u.subList(i, Math.min(i + UUIDCACHE_BATCH_SIZE, u.size()));
+                    for (int j = 0; j < UUIDCACHE_BATCH_SIZE; j++) {
+                        preparedStatement.setString(j + 1, batch.get(Math.min(j, batch.size() - 1)));
+                    }
+
+                    @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
+                    while (resultSet.next()) {
+                        names.putIfAbsent(UUID.fromString(resultSet.getString("uuid")), resultSet.getString("name"));
+                    }
+                }
+                return true;
+            }
+        }, true);
+
+        return success ? names : null;
+    }
+
     private class Query extends QueryPS {
         Query(String query) {
             super(query);
@@ -598,4 +1359,8 @@ abstract class SQLDatastore extends Datastore {
         abstract void onRun(PreparedStatement preparedStatement) throws SQLException;
         abstract boolean onResult(ResultSet resultSet) throws SQLException;
     }
+
+    interface QueryTX {
+        boolean onRun(Connection connection) throws SQLException;
+    }
 }
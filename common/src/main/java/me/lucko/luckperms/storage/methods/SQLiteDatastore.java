@@ -22,22 +22,65 @@
 
 package me.lucko.luckperms.storage.methods;
 
-import lombok.Cleanup;
+import com.google.common.collect.ImmutableList;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import me.lucko.luckperms.LuckPermsPlugin;
 
 import java.io.File;
 import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SQLiteDatastore extends SQLDatastore {
 
     private static final String CREATETABLE_UUID = "CREATE TABLE IF NOT EXISTS `lp_uuid` (`name` VARCHAR(16) NOT NULL, `uuid` VARCHAR(36) NOT NULL, PRIMARY KEY (`name`));";
     private static final String CREATETABLE_USERS = "CREATE TABLE IF NOT EXISTS `lp_users` (`uuid` VARCHAR(36) NOT NULL, `name` VARCHAR(16) NOT NULL, `primary_group` VARCHAR(36) NOT NULL, `perms` TEXT NOT NULL, PRIMARY KEY (`uuid`));";
+    private static final String CREATETABLE_USER_PERMISSIONS = "CREATE TABLE IF NOT EXISTS `lp_user_permissions` (`id` INTEGER PRIMARY KEY NOT NULL, `uuid` VARCHAR(36) NOT NULL, `permission` TEXT NOT NULL, `value` BOOL NOT NULL, `server` VARCHAR(36) NOT NULL, `world` VARCHAR(36) NOT NULL, `expiry` BIGINT NOT NULL, `contexts` TEXT NOT NULL);";
     private static final String CREATETABLE_GROUPS = "CREATE TABLE IF NOT EXISTS `lp_groups` (`name` VARCHAR(36) NOT NULL, `perms` TEXT NULL, PRIMARY KEY (`name`));";
+    private static final String CREATETABLE_GROUP_PERMISSIONS = "CREATE TABLE IF NOT EXISTS `lp_group_permissions` (`id` INTEGER PRIMARY KEY NOT NULL, `name` VARCHAR(36) NOT NULL, `permission` TEXT NOT NULL, `value` BOOL NOT NULL, `server` VARCHAR(36) NOT NULL, `world` VARCHAR(36) NOT NULL, `expiry` BIGINT NOT NULL, `contexts` TEXT NOT NULL);";
     private static final String CREATETABLE_TRACKS = "CREATE TABLE IF NOT EXISTS `lp_tracks` (`name` VARCHAR(36) NOT NULL, `groups` TEXT NULL, PRIMARY KEY (`name`));";
     private static final String CREATETABLE_ACTION = "CREATE TABLE IF NOT EXISTS `lp_actions` (`id` INTEGER PRIMARY KEY NOT NULL, `time` BIG INT NOT NULL, `actor_uuid` VARCHAR(36) NOT NULL, `actor_name` VARCHAR(16) NOT NULL, `type` CHAR(1) NOT NULL, `acted_uuid` VARCHAR(36) NOT NULL, `acted_name` VARCHAR(36) NOT NULL, `action` VARCHAR(256) NOT NULL);";
+    private static final String CREATETABLE_SCHEMA = "CREATE TABLE IF NOT EXISTS `lp_schema` (`version` INT NOT NULL, `description` VARCHAR(200) NOT NULL, `applied` BIGINT NOT NULL, PRIMARY KEY (`version`));";
+    private static final String CREATEINDEX_USER_PERMISSIONS_UUID = "CREATE INDEX IF NOT EXISTS `lp_user_permissions_uuid` ON `lp_user_permissions` (`uuid`);";
+    private static final String CREATEINDEX_USER_PERMISSIONS_PERMISSION = "CREATE INDEX IF NOT EXISTS `lp_user_permissions_permission` ON `lp_user_permissions` (`permission`);";
+    private static final String CREATEINDEX_GROUP_PERMISSIONS_NAME = "CREATE INDEX IF NOT EXISTS `lp_group_permissions_name` ON `lp_group_permissions` (`name`);";
+    private static final String CREATEINDEX_GROUP_PERMISSIONS_PERMISSION = "CREATE INDEX IF NOT EXISTS `lp_group_permissions_permission` ON `lp_group_permissions` (`permission`);";
+    private static final String CREATEINDEX_ACTIONS_TIME = "CREATE INDEX IF NOT EXISTS `lp_actions_time` ON `lp_actions` (`time`);";
+    private static final String CREATEINDEX_ACTIONS_ACTOR = "CREATE INDEX IF NOT EXISTS `lp_actions_actor` ON `lp_actions` (`actor_uuid`, `time`);";
+    private static final String CREATEINDEX_ACTIONS_ACTED = "CREATE INDEX IF NOT EXISTS `lp_actions_acted` ON `lp_actions` (`acted_uuid`, `time`);";
+    private static final String CREATEINDEX_ACTIONS_ACTED_NAME = "CREATE INDEX IF NOT EXISTS `lp_actions_acted_name` ON `lp_actions` (`acted_name`, `time`);";
+    private static final String CREATEINDEX_UUID_UUID = "CREATE INDEX IF NOT EXISTS `lp_uuid_uuid` ON `lp_uuid` (`uuid`);";
+
+    private static final List<SchemaMigration> MIGRATIONS = ImmutableList.of(
+            SchemaMigration.of(1, "Index the action log", CREATEINDEX_ACTIONS_TIME, CREATEINDEX_ACTIONS_ACTOR, CREATEINDEX_ACTIONS_ACTED, CREATEINDEX_ACTIONS_ACTED_NAME),
+            SchemaMigration.of(2, "Index the uuid cache by uuid", CREATEINDEX_UUID_UUID)
+    );
+
+    private static final String USER_UPSERT = "INSERT OR REPLACE INTO lp_users VALUES(?, ?, ?, ?)";
+    private static final String GROUP_UPSERT = "INSERT OR REPLACE INTO lp_groups VALUES(?, ?)";
+    private static final String TRACK_UPSERT = "INSERT OR REPLACE INTO lp_tracks VALUES(?, ?)";
+    private static final String UUIDCACHE_UPSERT = "INSERT OR REPLACE INTO lp_uuid VALUES(?, ?)";
+
+    private static final int MAX_READ_CONNECTIONS = 4;
+    private static final int MAX_WRITE_BATCH = 64;
+    private static final WriteTask SHUTDOWN = new WriteTask(null);
 
     private final File file;
-    private Connection connection = null;
+
+    // Used by the writer thread, or by the caller once the writer has stopped, and closed on shutdown
+    private volatile Connection connection = null;
+
+    /*
+        In WAL mode, readers don't block the writer, and the writer doesn't block readers.
+        Reads are spread over a small pool of connections, whilst all writes go through a single thread, which commits
+        them in batches.
+     */
+    private final BlockingQueue<Connection> readConnections = new LinkedBlockingQueue<>();
+    private final AtomicInteger openReadConnections = new AtomicInteger(0);
+    private final BlockingQueue<WriteTask> writeQueue = new LinkedBlockingQueue<>();
+    private volatile Thread writer = null;
 
     public SQLiteDatastore(LuckPermsPlugin plugin, File file) {
         super(plugin, "SQLite");
@@ -46,7 +89,12 @@ public class SQLiteDatastore extends SQLDatastore {
 
     @Override
     public void init() {
-        if (!setupTables(CREATETABLE_UUID, CREATETABLE_USERS, CREATETABLE_GROUPS, CREATETABLE_TRACKS, CREATETABLE_ACTION)) {
+        writer = new Thread(this::processWrites, "luckperms-sqlite-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        if (!setupTables(CREATETABLE_UUID, CREATETABLE_USERS, CREATETABLE_USER_PERMISSIONS, CREATETABLE_GROUPS, CREATETABLE_GROUP_PERMISSIONS, CREATETABLE_TRACKS, CREATETABLE_ACTION, CREATETABLE_SCHEMA,
+                CREATEINDEX_USER_PERMISSIONS_UUID, CREATEINDEX_USER_PERMISSIONS_PERMISSION, CREATEINDEX_GROUP_PERMISSIONS_NAME, CREATEINDEX_GROUP_PERMISSIONS_PERMISSION)) {
             plugin.getLog().severe("Error occurred whilst initialising the database.");
             shutdown();
         } else {
@@ -55,66 +103,224 @@ public class SQLiteDatastore extends SQLDatastore {
     }
 
     @Override
-    boolean runQuery(QueryPS queryPS) {
-        boolean success = false;
-        try {
-            Connection connection = getConnection();
-            if (connection == null || connection.isClosed()) {
-                throw new IllegalStateException("SQL connection is null");
+    public void shutdown() {
+        if (writer != null && writer.isAlive()) {
+            writeQueue.add(SHUTDOWN);
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
+        }
 
-            @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(queryPS.getQuery());
-            queryPS.onRun(preparedStatement);
-            preparedStatement.execute();
+        try {
+            Connection connection = this.connection;
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
 
-            success = true;
+            Connection c;
+            while ((c = readConnections.poll()) != null) {
+                c.close();
+            }
         } catch (SQLException e) {
             e.printStackTrace();
         }
-        return success;
     }
 
     @Override
-    boolean runQuery(QueryRS queryRS) {
-        boolean success = false;
+    synchronized Connection getConnection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            connection = openConnection();
+        }
+
+        return connection;
+    }
+
+    private Connection openConnection() throws SQLException {
         try {
-            Connection connection = getConnection();
-            if (connection == null || connection.isClosed()) {
-                throw new IllegalStateException("SQL connection is null");
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException ignored) {}
+
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode=WAL");
+            // In WAL mode, NORMAL only syncs at checkpoints. A power loss may roll back the last commits, but can't corrupt the database.
+            statement.execute("PRAGMA synchronous=NORMAL");
+            statement.execute("PRAGMA busy_timeout=5000");
+        }
+
+        return StatementCache.wrap(connection);
+    }
+
+    private Connection borrowReadConnection() throws SQLException, InterruptedException {
+        Connection c = readConnections.poll();
+        if (c == null) {
+            if (openReadConnections.incrementAndGet() <= MAX_READ_CONNECTIONS) {
+                try {
+                    return openConnection();
+                } catch (SQLException e) {
+                    openReadConnections.decrementAndGet();
+                    throw e;
+                }
             }
 
-            @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(queryRS.getQuery());
-            queryRS.onRun(preparedStatement);
+            openReadConnections.decrementAndGet();
+            c = readConnections.take();
+        }
 
-            @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
-            success = queryRS.onResult(resultSet);
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (c.isClosed()) {
+            c = openConnection();
         }
-        return success;
+        return c;
     }
 
     @Override
-    public void shutdown() {
+    boolean runTransaction(QueryTX queryTX, boolean readOnly) {
+        if (readOnly) {
+            Connection c = null;
+            try {
+                c = borrowReadConnection();
+                return runTransaction(c, queryTX);
+            } catch (SQLException | RuntimeException e) {
+                e.printStackTrace();
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                if (c != null) {
+                    readConnections.add(c);
+                }
+            }
+        }
+
+        if (Thread.currentThread() == writer) {
+            // Already inside a write batch.
+            try {
+                return queryTX.onRun(getConnection());
+            } catch (SQLException | RuntimeException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        if (writer == null || !writer.isAlive()) {
+            return super.runTransaction(queryTX, false);
+        }
+
+        WriteTask task = new WriteTask(queryTX);
+        writeQueue.add(task);
         try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
+            return task.getResult().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void processWrites() {
+        List<WriteTask> batch = new ArrayList<>();
+        boolean running = true;
+
+        while (running) {
+            try {
+                batch.add(writeQueue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            writeQueue.drainTo(batch, MAX_WRITE_BATCH - 1);
+
+            running = !batch.remove(SHUTDOWN);
+            if (!batch.isEmpty()) {
+                processBatch(batch);
+            }
+            batch.clear();
+        }
+
+        // Don't leave anything waiting forever
+        WriteTask task;
+        while ((task = writeQueue.poll()) != null) {
+            task.getResult().complete(false);
+        }
+    }
+
+    /**
+     * Runs a batch of writes in a single transaction. Each write gets its own savepoint, so a failing write is rolled
+     * back without affecting the others.
+     */
+    private void processBatch(List<WriteTask> batch) {
+        Map<WriteTask, Boolean> results = new HashMap<>();
+        try {
+            Connection c = getConnection();
+            c.setAutoCommit(false);
+            try {
+                for (WriteTask task : batch) {
+                    Savepoint savepoint = c.setSavepoint();
+                    boolean success;
+                    try {
+                        success = task.getQueryTX().onRun(c);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        success = false;
+                    }
+
+                    if (success) {
+                        c.releaseSavepoint(savepoint);
+                    } else {
+                        c.rollback(savepoint);
+                    }
+                    results.put(task, success);
+                }
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
             }
         } catch (SQLException e) {
             e.printStackTrace();
+            results.clear();
+        }
+
+        for (WriteTask task : batch) {
+            task.getResult().complete(results.getOrDefault(task, false));
         }
     }
 
     @Override
-    Connection getConnection() throws SQLException {
-        if (connection == null || connection.isClosed()) {
-            try {
-                Class.forName("org.sqlite.JDBC");
-            } catch (ClassNotFoundException ignored) {}
+    String getUserUpsert() {
+        return USER_UPSERT;
+    }
 
-            connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
-        }
+    @Override
+    String getGroupUpsert() {
+        return GROUP_UPSERT;
+    }
 
-        return connection;
+    @Override
+    String getTrackUpsert() {
+        return TRACK_UPSERT;
+    }
+
+    @Override
+    String getUUIDCacheUpsert() {
+        return UUIDCACHE_UPSERT;
+    }
+
+    @Override
+    List<SchemaMigration> getMigrations() {
+        return MIGRATIONS;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    private static class WriteTask {
+        private final QueryTX queryTX;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
     }
 }
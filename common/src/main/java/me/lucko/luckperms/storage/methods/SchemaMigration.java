@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage.methods;
+
+import lombok.AccessLevel;
+import lombok.Cleanup;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * A change to an SQL schema, which is applied once and then recorded in the lp_schema table.
+ *
+ * <p> Migrations are applied in version order when the datastore starts. Each one must be idempotent, as a migration
+ * which is interrupted (or which runs DDL that can't be rolled back) may be applied again.
+ */
+@Getter
+@ToString(of = {"version", "description"})
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+class SchemaMigration {
+
+    static SchemaMigration of(int version, String description, Step step) {
+        return new SchemaMigration(version, description, step);
+    }
+
+    static SchemaMigration of(int version, String description, String... statements) {
+        return new SchemaMigration(version, description, new Step() {
+            @Override
+            public void apply(Connection connection) throws SQLException {
+                for (String statement : statements) {
+                    @Cleanup PreparedStatement preparedStatement = connection.prepareStatement(statement);
+                    preparedStatement.execute();
+                }
+            }
+        });
+    }
+
+    private final int version;
+    private final String description;
+    private final Step step;
+
+    void apply(Connection connection) throws SQLException {
+        step.apply(connection);
+    }
+
+    interface Step {
+        void apply(Connection connection) throws SQLException;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage.methods;
+
+import lombok.experimental.UtilityClass;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Wraps a {@link Connection}, so that statements prepared with {@link Connection#prepareStatement(String)} are cached
+ * and reused. Closing a cached statement only clears its parameters, the statement is closed with the connection.
+ *
+ * <p> Statements are cached per connection, so the wrapped connection must only be used by one thread at a time.
+ */
+@UtilityClass
+class StatementCache {
+
+    static Connection wrap(Connection connection) {
+        Map<String, PreparedStatement> cache = new HashMap<>();
+
+        return (Connection) Proxy.newProxyInstance(StatementCache.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            if (method.getName().equals("prepareStatement") && args.length == 1) {
+                String query = (String) args[0];
+                PreparedStatement statement = cache.get(query);
+                if (statement == null || statement.isClosed()) {
+                    statement = connection.prepareStatement(query);
+                    cache.put(query, statement);
+                }
+                return reusable(statement);
+            }
+
+            if (method.getName().equals("close")) {
+                for (PreparedStatement statement : cache.values()) {
+                    try {
+                        statement.close();
+                    } catch (SQLException ignored) {}
+                }
+                cache.clear();
+            }
+
+            return invoke(connection, method, args);
+        });
+    }
+
+    private static PreparedStatement reusable(PreparedStatement statement) {
+        return (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+            if (method.getName().equals("close")) {
+                statement.clearParameters();
+                statement.clearBatch();
+                return null;
+            }
+
+            return invoke(statement, method, args);
+        });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
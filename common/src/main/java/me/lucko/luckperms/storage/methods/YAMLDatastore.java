@@ -25,6 +25,7 @@ package me.lucko.luckperms.storage.methods;
 import lombok.Cleanup;
 import me.lucko.luckperms.LuckPermsPlugin;
 import me.lucko.luckperms.groups.Group;
+import me.lucko.luckperms.groups.GroupManager;
 import me.lucko.luckperms.tracks.Track;
 import me.lucko.luckperms.users.User;
 import me.lucko.luckperms.utils.Node;
@@ -39,8 +40,8 @@ import static me.lucko.luckperms.core.PermissionHolder.exportToLegacy;
 
 @SuppressWarnings({"unchecked", "ResultOfMethodCallIgnored"})
 public class YAMLDatastore extends FlatfileDatastore {
-    public YAMLDatastore(LuckPermsPlugin plugin, File pluginDir) {
-        super(plugin, "Flatfile - YAML", pluginDir);
+    public YAMLDatastore(LuckPermsPlugin plugin, File pluginDir, boolean shardUsers) {
+        super(plugin, "Flatfile - YAML", pluginDir, ".yml", shardUsers);
     }
 
     private static Yaml getYaml() {
@@ -79,7 +80,7 @@ public class YAMLDatastore extends FlatfileDatastore {
         User user = plugin.getUserManager().make(uuid, username);
         boolean success = false;
 
-        File userFile = new File(usersDir, uuid.toString() + ".yml");
+        File userFile = findUserFile(uuid);
         if (userFile.exists()) {
             final String[] name = {null};
             success = doRead(userFile, values -> {
@@ -105,6 +106,10 @@ public class YAMLDatastore extends FlatfileDatastore {
                 }
             }
 
+            if (success) {
+                userManifest.put(userFile, user.getPrimaryGroup(), FlatfileManifest.isDefaultOnly(exportToLegacy(user.getNodes())));
+            }
+
         } else {
             success = true;
         }
@@ -115,16 +120,15 @@ public class YAMLDatastore extends FlatfileDatastore {
 
     @Override
     public boolean saveUser(User user) {
-        File userFile = new File(usersDir, user.getUuid().toString() + ".yml");
+        File userFile = getUserFile(user.getUuid());
         if (!plugin.getUserManager().shouldSave(user)) {
-            if (userFile.exists()) {
-                userFile.delete();
-            }
+            deleteUserFile(user.getUuid());
             return true;
         }
 
         if (!userFile.exists()) {
             try {
+                userFile.getParentFile().mkdirs();
                 userFile.createNewFile();
             } catch (IOException e) {
                 e.printStackTrace();
@@ -132,47 +136,67 @@ public class YAMLDatastore extends FlatfileDatastore {
             }
         }
 
+        Map<String, Boolean> nodes = exportToLegacy(user.getNodes());
         Map<String, Object> values = new HashMap<>();
         values.put("uuid", user.getUuid().toString());
         values.put("name", user.getName());
         values.put("primary-group", user.getPrimaryGroup());
-        values.put("perms", exportToLegacy(user.getNodes()));
-        return doWrite(userFile, values);
+        values.put("perms", nodes);
+        if (!doWrite(userFile, values)) {
+            return false;
+        }
+
+        removeOldUserFile(user.getUuid());
+        userManifest.put(userFile, user.getPrimaryGroup(), FlatfileManifest.isDefaultOnly(nodes));
+        return true;
     }
 
     @Override
     public boolean cleanupUsers() {
-        File[] files = usersDir.listFiles((dir, name) -> name.endsWith(".yml"));
-        if (files == null) return false;
+        List<File> files = getUserFiles();
 
+        // The names of the files which are kept
+        Set<String> names = new HashSet<>();
         for (File file : files) {
+            // Only files which have changed since they were last read or written need to be parsed
+            FlatfileManifest.Entry entry = userManifest.get(file);
+            if (entry != null) {
+                if (entry.isDefaultOnly()) {
+                    file.delete();
+                } else {
+                    names.add(file.getName());
+                }
+                continue;
+            }
+
             Map<String, Boolean> nodes = new HashMap<>();
-            doRead(file, values -> {
+            final String[] primaryGroup = {null};
+            boolean success = doRead(file, values -> {
+                primaryGroup[0] = (String) values.get("primary-group");
                 Map<String, Boolean> perms = (Map<String, Boolean>) values.get("perms");
                 nodes.putAll(perms);
                 return true;
             });
 
-            boolean shouldDelete = false;
-            if (nodes.size() == 1) {
-                for (Map.Entry<String, Boolean> e : nodes.entrySet()) {
-                    // There's only one
-                    shouldDelete = e.getKey().equalsIgnoreCase("group.default") && e.getValue();
-                }
+            if (success && FlatfileManifest.isDefaultOnly(nodes)) {
+                file.delete();
+                continue;
             }
 
-            if (shouldDelete) {
-                file.delete();
+            names.add(file.getName());
+            if (success) {
+                userManifest.put(file, primaryGroup[0], false);
             }
         }
+
+        userManifest.retain(names);
         return true;
     }
 
     @Override
     public Set<UUID> getUniqueUsers() {
-        String[] fileNames = usersDir.list((dir, name) -> name.endsWith(".yml"));
-        if (fileNames == null) return null;
-        return Arrays.stream(fileNames)
+        return getUserFiles().stream()
+                .map(File::getName)
                 .map(s -> s.substring(0, s.length() - 4))
                 .map(UUID::fromString)
                 .collect(Collectors.toSet());
@@ -208,7 +232,10 @@ public class YAMLDatastore extends FlatfileDatastore {
             return true;
         });
 
-        if (success) plugin.getGroupManager().updateOrSet(group);
+        if (success) {
+            groupManifest.put(groupFile, null, false);
+            plugin.getGroupManager().updateOrSet(group);
+        }
         return success;
     }
 
@@ -229,7 +256,10 @@ public class YAMLDatastore extends FlatfileDatastore {
             return true;
         });
 
-        if (success) plugin.getGroupManager().updateOrSet(group);
+        if (success) {
+            groupManifest.put(groupFile, null, false);
+            plugin.getGroupManager().updateOrSet(group);
+        }
         return success;
     }
 
@@ -241,8 +271,20 @@ public class YAMLDatastore extends FlatfileDatastore {
                 .map(s -> s.substring(0, s.length() - 4))
                 .collect(Collectors.toList());
 
-        plugin.getGroupManager().unloadAll();
-        groups.forEach(this::loadGroup);
+        GroupManager gm = plugin.getGroupManager();
+        for (Group group : gm.getAll().values()) {
+            if (!groups.contains(group.getName())) {
+                gm.unload(group);
+            }
+        }
+
+        // Loaded groups are only read again if their file has changed since it was last read or written
+        for (String group : groups) {
+            if (!gm.isLoaded(group) || groupManifest.get(new File(groupsDir, group + ".yml")) == null) {
+                loadGroup(group);
+            }
+        }
+        groupManifest.retain(Arrays.stream(fileNames).collect(Collectors.toSet()));
         return true;
     }
 
@@ -261,7 +303,12 @@ public class YAMLDatastore extends FlatfileDatastore {
         Map<String, Object> values = new HashMap<>();
         values.put("name", group.getName());
         values.put("perms", exportToLegacy(group.getNodes()));
-        return doWrite(groupFile, values);
+        if (!doWrite(groupFile, values)) {
+            return false;
+        }
+
+        groupManifest.put(groupFile, null, false);
+        return true;
     }
 
     @Override
@@ -270,6 +317,7 @@ public class YAMLDatastore extends FlatfileDatastore {
         if (groupFile.exists()) {
             groupFile.delete();
         }
+        groupManifest.remove(groupFile);
         return true;
     }
 
@@ -65,6 +65,12 @@ public abstract class User extends PermissionHolder implements Identifiable<UUID
     @Setter
     private String primaryGroup = null;
 
+    /**
+     * When this object was made, from {@link System#nanoTime()}. Users are made before their data is loaded.
+     */
+    @Getter
+    private final long createdAt = System.nanoTime();
+
     User(UUID uuid, LuckPermsPlugin plugin) {
         super(uuid.toString(), plugin);
         this.uuid = uuid;
@@ -30,13 +30,18 @@ import me.lucko.luckperms.exceptions.ObjectAlreadyHasException;
 import me.lucko.luckperms.utils.AbstractManager;
 import me.lucko.luckperms.utils.Identifiable;
 
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 @RequiredArgsConstructor
 public abstract class UserManager extends AbstractManager<UUID, User> {
     private final LuckPermsPlugin plugin;
 
+    // When each loaded user was last saved, from System#nanoTime
+    private final Map<UUID, Long> saveTimes = new ConcurrentHashMap<>();
+
     /**
      * Get a user object by name
      * @param name The name to search by
@@ -58,8 +63,19 @@ public abstract class UserManager extends AbstractManager<UUID, User> {
         giveDefaultIfNeeded(u, true);
     }
 
+    @Override
+    public void preUnload(User u) {
+        saveTimes.remove(u.getUuid());
+    }
+
     @Override
     public void copy(User from, User to) {
+        Long saved = saveTimes.get(to.getUuid());
+        if (saved != null && saved - from.getCreatedAt() > 0) {
+            // The data was loaded before the user was last saved, so the loaded user is newer.
+            return;
+        }
+
         if (from.getPrimaryGroup() != null) {
             // This isn't just a black user. we shouldn't override in that case.
             to.setNodes(from.getNodes());
@@ -68,6 +84,16 @@ public abstract class UserManager extends AbstractManager<UUID, User> {
         to.refreshPermissions();
     }
 
+    /**
+     * Records that a user is being saved. Loads of the user which started before this are not applied.
+     * @param user the user being saved
+     */
+    public void markSaved(User user) {
+        if (isLoaded(user.getUuid())) {
+            saveTimes.put(user.getUuid(), System.nanoTime());
+        }
+    }
+
     /**
      * Set a user to the default group
      * @param user the user to give to
@@ -24,9 +24,9 @@ package me.lucko.luckperms.utils;
 
 import lombok.AllArgsConstructor;
 import me.lucko.luckperms.LuckPermsPlugin;
-import me.lucko.luckperms.api.data.Callback;
 import me.lucko.luckperms.api.event.events.UserFirstLoginEvent;
 import me.lucko.luckperms.core.UuidCache;
+import me.lucko.luckperms.storage.LoadAdmission;
 import me.lucko.luckperms.users.User;
 
 import java.util.UUID;
@@ -35,35 +35,41 @@ import java.util.UUID;
 public class AbstractListener {
     private final LuckPermsPlugin plugin;
 
-    protected void onAsyncLogin(UUID u, String username) {
+    /**
+     * Loads a player's data as they log in
+     * @return false if the player's data could not be loaded in time, and they should be asked to try again
+     */
+    protected boolean onAsyncLogin(UUID u, String username) {
         final long startTime = System.currentTimeMillis();
 
-        final UuidCache cache = plugin.getUuidCache();
-        if (!cache.isOnlineMode()) {
-            UUID uuid = plugin.getDatastore().getUUID(username);
-            if (uuid != null) {
-                cache.addToCache(u, uuid);
-            } else {
-                // No previous data for this player
-                plugin.getApiProvider().fireEventAsync(new UserFirstLoginEvent(u, username));
-                cache.addToCache(u, u);
-                plugin.getDatastore().saveUUIDData(username, u, Callback.empty());
-            }
-        } else {
-            UUID uuid = plugin.getDatastore().getUUID(username);
+        final LoadAdmission admission = plugin.getDatastore().getAdmission();
+        if (admission != null && !admission.acquire(LoadAdmission.Priority.LOGIN)) {
+            plugin.getLog().warn("Too many users are being loaded, " + username + " was asked to try again.");
+            return false;
+        }
+
+        try {
+            final UuidCache cache = plugin.getUuidCache();
+            UUID uuid = plugin.getDatastore().loadUserOnLogin(username, u);
             if (uuid == null) {
+                // No previous data for this player
                 plugin.getApiProvider().fireEventAsync(new UserFirstLoginEvent(u, username));
             }
 
-            // Online mode, no cache needed. This is just for name -> uuid lookup.
-            plugin.getDatastore().saveUUIDData(username, u, Callback.empty());
+            if (!cache.isOnlineMode()) {
+                cache.addToCache(u, uuid == null ? u : uuid);
+            }
+        } finally {
+            if (admission != null) {
+                admission.release();
+            }
         }
 
-        plugin.getDatastore().loadUser(cache.getUUID(u), username);
         final long time = System.currentTimeMillis() - startTime;
         if (time >= 1000) {
             plugin.getLog().warn("Processing login for " + username + " took " + time + "ms.");
         }
+        return true;
     }
 
     protected void onLeave(UUID uuid) {
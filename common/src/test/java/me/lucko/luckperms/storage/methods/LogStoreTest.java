@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage.methods;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LogStoreTest {
+    private static final byte NAMESPACE = 1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTornRecord() throws Exception {
+        File dir = folder.newFolder();
+        LogStore store = open(dir);
+        store.put(NAMESPACE, "a", bytes("first"));
+        store.put(NAMESPACE, "b", bytes("second"));
+        store.close();
+
+        // Cut the last record off part way through, as if the write was interrupted
+        File segment = onlySegment(dir);
+        long length = segment.length();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(length - 3);
+        }
+
+        store = open(dir);
+        assertArrayEquals(bytes("first"), store.get(NAMESPACE, "a"));
+        assertNull(store.get(NAMESPACE, "b"));
+        assertTrue(segment.length() < length - 3);
+
+        // New records are written after the last complete one
+        store.put(NAMESPACE, "c", bytes("third"));
+        store.close();
+
+        store = open(dir);
+        assertArrayEquals(bytes("first"), store.get(NAMESPACE, "a"));
+        assertArrayEquals(bytes("third"), store.get(NAMESPACE, "c"));
+        store.close();
+    }
+
+    @Test
+    public void testCorruptRecord() throws Exception {
+        File dir = folder.newFolder();
+        LogStore store = open(dir);
+        store.put(NAMESPACE, "a", bytes("first"));
+        store.put(NAMESPACE, "b", bytes("second"));
+        store.put(NAMESPACE, "c", bytes("third"));
+        store.close();
+
+        // Flip a byte in the value of the second record, so it no longer matches its checksum
+        File segment = onlySegment(dir);
+        byte[] data = java.nio.file.Files.readAllBytes(segment.toPath());
+        int index = indexOf(data, bytes("second"));
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(index);
+            file.write('S');
+        }
+
+        // Everything from the invalid record onwards is discarded
+        store = open(dir);
+        assertArrayEquals(bytes("first"), store.get(NAMESPACE, "a"));
+        assertNull(store.get(NAMESPACE, "b"));
+        assertNull(store.get(NAMESPACE, "c"));
+        // header, op, namespace, key
+        assertEquals(index - (8 + 1 + 1 + 2 + 1), segment.length());
+        store.close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        File dir = folder.newFolder();
+        LogStore store = open(dir);
+
+        // Overwrite the same keys until several segments have filled up
+        byte[] value = new byte[16 * 1024];
+        for (int round = 0; round < 20; round++) {
+            for (int key = 0; key < 100; key++) {
+                Arrays.fill(value, (byte) round);
+                store.put(NAMESPACE, "key" + key, value);
+            }
+        }
+        for (int key = 0; key < 100; key += 2) {
+            store.delete(NAMESPACE, "key" + key);
+        }
+        store.put(NAMESPACE, "extra", bytes("value"));
+
+        // Segments which were mostly out of date have been removed
+        File[] segments = dir.listFiles((d, name) -> name.endsWith(".seg"));
+        assertNotNull(segments);
+        assertTrue("too many segments: " + segments.length, segments.length <= 3);
+        store.close();
+
+        // Only the latest values are left, and deleted keys stay deleted
+        store = open(dir);
+        assertEquals(51, store.keys(NAMESPACE).size());
+        Arrays.fill(value, (byte) 19);
+        for (int key = 0; key < 100; key++) {
+            if (key % 2 == 0) {
+                assertNull(store.get(NAMESPACE, "key" + key));
+            } else {
+                assertArrayEquals(value, store.get(NAMESPACE, "key" + key));
+            }
+        }
+        assertArrayEquals(bytes("value"), store.get(NAMESPACE, "extra"));
+        store.close();
+    }
+
+    private static LogStore open(File dir) throws IOException {
+        LogStore store = new LogStore(dir);
+        store.load();
+        return store;
+    }
+
+    private static File onlySegment(File dir) {
+        File[] segments = dir.listFiles((d, name) -> name.endsWith(".seg"));
+        assertNotNull(segments);
+        assertEquals(1, segments.length);
+        return segments[0];
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(byte[] data, byte[] search) {
+        for (int i = 0; i + search.length <= data.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, i, i + search.length), search)) {
+                return i;
+            }
+        }
+        throw new AssertionError("not found");
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage.methods;
+
+import com.google.common.collect.ImmutableMap;
+import com.mongodb.MongoClient;
+import com.mongodb.client.model.Projections;
+import me.lucko.luckperms.api.Node;
+import me.lucko.luckperms.groups.Group;
+import me.lucko.luckperms.groups.GroupManager;
+import me.lucko.luckperms.users.TestUser;
+import me.lucko.luckperms.users.User;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.junit.Test;
+
+import java.util.*;
+
+import static me.lucko.luckperms.core.PermissionHolder.exportToLegacy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the documents written by the MongoDB datastore, after encoding them to BSON and back in the same way the
+ * driver does. No MongoDB server or embedded stand-in is available to the build, so queries themselves aren't ran.
+ */
+public class MongoDBDatastoreTest {
+    private static final Codec<Document> CODEC = MongoClient.getDefaultCodecRegistry().get(Document.class);
+
+    @Test
+    public void testUserDocument() {
+        UUID uuid = UUID.randomUUID();
+        User user = new TestUser(uuid, "Luck", null);
+        user.setPrimaryGroup("admin");
+        user.setNodes(sampleNodes());
+
+        Document d = roundTrip(MongoDBDatastore.fromUser(user));
+        assertEquals(uuid, d.get("_id", UUID.class));
+        assertEquals("Luck", d.getString("name"));
+        assertEquals("admin", d.getString("primaryGroup"));
+        checkPerms(user.getNodes(), d);
+    }
+
+    @Test
+    public void testGroupDocument() {
+        Group group = new GroupManager(null).make("admin");
+        group.setNodes(sampleNodes());
+
+        Document d = roundTrip(MongoDBDatastore.fromGroup(group));
+        assertEquals("admin", d.getString("_id"));
+        checkPerms(group.getNodes(), d);
+    }
+
+    @Test
+    public void testUniqueUsersId() {
+        // getUniqueUsers only reads the id of each user, which is stored as a UUID rather than a string
+        UUID uuid = UUID.randomUUID();
+        Document d = roundTrip(MongoDBDatastore.fromUser(new TestUser(uuid, "Luck", null)));
+        Document projected = roundTrip(new Document("_id", d.get("_id")));
+
+        BsonDocument projection = Projections.include("_id").toBsonDocument(Document.class, MongoClient.getDefaultCodecRegistry());
+        assertEquals(Collections.singleton("_id"), projection.keySet());
+        assertTrue(projected.get("_id") instanceof UUID);
+        assertEquals(uuid, projected.get("_id", UUID.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void checkPerms(Set<Node> nodes, Document d) {
+        Map<String, Boolean> perms = (Map<String, Boolean>) d.get("perms");
+
+        // MongoDB doesn't allow '.' or '$' in field names
+        for (String key : perms.keySet()) {
+            assertFalse(key, key.contains(".") || key.contains("$"));
+        }
+        assertEquals(exportToLegacy(nodes), MongoDBDatastore.revert(perms));
+    }
+
+    private static Set<Node> sampleNodes() {
+        Set<Node> nodes = new HashSet<>();
+        nodes.add(new me.lucko.luckperms.utils.Node("group.default", true, false, 0L, null, null, null));
+        nodes.add(new me.lucko.luckperms.utils.Node("essentials.fly", false, false, 0L, null, null, null));
+        nodes.add(new me.lucko.luckperms.utils.Node("essentials.warp", true, false, 0L, "survival", "world_nether", null));
+        nodes.add(new me.lucko.luckperms.utils.Node("group.vip", true, false, 4000000000L, "lobby", null, null));
+        nodes.add(new me.lucko.luckperms.utils.Node("worldedit.*", true, false, 0L, null, null,
+                ImmutableMap.of("gamemode", "creative")));
+        nodes.add(new me.lucko.luckperms.utils.Node("shop.$price.10", true, false, 0L, null, null, null));
+        return nodes;
+    }
+
+    private static Document toDocument(BsonDocument bson) {
+        return CODEC.decode(new BsonDocumentReader(bson), DecoderContext.builder().build());
+    }
+
+    private static Document roundTrip(Document d) {
+        BsonDocument bson = new BsonDocument();
+        CODEC.encode(new BsonDocumentWriter(bson), d, EncoderContext.builder().build());
+        return toDocument(bson);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage.methods;
+
+import com.google.common.collect.ImmutableMap;
+import me.lucko.luckperms.api.Node;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static me.lucko.luckperms.core.PermissionHolder.exportToLegacy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NodeCodecTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Set<Node> nodes = sampleNodes();
+        assertEquals(nodes, NodeCodec.decode(in(encode(nodes))));
+        assertEquals(Collections.emptySet(), NodeCodec.decode(in(encode(Collections.emptySet()))));
+    }
+
+    @Test
+    public void testReadEitherFormat() throws Exception {
+        Set<Node> nodes = sampleNodes();
+
+        // Values written in either format are read back the same, and nothing after them is consumed
+        for (byte[] value : Arrays.asList(encode(nodes), encodeLegacy(nodes))) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(value);
+            out.writeUTF("after");
+
+            DataInputStream in = in(bytes.toByteArray());
+            assertEquals(nodes, LogStoreDatastore.readNodes(in));
+            assertEquals("after", in.readUTF());
+        }
+
+        assertTrue(NodeCodec.isEncoded(encode(nodes)[0]));
+        assertFalse(NodeCodec.isEncoded(encodeLegacy(nodes)[0]));
+        assertEquals(Collections.emptySet(), LogStoreDatastore.readNodes(in(encodeLegacy(Collections.emptySet()))));
+    }
+
+    private static Set<Node> sampleNodes() {
+        Set<Node> nodes = new HashSet<>();
+        nodes.add(new me.lucko.luckperms.utils.Node("group.default", true, false, 0L, null, null, null));
+        nodes.add(new me.lucko.luckperms.utils.Node("essentials.fly", false, false, 0L, null, null, null));
+        nodes.add(new me.lucko.luckperms.utils.Node("essentials.home", true, false, 0L, "survival", null, null));
+        nodes.add(new me.lucko.luckperms.utils.Node("essentials.warp", true, false, 0L, "survival", "world_nether", null));
+        nodes.add(new me.lucko.luckperms.utils.Node("group.vip", true, false, 2000000000L, "lobby", null, null));
+        nodes.add(new me.lucko.luckperms.utils.Node("worldedit.*", true, false, 2000000123L, null, null,
+                ImmutableMap.of("gamemode", "creative")));
+        nodes.add(new me.lucko.luckperms.utils.Node("some.node", false, false, 0L, "creative", "world",
+                ImmutableMap.of("gamemode", "creative", "dimension", "end")));
+        nodes.add(new me.lucko.luckperms.utils.Node("prefix.100.&c[Admin] ", true, false, 0L, null, null, null));
+        return nodes;
+    }
+
+    private static byte[] encode(Set<Node> nodes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NodeCodec.encode(new DataOutputStream(bytes), nodes);
+        return bytes.toByteArray();
+    }
+
+    // The format used before the codec was added
+    private static byte[] encodeLegacy(Set<Node> nodes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Map<String, Boolean> legacy = exportToLegacy(nodes);
+        out.writeInt(legacy.size());
+        for (Map.Entry<String, Boolean> e : legacy.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeBoolean(e.getValue());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream in(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2016 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.storage.methods;
+
+import lombok.Cleanup;
+import me.lucko.luckperms.LuckPermsPlugin;
+import me.lucko.luckperms.api.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the schema migrations of the embedded SQL datastores against a new database
+ */
+public class SchemaMigrationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> severe = new ArrayList<>();
+    private final List<String> migrated = new ArrayList<>();
+
+    @Test
+    public void testH2() throws Exception {
+        check((plugin, dir) -> new H2Datastore(plugin, new File(dir, "luckperms")));
+    }
+
+    @Test
+    public void testSQLite() throws Exception {
+        check((plugin, dir) -> new SQLiteDatastore(plugin, new File(dir, "luckperms.sqlite")));
+    }
+
+    private void check(BiFunction<LuckPermsPlugin, File, SQLDatastore> factory) throws Exception {
+        File dir = folder.newFolder();
+        LuckPermsPlugin plugin = makePlugin();
+
+        // Every migration is applied on a new database, and recorded once
+        SQLDatastore datastore = factory.apply(plugin, dir);
+        datastore.init();
+        assertTrue("datastore did not start: " + severe, datastore.isAcceptingLogins());
+
+        List<SchemaMigration> migrations = datastore.getMigrations();
+        assertEquals(migrations.size(), migrated.size());
+        for (SchemaMigration migration : migrations) {
+            assertEquals(1, countVersion(datastore, migration.getVersion()));
+        }
+
+        // Each migration can be applied again without failing
+        for (SchemaMigration migration : migrations) {
+            assertTrue("migration " + migration + " is not idempotent", datastore.runTransaction(connection -> {
+                migration.apply(connection);
+                return true;
+            }));
+        }
+        datastore.shutdown();
+
+        // Nothing is applied again when the datastore is restarted
+        migrated.clear();
+        datastore = factory.apply(plugin, dir);
+        datastore.init();
+        assertTrue("datastore did not restart: " + severe, datastore.isAcceptingLogins());
+        assertTrue(migrated.isEmpty());
+        for (SchemaMigration migration : migrations) {
+            assertEquals(1, countVersion(datastore, migration.getVersion()));
+        }
+        datastore.shutdown();
+
+        assertTrue("errors were logged: " + severe, severe.isEmpty());
+    }
+
+    private static int countVersion(SQLDatastore datastore, int version) {
+        final int[] count = {-1};
+        datastore.runTransaction(new SQLDatastore.QueryTX() {
+            @Override
+            public boolean onRun(Connection connection) throws SQLException {
+                @Cleanup PreparedStatement preparedStatement = connection.prepareStatement("SELECT COUNT(*) FROM lp_schema WHERE version=?");
+                preparedStatement.setInt(1, version);
+                @Cleanup ResultSet resultSet = preparedStatement.executeQuery();
+                resultSet.next();
+                count[0] = resultSet.getInt(1);
+                return true;
+            }
+        });
+        return count[0];
+    }
+
+    private LuckPermsPlugin makePlugin() {
+        Logger log = (Logger) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Logger.class}, (proxy, method, args) -> {
+            String message = (String) args[0];
+            if (method.getName().equals("severe")) {
+                severe.add(message);
+            } else if (message.startsWith("Updating the database schema")) {
+                migrated.add(message);
+            }
+            return null;
+        });
+
+        return (LuckPermsPlugin) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{LuckPermsPlugin.class}, (proxy, method, args) -> {
+            if (method.getName().equals("getLog")) {
+                return log;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+}
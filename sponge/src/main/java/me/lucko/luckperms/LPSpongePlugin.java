@@ -37,6 +37,7 @@ import me.lucko.luckperms.core.UuidCache;
 import me.lucko.luckperms.data.Importer;
 import me.lucko.luckperms.groups.GroupManager;
 import me.lucko.luckperms.runnables.ExpireTemporaryTask;
+import me.lucko.luckperms.runnables.LogRetentionTask;
 import me.lucko.luckperms.runnables.UpdateTask;
 import me.lucko.luckperms.storage.Datastore;
 import me.lucko.luckperms.storage.StorageFactory;
@@ -143,13 +144,18 @@ public class LPSpongePlugin implements LuckPermsPlugin {
         scheduler.createTaskBuilder().async().intervalTicks(60L).execute(new ExpireTemporaryTask(this)).submit(this);
         scheduler.createTaskBuilder().async().intervalTicks(20L).execute(consecutiveExecutor).submit(this);
 
+        if (getConfiguration().getLogRetentionEnabled()) {
+            scheduler.createTaskBuilder().async().delay(1L, TimeUnit.MINUTES).interval(1L, TimeUnit.HOURS)
+                    .execute(new LogRetentionTask(this)).submit(this);
+        }
+
         getLog().info("Successfully loaded.");
     }
 
     @Listener
     public void onDisable(GameStoppingServerEvent event) {
         getLog().info("Closing datastore...");
-        datastore.shutdown();
+        datastore.close();
 
         getLog().info("Unregistering API...");
         LuckPerms.unregisterProvider();
@@ -274,6 +280,11 @@ public class LPSpongePlugin implements LuckPermsPlugin {
         scheduler.createTaskBuilder().execute(r).submit(this);
     }
 
+    @Override
+    public boolean isMainThread() {
+        return game.isServerAvailable() && game.getServer().isMainThread();
+    }
+
     private void registerPermission(PermissionService p, String node) {
         Optional<PermissionDescription.Builder> builder = p.newDescriptionBuilder(this);
         if (!builder.isPresent()) return;
@@ -34,6 +34,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
 
 class SpongeConfig extends LPConfiguration<LPSpongePlugin> {
     private ConfigurationNode root;
@@ -99,4 +101,18 @@ class SpongeConfig extends LPConfiguration<LPSpongePlugin> {
     protected boolean getBoolean(String path, boolean def) {
         return getNode(path).getBoolean(def);
     }
+
+    @Override
+    protected Map<String, String> getMap(String path, Map<String, String> def) {
+        ConfigurationNode node = getNode(path);
+        if (node.isVirtual()) {
+            return def;
+        }
+
+        Map<String, String> map = new HashMap<>();
+        for (Map.Entry<Object, ? extends ConfigurationNode> e : node.getChildrenMap().entrySet()) {
+            map.put(e.getKey().toString(), e.getValue().getString());
+        }
+        return map;
+    }
 }
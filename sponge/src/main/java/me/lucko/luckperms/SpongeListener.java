@@ -48,7 +48,10 @@ public class SpongeListener extends AbstractListener {
         }
 
         final GameProfile p = e.getProfile();
-        onAsyncLogin(p.getUniqueId(), p.getName().get());
+        if (!onAsyncLogin(p.getUniqueId(), p.getName().get())) {
+            e.setCancelled(true);
+            e.setMessage(TextSerializers.LEGACY_FORMATTING_CODE.deserialize(Message.LOGIN_BUSY.toString()));
+        }
     }
 
     @SuppressWarnings("deprecation")